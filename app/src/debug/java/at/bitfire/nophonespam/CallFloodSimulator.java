@@ -0,0 +1,341 @@
+/*
+ * Copyright © Ricki Hirner (bitfire web engineering).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ */
+
+package at.bitfire.nophonespam;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.Intent;
+import android.database.DatabaseErrorHandler;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.annotation.NonNull;
+import android.telephony.TelephonyManager;
+import android.util.Log;
+
+import com.android.internal.telephony.ITelephony;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+import at.bitfire.nophonespam.model.DbHelper;
+import at.bitfire.nophonespam.model.Number;
+
+/**
+ * Load test for {@link CallReceiver}: replays synthetic ringing broadcasts against a
+ * generated blacklist and reports throughput, decision latency and write amplification.
+ *
+ * The real receiver code runs, but
+ * <ul>
+ *     <li>all database access goes to a scratch database ({@link #SCRATCH_PREFIX}database),</li>
+ *     <li>calls are "ended" by a fake {@link ITelephony} which only counts them, and</li>
+ *     <li>no notifications are shown.</li>
+ * </ul>
+ * The in-memory blacklist is dropped before and after the run. Real calls which arrive
+ * during a run are screened against the generated blacklist. The receiver runs on the
+ * calling thread (not the main thread), so the app's activities should be closed.
+ *
+ * The screening engine alone (without the receiver, database and telephony) is load-tested
+ * on the JVM by <code>CallFloodTest</code> of the core module.
+ */
+public class CallFloodSimulator {
+    private static final String TAG = "NoPhoneSpam";
+
+    static final String SCRATCH_PREFIX = "loadtest-";
+
+    /** numbers a robo-dialer calls again and again */
+    static final int RECENT_NUMBERS = 16;
+
+    // blacklist
+    int entries = 100000;
+    /** share of wildcard patterns in the blacklist */
+    float patternShare = 0.01f;
+
+    // calls
+    int calls = 10000;
+    /** calls per second, 0 for as fast as possible */
+    int rate;
+    /** share of calls from blocked numbers */
+    float blockedShare = 0.5f;
+    /** share of calls which repeat a recent number */
+    float repeatShare = 0.2f;
+    /** share of calls without caller ID */
+    float hiddenShare = 0.02f;
+
+    long seed = 1;
+
+    private final Context context;
+    private final Random random = new Random();
+
+    private String[] exactNumbers;
+    private String[] patternPrefixes;
+
+    CallFloodSimulator(Context context) {
+        // make sure the allowlist singleton uses the real database
+        Allowlist.getInstance(context);
+
+        this.context = new ScratchContext(context.getApplicationContext());
+    }
+
+
+    Result run() {
+        random.setSeed(seed);
+        createBlacklist();
+        CallReceiver.blacklistChanged();
+        BlockedCallLog.clearRuleCache();
+
+        SimulatedReceiver receiver = new SimulatedReceiver();
+        Intent idle = new Intent(TelephonyManager.ACTION_PHONE_STATE_CHANGED)
+                .putExtra(TelephonyManager.EXTRA_STATE, TelephonyManager.EXTRA_STATE_IDLE);
+
+        String[] recent = new String[RECENT_NUMBERS];
+        long[] latencies = new long[calls];
+        long logicalBytes = 0;
+
+        long writtenBefore = bytesWritten();
+        long dbSizeBefore = databaseSize();
+        long start = System.nanoTime();
+        try {
+            for (int i = 0; i < calls; i++) {
+                if (rate > 0) {
+                    long due = start + i * 1000000000L / rate;
+                    long wait = due - System.nanoTime();
+                    if (wait > 0)
+                        Thread.sleep(wait / 1000000, (int)(wait % 1000000));
+                }
+
+                String number = nextNumber(recent, i);
+                Intent ringing = new Intent(TelephonyManager.ACTION_PHONE_STATE_CHANGED)
+                        .putExtra(TelephonyManager.EXTRA_STATE, TelephonyManager.EXTRA_STATE_RINGING)
+                        .putExtra(TelephonyManager.EXTRA_INCOMING_NUMBER, number);
+
+                int endedBefore = receiver.telephony.ended;
+                long callStart = System.nanoTime();
+                receiver.onReceive(context, ringing);
+                latencies[i] = System.nanoTime() - callStart;
+                receiver.onReceive(context, idle);
+
+                if (receiver.telephony.ended > endedBefore)
+                    // log entry + statistics update
+                    logicalBytes += (number != null ? number.length() : 0) + receiver.lastRule.length() + 3*8 + 2*8;
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        long duration = System.nanoTime() - start;
+
+        // write pending log entries now, so that they are counted
+        BlockedCallLog.flush(context);
+        BlockedCallLog.clearRuleCache();
+        CallReceiver.blacklistChanged();
+
+        Result result = new Result();
+        result.calls = calls;
+        result.blocked = receiver.telephony.ended;
+        result.durationNanos = duration;
+        Arrays.sort(latencies);
+        result.p50Nanos = latencies[calls / 2];
+        result.p99Nanos = latencies[Math.min(calls - 1, calls * 99 / 100)];
+        result.maxNanos = latencies[calls - 1];
+        result.bytesWritten = bytesWritten() - writtenBefore;
+        result.databaseGrowth = databaseSize() - dbSizeBefore;
+        result.logicalBytes = logicalBytes;
+        return result;
+    }
+
+    private void createBlacklist() {
+        context.deleteDatabase("database");
+
+        int patterns = (int)(entries * patternShare);
+        exactNumbers = new String[entries - patterns];
+        patternPrefixes = new String[patterns];
+
+        DbHelper dbHelper = new DbHelper(context);
+        try {
+            SQLiteDatabase db = dbHelper.getWritableDatabase();
+            db.beginTransaction();
+            try {
+                ContentValues values = new ContentValues(1);
+                for (int i = 0; i < exactNumbers.length; i++) {
+                    exactNumbers[i] = "+4366" + digits(8);
+                    values.put(Number.NUMBER, exactNumbers[i]);
+                    db.insertWithOnConflict(Number._TABLE, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+                }
+                for (int i = 0; i < patterns; i++) {
+                    patternPrefixes[i] = "+431" + digits(3 + random.nextInt(4));
+                    values.put(Number.NUMBER, patternPrefixes[i] + (random.nextBoolean() ? "%" : "____"));
+                    db.insertWithOnConflict(Number._TABLE, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } finally {
+            dbHelper.close();
+        }
+        Log.i(TAG, "Load test: created blacklist with " + exactNumbers.length + " numbers and " + patterns + " patterns");
+    }
+
+    private String nextNumber(String[] recent, int i) {
+        float r = random.nextFloat();
+        String number;
+        if (r < hiddenShare)
+            return null;
+        else if (i >= RECENT_NUMBERS && r < hiddenShare + repeatShare)
+            number = recent[random.nextInt(RECENT_NUMBERS)];
+        else if (random.nextFloat() < blockedShare) {
+            if (patternPrefixes.length > 0 && random.nextFloat() < patternShare)
+                number = patternPrefixes[random.nextInt(patternPrefixes.length)] + "0000";
+            else
+                number = exactNumbers[random.nextInt(exactNumbers.length)];
+        } else
+            // other country code, never blocked
+            number = "+49" + digits(9);
+        recent[i % RECENT_NUMBERS] = number;
+        return number;
+    }
+
+    private String digits(int count) {
+        char[] digits = new char[count];
+        for (int i = 0; i < count; i++)
+            digits[i] = (char)('0' + random.nextInt(10));
+        return new String(digits);
+    }
+
+    /**
+     * @return bytes written to storage by this process so far, or -1 if not available
+     */
+    private static long bytesWritten() {
+        try {
+            BufferedReader reader = new BufferedReader(new FileReader("/proc/self/io"));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null)
+                    if (line.startsWith("write_bytes:"))
+                        return Long.parseLong(line.substring(12).trim());
+            } finally {
+                reader.close();
+            }
+        } catch(IOException|NumberFormatException e) {
+            Log.w(TAG, "Couldn't read I/O statistics", e);
+        }
+        return -1;
+    }
+
+    private long databaseSize() {
+        File file = context.getDatabasePath("database");
+        long size = file.length();
+        File wal = new File(file.getPath() + "-wal");
+        return size + wal.length();
+    }
+
+
+    static class Result {
+
+        int calls, blocked;
+        long durationNanos, p50Nanos, p99Nanos, maxNanos;
+        long bytesWritten, databaseGrowth, logicalBytes;
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT,
+                    "%d calls (%d blocked) in %.0f ms: %.0f calls/s, latency p50 %.3f ms, p99 %.3f ms, max %.3f ms; " +
+                    "%d bytes written (database +%d bytes) for %d bytes of data, write amplification %.1f",
+                    calls, blocked, durationNanos / 1e6, calls / (durationNanos / 1e9),
+                    p50Nanos / 1e6, p99Nanos / 1e6, maxNanos / 1e6,
+                    bytesWritten, databaseGrowth, logicalBytes, logicalBytes > 0 ? (float)bytesWritten / logicalBytes : 0f);
+        }
+
+    }
+
+
+    /**
+     * Redirects all databases to files with {@link #SCRATCH_PREFIX}.
+     */
+    static class ScratchContext extends ContextWrapper {
+
+        ScratchContext(Context base) {
+            super(base);
+        }
+
+        @Override
+        public Context getApplicationContext() {
+            // components which use the application context must use the scratch database, too
+            return this;
+        }
+
+        @Override
+        public File getDatabasePath(String name) {
+            return super.getDatabasePath(SCRATCH_PREFIX + name);
+        }
+
+        @Override
+        public SQLiteDatabase openOrCreateDatabase(String name, int mode, SQLiteDatabase.CursorFactory factory) {
+            return super.openOrCreateDatabase(SCRATCH_PREFIX + name, mode, factory);
+        }
+
+        @Override
+        public SQLiteDatabase openOrCreateDatabase(String name, int mode, SQLiteDatabase.CursorFactory factory, DatabaseErrorHandler errorHandler) {
+            return super.openOrCreateDatabase(SCRATCH_PREFIX + name, mode, factory, errorHandler);
+        }
+
+        @Override
+        public boolean deleteDatabase(String name) {
+            return super.deleteDatabase(SCRATCH_PREFIX + name);
+        }
+
+    }
+
+    static class FakeTelephony implements ITelephony {
+
+        int ended;
+
+        @Override
+        public boolean endCall() {
+            ended++;
+            return true;
+        }
+
+        @Override
+        public void answerRingingCall() {
+        }
+
+        @Override
+        public void silenceRinger() {
+        }
+
+    }
+
+    static class SimulatedReceiver extends CallReceiver {
+
+        final FakeTelephony telephony = new FakeTelephony();
+        String lastRule;
+
+        @Override
+        protected ITelephony telephony(@NonNull Context context) {
+            return telephony;
+        }
+
+        @Override
+        protected void notifyRejected(@NonNull Context context, Number number) {
+        }
+
+        @Override
+        protected void logCall(Context context, String incomingNumber, String rule, long latencyNanos) {
+            lastRule = rule;
+            super.logCall(context, incomingNumber, rule, latencyNanos);
+        }
+
+    }
+
+}
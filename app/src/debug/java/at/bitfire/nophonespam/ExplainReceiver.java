@@ -0,0 +1,56 @@
+/*
+ * Copyright © Ricki Hirner (bitfire web engineering).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ */
+
+package at.bitfire.nophonespam;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+
+/**
+ * Explains screening decisions (debug builds only). Traces are logged.
+ *
+ * <pre>
+ * # replay the screening of a number (without handling it as a call)
+ * adb shell am broadcast -n at.bitfire.nophonespam/.ExplainReceiver --es number +4312345678
+ * # trace real calls (or stop it with false)
+ * adb shell am broadcast -n at.bitfire.nophonespam/.ExplainReceiver --ez calls true
+ * adb logcat -s NoPhoneSpam
+ * </pre>
+ */
+public class ExplainReceiver extends BroadcastReceiver {
+    private static final String TAG = "NoPhoneSpam";
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if (intent.hasExtra("calls")) {
+            boolean trace = intent.getBooleanExtra("calls", false);
+            new Settings(context).traceCalls(trace);
+            Log.i(TAG, "Tracing of calls " + (trace ? "enabled" : "disabled"));
+        }
+
+        final String number = intent.getStringExtra("number");
+        if (number != null) {
+            final Context appContext = context.getApplicationContext();
+            final PendingResult result = goAsync();
+            // the blacklist may have to be loaded from the database first
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Log.i(TAG, ScreeningPipeline.explain(appContext, number).toString());
+                    } finally {
+                        result.finish();
+                    }
+                }
+            }, "ExplainReceiver").start();
+        }
+    }
+
+}
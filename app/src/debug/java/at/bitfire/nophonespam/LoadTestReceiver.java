@@ -0,0 +1,71 @@
+/*
+ * Copyright © Ricki Hirner (bitfire web engineering).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ */
+
+package at.bitfire.nophonespam;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * Starts a {@link CallFloodSimulator} run (debug builds only). Results are logged.
+ *
+ * <pre>
+ * adb shell am broadcast -n at.bitfire.nophonespam/.LoadTestReceiver \
+ *      --ei entries 100000 --ef patterns 0.01 \
+ *      --ei calls 10000 --ei rate 0 --ef blocked 0.5 --ef repeat 0.2 --ef hidden 0.02 --el seed 1
+ * adb logcat -s NoPhoneSpam
+ * </pre>
+ */
+public class LoadTestReceiver extends BroadcastReceiver {
+    private static final String TAG = "NoPhoneSpam";
+
+    private static boolean running;
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        synchronized(LoadTestReceiver.class) {
+            if (running) {
+                Log.w(TAG, "Load test already running");
+                return;
+            }
+            running = true;
+        }
+
+        final CallFloodSimulator simulator = new CallFloodSimulator(context);
+        simulator.entries = intent.getIntExtra("entries", simulator.entries);
+        simulator.patternShare = intent.getFloatExtra("patterns", simulator.patternShare);
+        simulator.calls = intent.getIntExtra("calls", simulator.calls);
+        simulator.rate = intent.getIntExtra("rate", simulator.rate);
+        simulator.blockedShare = intent.getFloatExtra("blocked", simulator.blockedShare);
+        simulator.repeatShare = intent.getFloatExtra("repeat", simulator.repeatShare);
+        simulator.hiddenShare = intent.getFloatExtra("hidden", simulator.hiddenShare);
+        simulator.seed = intent.getLongExtra("seed", simulator.seed);
+
+        // may take longer than a broadcast is allowed to
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_FOREGROUND);
+                try {
+                    Log.i(TAG, "Load test result: " + simulator.run());
+                    Log.i(TAG, "Screening rules: " + ScreeningPipeline.statistics());
+                } catch(Exception e) {
+                    Log.e(TAG, "Load test failed", e);
+                } finally {
+                    synchronized(LoadTestReceiver.class) {
+                        running = false;
+                    }
+                }
+            }
+        }, "LoadTest").start();
+    }
+
+}
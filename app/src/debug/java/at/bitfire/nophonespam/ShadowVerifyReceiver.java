@@ -0,0 +1,52 @@
+/*
+ * Copyright © Ricki Hirner (bitfire web engineering).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ */
+
+package at.bitfire.nophonespam;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+
+/**
+ * Controls the {@link ShadowVerifier} (debug builds only). Results are logged.
+ *
+ * <pre>
+ * # verify real calls in the background (or stop it with false)
+ * adb shell am broadcast -n at.bitfire.nophonespam/.ShadowVerifyReceiver --ez calls true
+ * # verify a generated corpus
+ * adb shell am broadcast -n at.bitfire.nophonespam/.ShadowVerifyReceiver --ei corpus 10000 [--el seed 1]
+ * adb logcat -s NoPhoneSpam
+ * </pre>
+ */
+public class ShadowVerifyReceiver extends BroadcastReceiver {
+    private static final String TAG = "NoPhoneSpam";
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if (intent.hasExtra("calls")) {
+            boolean verify = intent.getBooleanExtra("calls", false);
+            new Settings(context).shadowVerification(verify);
+            Log.i(TAG, "Shadow verification of calls " + (verify ? "enabled" : "disabled"));
+        }
+
+        if (intent.hasExtra("corpus")) {
+            final Context appContext = context.getApplicationContext();
+            final int randomNumbers = intent.getIntExtra("corpus", 0);
+            final long seed = intent.getLongExtra("seed", System.currentTimeMillis());
+            // may take longer than a broadcast is allowed to
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    ShadowVerifier.verifyCorpus(appContext, randomNumbers, seed);
+                }
+            }, "ShadowVerifier").start();
+        }
+    }
+
+}
@@ -0,0 +1,340 @@
+/*
+ * Copyright © Ricki Hirner (bitfire web engineering).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ */
+
+package at.bitfire.nophonespam;
+
+import android.Manifest;
+import android.annotation.TargetApi;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.provider.ContactsContract;
+import android.support.v4.content.ContextCompat;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import at.bitfire.nophonespam.model.AllowedNumber;
+import at.bitfire.nophonespam.model.DbHelper;
+import at.bitfire.nophonespam.screening.PhoneNumbers;
+import at.bitfire.nophonespam.screening.ScreeningRules;
+
+/**
+ * Numbers which are never blocked, even if they match a (wildcard) blacklist entry.
+ *
+ * The allowlist is stored in {@link AllowedNumber#_TABLE} and held in memory as a hash
+ * set of normalized numbers, so that {@link #isAllowed(String)} is one hash lookup.
+ * Numbers can be added manually (see {@link AllowedNumber#insertManual}). When enabled, the
+ * numbers of all contacts are added to the allowlist, too. Changes of the contacts are applied
+ * incrementally (only changed/deleted contacts are read) by a content observer.
+ *
+ * The numbers are loaded in the background, so that the first call after the process has
+ * been started doesn't have to wait for the whole allowlist. Until then, single numbers are
+ * looked up in the database.
+ */
+public class Allowlist implements ScreeningRules.AllowedNumbers {
+    private static final String TAG = "NoPhoneSpam";
+
+    /** contacts are usually changed in bursts (sync), so wait a bit before reading the changes */
+    static final long CONTACTS_SYNC_DELAY = 2000;
+
+    private static Allowlist instance;
+
+    private final Context context;
+    /** normalized numbers; synchronized on itself for writing, so that it always follows the table */
+    private final Set<String> numbers = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    /** whether all numbers have been loaded into {@link #numbers} */
+    private volatile boolean loaded;
+
+    private final Handler handler;
+    private final ContactsObserver contactsObserver;
+    private boolean observing;
+
+    private final Runnable load = new Runnable() {
+        @Override
+        public void run() {
+            load();
+        }
+    };
+    private final Runnable syncContacts = new Runnable() {
+        @Override
+        public void run() {
+            syncContacts();
+        }
+    };
+
+
+    public static synchronized Allowlist getInstance(Context context) {
+        if (instance == null) {
+            instance = new Allowlist(context.getApplicationContext());
+            // contacts are synchronized after loading (same thread)
+            instance.handler.post(instance.load);
+            instance.contactsSettingChanged();
+        }
+        return instance;
+    }
+
+    private Allowlist(Context context) {
+        this.context = context;
+
+        HandlerThread thread = new HandlerThread("Allowlist", Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+        contactsObserver = new ContactsObserver(handler);
+    }
+
+
+    /**
+     * @param number    normalized number
+     * @return whether the number must not be blocked
+     */
+    @Override
+    public boolean isAllowed(String number) {
+        if (numbers.contains(number))
+            return true;
+        if (loaded)
+            return false;
+
+        // still loading, only look up this number
+        DbHelper dbHelper = new DbHelper(context);
+        try {
+            return isInTable(dbHelper.getReadableDatabase(), number);
+        } finally {
+            dbHelper.close();
+        }
+    }
+
+    /**
+     * Applies changes of {@link AllowedNumber#_TABLE} to the allowlist. Must be called after numbers
+     * have been added or removed (and the changes have been committed).
+     * @param changed normalized numbers which may have been added or removed
+     */
+    public void numbersChanged(Collection<String> changed) {
+        DbHelper dbHelper = new DbHelper(context);
+        try {
+            apply(dbHelper.getReadableDatabase(), changed);
+        } finally {
+            dbHelper.close();
+        }
+    }
+
+    /**
+     * Must be called when {@link Settings#allowContacts()} or the contacts permission have changed.
+     */
+    public synchronized void contactsSettingChanged() {
+        boolean allowContacts = new Settings(context).allowContacts() && hasContactsPermission();
+
+        ContentResolver resolver = context.getContentResolver();
+        if (allowContacts && !observing)
+            resolver.registerContentObserver(ContactsContract.CommonDataKinds.Phone.CONTENT_URI, true, contactsObserver);
+        else if (!allowContacts && observing)
+            resolver.unregisterContentObserver(contactsObserver);
+        observing = allowContacts;
+
+        // catch up with changes (or remove contacts from allowlist)
+        handler.removeCallbacks(syncContacts);
+        handler.post(syncContacts);
+    }
+
+
+    private void load() {
+        DbHelper dbHelper = new DbHelper(context);
+        try {
+            synchronized(numbers) {
+                Cursor c = dbHelper.getReadableDatabase().query(AllowedNumber._TABLE, new String[] { AllowedNumber.NUMBER }, null, null, null, null, null);
+                try {
+                    while (c.moveToNext())
+                        numbers.add(c.getString(0));
+                } finally {
+                    c.close();
+                }
+            }
+        } catch(Exception e) {
+            Log.e(TAG, "Couldn't load allowlist", e);
+            return;
+        } finally {
+            dbHelper.close();
+        }
+        loaded = true;
+        Log.i(TAG, "Loaded " + numbers.size() + " allowed number(s)");
+    }
+
+    private boolean hasContactsPermission() {
+        return ContextCompat.checkSelfPermission(context, Manifest.permission.READ_CONTACTS) == PackageManager.PERMISSION_GRANTED;
+    }
+
+    private void syncContacts() {
+        Settings settings = new Settings(context);
+        long since = settings.contactsSyncedUntil();
+        long syncStart = System.currentTimeMillis();
+
+        DbHelper dbHelper = new DbHelper(context);
+        try {
+            SQLiteDatabase db = dbHelper.getWritableDatabase();
+            // numbers which may have been added or removed
+            Set<String> affected = new HashSet<>();
+
+            db.beginTransaction();
+            try {
+                if (!settings.allowContacts() || !hasContactsPermission()) {
+                    removeContacts(db, AllowedNumber.CONTACT_ID + " IS NOT NULL", null, affected);
+                    syncStart = 0;
+
+                } else if (since != 0 && Build.VERSION.SDK_INT >= 18)
+                    syncChangedContacts(db, since, affected);
+
+                else {
+                    removeContacts(db, AllowedNumber.CONTACT_ID + " IS NOT NULL", null, affected);
+                    addContacts(db, null, null, affected);
+                }
+
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+
+            apply(db, affected);
+            Log.i(TAG, "Synchronized contacts to allowlist, " + affected.size() + " number(s) affected");
+
+        } catch(Exception e) {
+            Log.e(TAG, "Couldn't synchronize contacts to allowlist", e);
+            return;
+        } finally {
+            dbHelper.close();
+        }
+
+        settings.contactsSyncedUntil(syncStart);
+    }
+
+    @TargetApi(18)
+    private void syncChangedContacts(SQLiteDatabase db, long since, Set<String> affected) {
+        ContentResolver resolver = context.getContentResolver();
+        String[] sinceArgs = new String[] { String.valueOf(since) };
+
+        Cursor c = resolver.query(ContactsContract.DeletedContacts.CONTENT_URI, new String[] { ContactsContract.DeletedContacts.CONTACT_ID },
+                ContactsContract.DeletedContacts.CONTACT_DELETED_TIMESTAMP + ">?", sinceArgs, null);
+        if (c != null)
+            try {
+                while (c.moveToNext())
+                    removeContacts(db, AllowedNumber.CONTACT_ID + "=?", new String[] { c.getString(0) }, affected);
+            } finally {
+                c.close();
+            }
+
+        // re-read all numbers of changed contacts
+        Set<Long> changed = new HashSet<>();
+        c = resolver.query(ContactsContract.CommonDataKinds.Phone.CONTENT_URI, new String[] { ContactsContract.CommonDataKinds.Phone.CONTACT_ID },
+                ContactsContract.CommonDataKinds.Phone.CONTACT_LAST_UPDATED_TIMESTAMP + ">?", sinceArgs, null);
+        if (c != null)
+            try {
+                while (c.moveToNext())
+                    changed.add(c.getLong(0));
+            } finally {
+                c.close();
+            }
+        for (long contactId : changed) {
+            String[] idArgs = new String[] { String.valueOf(contactId) };
+            removeContacts(db, AllowedNumber.CONTACT_ID + "=?", idArgs, affected);
+            addContacts(db, ContactsContract.CommonDataKinds.Phone.CONTACT_ID + "=?", idArgs, affected);
+        }
+    }
+
+    private void removeContacts(SQLiteDatabase db, String where, String[] whereArgs, Set<String> affected) {
+        Cursor c = db.query(AllowedNumber._TABLE, new String[] { AllowedNumber.NUMBER }, where, whereArgs, null, null, null);
+        try {
+            while (c.moveToNext())
+                affected.add(c.getString(0));
+        } finally {
+            c.close();
+        }
+        db.delete(AllowedNumber._TABLE, where, whereArgs);
+    }
+
+    private void addContacts(SQLiteDatabase db, String where, String[] whereArgs, Set<String> affected) {
+        boolean hasNormalized = Build.VERSION.SDK_INT >= 16;
+        String[] projection = hasNormalized ?
+                new String[] { ContactsContract.CommonDataKinds.Phone.CONTACT_ID, ContactsContract.CommonDataKinds.Phone.DISPLAY_NAME,
+                        ContactsContract.CommonDataKinds.Phone.NUMBER, ContactsContract.CommonDataKinds.Phone.NORMALIZED_NUMBER } :
+                new String[] { ContactsContract.CommonDataKinds.Phone.CONTACT_ID, ContactsContract.CommonDataKinds.Phone.DISPLAY_NAME,
+                        ContactsContract.CommonDataKinds.Phone.NUMBER };
+
+        Cursor c = context.getContentResolver().query(ContactsContract.CommonDataKinds.Phone.CONTENT_URI, projection, where, whereArgs, null);
+        if (c == null)
+            return;
+        try {
+            ContentValues values = new ContentValues(3);
+            while (c.moveToNext()) {
+                values.put(AllowedNumber.CONTACT_ID, c.getLong(0));
+                values.put(AllowedNumber.NAME, c.getString(1));
+
+                // add both the number as entered and its E.164 form (if available), so that
+                // local and international spelling of incoming numbers match
+                Set<String> variants = new HashSet<>(2);
+                variants.add(PhoneNumbers.normalize(c.getString(2)));
+                if (hasNormalized)
+                    variants.add(PhoneNumbers.normalize(c.getString(3)));
+                for (String number : variants)
+                    if (!TextUtils.isEmpty(number)) {
+                        values.put(AllowedNumber.NUMBER, number);
+                        db.insertOrThrow(AllowedNumber._TABLE, null, values);
+                        affected.add(number);
+                    }
+            }
+        } finally {
+            c.close();
+        }
+    }
+
+    private void apply(SQLiteDatabase db, Collection<String> changed) {
+        synchronized(numbers) {
+            for (String number : changed)
+                if (isInTable(db, number))
+                    numbers.add(number);
+                else
+                    numbers.remove(number);
+        }
+    }
+
+    private static boolean isInTable(SQLiteDatabase db, String number) {
+        Cursor c = db.query(AllowedNumber._TABLE, new String[] { AllowedNumber._ID }, AllowedNumber.NUMBER + "=?", new String[] { number }, null, null, null, "1");
+        try {
+            return c.moveToNext();
+        } finally {
+            c.close();
+        }
+    }
+
+
+    private class ContactsObserver extends ContentObserver {
+
+        ContactsObserver(Handler handler) {
+            super(handler);
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            handler.removeCallbacks(syncContacts);
+            handler.postDelayed(syncContacts, CONTACTS_SYNC_DELAY);
+        }
+
+    }
+
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright © Ricki Hirner (bitfire web engineering).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ */
+
+package at.bitfire.nophonespam;
+
+import android.content.Context;
+import android.content.DialogInterface;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.support.design.widget.Snackbar;
+import android.support.v7.app.AlertDialog;
+import android.support.v7.app.AppCompatActivity;
+import android.text.TextUtils;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.AdapterView;
+import android.widget.ArrayAdapter;
+import android.widget.EditText;
+import android.widget.ListView;
+import android.widget.TextView;
+
+import java.util.Collections;
+import java.util.List;
+
+import at.bitfire.nophonespam.model.AllowedNumber;
+import at.bitfire.nophonespam.model.DbHelper;
+import at.bitfire.nophonespam.screening.PhoneNumbers;
+
+/**
+ * Manages the numbers which have been allowed manually (numbers of contacts are allowed
+ * by a setting and not shown here). A long tap removes a number.
+ */
+public class AllowlistActivity extends AppCompatActivity {
+
+    ListView list;
+    ArrayAdapter<AllowedNumber> adapter;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_allowlist);
+
+        list = (ListView)findViewById(R.id.numbers);
+        list.setAdapter(adapter = new AllowedNumberAdapter(this));
+        list.setEmptyView(findViewById(R.id.empty));
+        list.setOnItemLongClickListener(new AdapterView.OnItemLongClickListener() {
+            @Override
+            public boolean onItemLongClick(AdapterView<?> parent, View view, int position, long id) {
+                confirmRemove(adapter.getItem(position));
+                return true;
+            }
+        });
+
+        reload();
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.activity_allowlist, menu);
+        return true;
+    }
+
+    public void onAddNumber(MenuItem item) {
+        final View view = View.inflate(this, R.layout.dialog_add_allowed_number, null);
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.allowlist_add)
+                .setView(view)
+                .setPositiveButton(android.R.string.ok, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        String name = ((EditText)view.findViewById(R.id.name)).getText().toString().trim(),
+                               number = PhoneNumbers.normalize(((EditText)view.findViewById(R.id.number)).getText().toString());
+                        if (TextUtils.isEmpty(number))
+                            Snackbar.make(list, R.string.allowlist_invalid_number, Snackbar.LENGTH_LONG).show();
+                        else
+                            add(number, TextUtils.isEmpty(name) ? null : name);
+                    }
+                })
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
+
+    protected void reload() {
+        final Context context = getApplicationContext();
+        new AsyncTask<Void, Void, List<AllowedNumber>>() {
+            @Override
+            protected List<AllowedNumber> doInBackground(Void... params) {
+                DbHelper dbHelper = new DbHelper(context);
+                try {
+                    return AllowedNumber.queryManual(dbHelper.getReadableDatabase());
+                } finally {
+                    dbHelper.close();
+                }
+            }
+
+            @Override
+            protected void onPostExecute(List<AllowedNumber> numbers) {
+                adapter.clear();
+                adapter.addAll(numbers);
+            }
+        }.execute();
+    }
+
+    protected void add(final String number, final String name) {
+        final Context context = getApplicationContext();
+        new AsyncTask<Void, Void, Void>() {
+            @Override
+            protected Void doInBackground(Void... params) {
+                DbHelper dbHelper = new DbHelper(context);
+                try {
+                    AllowedNumber.insertManual(dbHelper.getWritableDatabase(), number, name);
+                } finally {
+                    dbHelper.close();
+                }
+                Allowlist.getInstance(context).numbersChanged(Collections.singleton(number));
+                BlacklistProvider.notifyAllowedChanged(context);
+                return null;
+            }
+
+            @Override
+            protected void onPostExecute(Void result) {
+                reload();
+            }
+        }.execute();
+    }
+
+    protected void confirmRemove(final AllowedNumber number) {
+        final Context context = getApplicationContext();
+        new AlertDialog.Builder(this)
+                .setMessage(getString(R.string.allowlist_remove, number.number))
+                .setPositiveButton(android.R.string.ok, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        new AsyncTask<Void, Void, Void>() {
+                            @Override
+                            protected Void doInBackground(Void... params) {
+                                DbHelper dbHelper = new DbHelper(context);
+                                try {
+                                    AllowedNumber.deleteManual(dbHelper.getWritableDatabase(), number.number);
+                                } finally {
+                                    dbHelper.close();
+                                }
+                                Allowlist.getInstance(context).numbersChanged(Collections.singleton(number.number));
+                                BlacklistProvider.notifyAllowedChanged(context);
+                                return null;
+                            }
+
+                            @Override
+                            protected void onPostExecute(Void result) {
+                                reload();
+                            }
+                        }.execute();
+                    }
+                })
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
+
+    private static class AllowedNumberAdapter extends ArrayAdapter<AllowedNumber> {
+
+        public AllowedNumberAdapter(Context context) {
+            super(context, R.layout.allowed_number_item);
+        }
+
+        @Override
+        public View getView(int position, View view, ViewGroup parent) {
+            if (view == null)
+                view = View.inflate(getContext(), R.layout.allowed_number_item, null);
+
+            AllowedNumber number = getItem(position);
+
+            TextView tv = (TextView)view.findViewById(R.id.number);
+            tv.setText(number.number);
+
+            tv = (TextView)view.findViewById(R.id.name);
+            if (number.name != null) {
+                tv.setVisibility(View.VISIBLE);
+                tv.setText(number.name);
+            } else
+                tv.setVisibility(View.GONE);
+
+            return view;
+        }
+
+    }
+
+}
@@ -0,0 +1,380 @@
+/*
+ * Copyright © Ricki Hirner (bitfire web engineering).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ */
+
+package at.bitfire.nophonespam;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import at.bitfire.nophonespam.model.DbHelper;
+import at.bitfire.nophonespam.model.Number;
+import at.bitfire.nophonespam.model.NumberRange;
+import at.bitfire.nophonespam.model.Source;
+import at.bitfire.nophonespam.screening.CompiledMatcher;
+import at.bitfire.nophonespam.screening.CountryCode;
+import at.bitfire.nophonespam.screening.DecisionTrace;
+import at.bitfire.nophonespam.screening.MatcherSegment;
+import at.bitfire.nophonespam.screening.PhoneNumbers;
+import at.bitfire.nophonespam.screening.RangeIndex;
+import at.bitfire.nophonespam.screening.ScreeningRules;
+import at.bitfire.nophonespam.screening.SegmentBuilder;
+import at.bitfire.nophonespam.screening.Wildcards;
+
+/**
+ * In-memory snapshot of all blocklists (the personal blacklist and subscribed
+ * {@link Source}s) which is used to screen calls.
+ *
+ * The entries of every source are compiled into a {@link MatcherSegment} (see
+ * {@link SegmentBuilder}), and all segments are merged into one {@link CompiledMatcher},
+ * so that the lookup cost doesn't depend on the number of sources. Segments are kept in memory: when a source has been changed,
+ * {@link #invalidate(long)} only drops its segment, and the next {@link #getInstance(Context)}
+ * reads only that source again before merging. Names of entries are not kept in memory;
+ * they have to be read from the database when required.
+ *
+ * Blocked countries are kept as a bitset over {@link CountryCode#COUNTRIES}, so that they
+ * cost one dial code lookup per call, however many countries are blocked. Countries which
+ * share a dial code (like the USA and Canada) can only be blocked together.
+ *
+ * When memory is low, the segments can be dropped by {@link #trimSegments()}. The merged
+ * matcher which is used to screen calls stays in memory; only the next rebuild has to read
+ * all sources from the database again.
+ */
+public class Blacklist implements ScreeningRules.BlockedNumbers<Number> {
+    private static final String TAG = "NoPhoneSpam";
+
+    private static volatile Blacklist instance;
+
+    // compiled parts, guarded by Blacklist.class
+    private static final Map<Long, MatcherSegment> segments = new HashMap<>();
+    private static RangeIndex personalRanges;
+
+    private final CompiledMatcher matcher;
+    private final RangeIndex ranges;
+    /** replaced (not changed) when the blocked countries change, see {@link #countriesChanged(Set)} */
+    private volatile BitSet countries;
+    private final Map<Long, String> sourceNames;
+
+
+    public static Blacklist getInstance(Context context) {
+        Blacklist blacklist = instance;
+        if (blacklist == null)
+            blacklist = build(context);
+        return blacklist;
+    }
+
+    /**
+     * Drops the compiled entries of a source. Must be called when the entries
+     * of the source have been changed or the source has been removed.
+     * @param source ID of the source ({@link Source#PERSONAL} for the personal blacklist and ranges)
+     */
+    public static synchronized void invalidate(long source) {
+        segments.remove(source);
+        if (source == Source.PERSONAL)
+            personalRanges = null;
+        instance = null;
+    }
+
+    /**
+     * Replaces the blocked countries of the current blacklist, so that the
+     * entries don't have to be merged again.
+     * @param dialCodes dial codes of the blocked countries
+     */
+    public static synchronized void countriesChanged(Set<String> dialCodes) {
+        Blacklist blacklist = instance;
+        if (blacklist != null)
+            blacklist.countries = countries(dialCodes);
+    }
+
+    /**
+     * Replaces the compiled entries of a source (which have been changed) by
+     * an already compiled segment, so that they don't have to be read again.
+     */
+    public static synchronized void replace(long source, MatcherSegment segment) {
+        segments.put(source, segment);
+        instance = null;
+    }
+
+    /**
+     * Drops the compiled segments of all sources (but not the merged matcher which is used
+     * to screen calls). Sources are read from the database again when the blacklist is rebuilt.
+     * @return memory which has been released (estimated, in bytes)
+     */
+    public static synchronized long trimSegments() {
+        long released = segmentsMemoryUsage();
+        segments.clear();
+        return released;
+    }
+
+    /**
+     * @return estimated memory usage of the compiled segments (in bytes)
+     */
+    public static synchronized long segmentsMemoryUsage() {
+        long usage = 0;
+        for (MatcherSegment segment : segments.values())
+            usage += segment.memoryUsage();
+        return usage;
+    }
+
+    /**
+     * @return estimated memory usage of the current blacklist (matcher and ranges, in bytes), 0 if it hasn't been built
+     */
+    public static long residentMemoryUsage() {
+        Blacklist blacklist = instance;
+        if (blacklist == null)
+            return 0;
+        synchronized(blacklist) {
+            return blacklist.matcher.memoryUsage() + blacklist.ranges.memoryUsage();
+        }
+    }
+
+    private static synchronized Blacklist build(Context context) {
+        if (instance != null)
+            // built by another thread in the meantime
+            return instance;
+
+        DbHelper dbHelper = new DbHelper(context);
+        try {
+            SQLiteDatabase db = dbHelper.getReadableDatabase();
+            if (personalRanges == null)
+                personalRanges = NumberRange.loadIndex(db);
+
+            // personal entries first, so that they take precedence (for call statistics)
+            List<Source> sources = Source.queryAll(db);
+            List<MatcherSegment> ordered = new ArrayList<>(sources.size() + 1);
+            Map<Long, String> sourceNames = new HashMap<>();
+            ordered.add(segment(db, Source.PERSONAL));
+            for (Source source : sources) {
+                ordered.add(segment(db, source.id));
+                sourceNames.put(source.id, source.name);
+            }
+            // forget removed sources
+            segments.keySet().retainAll(sourceNames.keySet());
+            segments.put(Source.PERSONAL, ordered.get(0));
+
+            CompiledMatcher matcher = CompiledMatcher.merge(ordered);
+            Log.i(TAG, "Compiled " + ordered.size() + " blocklist(s): " + matcher.exactCount() + " exact numbers, " +
+                    matcher.patternCount() + " patterns (~" + matcher.memoryUsage()/1024 + " kB), " + personalRanges.size() + " ranges");
+
+            BitSet countries = countries(new Settings(context).blockedCountries());
+            return instance = new Blacklist(matcher, personalRanges, countries, sourceNames);
+        } finally {
+            dbHelper.close();
+        }
+    }
+
+    private static MatcherSegment segment(SQLiteDatabase db, long source) {
+        MatcherSegment segment = segments.get(source);
+        if (segment == null) {
+            segment = load(db, source, new SegmentBuilder());
+            segments.put(source, segment);
+            Log.d(TAG, "Rebuilt blocklist segment of source " + source);
+        }
+        return segment;
+    }
+
+    /**
+     * Reads the entries of a source and compiles them.
+     * @param builder   builder to use (can be used to cancel the build and observe its progress)
+     * @throws java.util.concurrent.CancellationException if the build has been cancelled
+     */
+    static MatcherSegment load(SQLiteDatabase db, long source, SegmentBuilder builder) {
+        if (source != Source.PERSONAL) {
+            // subscribed lists have neither statistics nor expiry times
+            String[] numbers = Source.queryNumbers(db, source);
+            int n = numbers.length;
+            return builder.build((int)source, numbers, new long[n], new int[n], new long[n]);
+        }
+
+        Cursor c = db.query(Number._TABLE, new String[] { Number.NUMBER, Number.LAST_CALL, Number.TIMES_CALLED, Number.EXPIRES },
+                null, null, null, null, null);
+        String[] numbers;
+        long[] lastCalls, expires;
+        int[] timesCalled;
+        try {
+            int n = c.getCount();
+            numbers = new String[n];
+            lastCalls = new long[n];
+            expires = new long[n];
+            timesCalled = new int[n];
+
+            for (int i = 0; c.moveToNext(); i++) {
+                numbers[i] = c.getString(0);
+                lastCalls[i] = c.isNull(1) ? 0 : c.getLong(1);
+                timesCalled[i] = c.getInt(2);
+                expires[i] = c.isNull(3) ? 0 : c.getLong(3);
+            }
+        } finally {
+            c.close();
+        }
+        return builder.build((int)source, numbers, lastCalls, timesCalled, expires);
+    }
+
+    /**
+     * @param dialCodes dial codes of blocked countries
+     * @return indexes (into {@link CountryCode#COUNTRIES}) of all countries with these dial codes
+     */
+    private static BitSet countries(Set<String> dialCodes) {
+        BitSet countries = new BitSet(CountryCode.COUNTRIES.length);
+        for (int i = 1; i < CountryCode.COUNTRIES.length; i++)
+            if (dialCodes.contains(CountryCode.COUNTRIES[i].dialCode))
+                countries.set(i);
+        return countries;
+    }
+
+    private Blacklist(CompiledMatcher matcher, RangeIndex ranges, BitSet countries, Map<Long, String> sourceNames) {
+        this.matcher = matcher;
+        this.ranges = ranges;
+        this.countries = countries;
+        this.sourceNames = sourceNames;
+    }
+
+
+    /**
+     * Finds the blacklist entry which matches a number. Doesn't allocate memory
+     * unless a matching entry is found.
+     * @param number    normalized incoming number
+     * @param now       current time (entries which have expired at this time are removed)
+     * @return matching entry (name may be null and has to be read from the database), or null if the number is not blocked
+     */
+    public synchronized Number lookup(String number, long now) {
+        Number entry = lookupRange(number);
+        if (entry == null)
+            entry = lookupExact(number, now);
+        if (entry == null)
+            entry = lookupPattern(number, now);
+        if (entry == null)
+            entry = lookupCountry(number);
+        return entry;
+    }
+
+    /**
+     * Like {@link #lookup(String, long)}, but only searches number ranges.
+     */
+    @Override
+    public synchronized Number lookupRange(String number) {
+        int rangeIdx = ranges.find(PhoneNumbers.encode(number));
+        if (rangeIdx == -1)
+            return null;
+
+        Number entry = new Number();
+        entry.number = NumberRange.label(ranges.start(rangeIdx), ranges.end(rangeIdx));
+        entry.name = ranges.name(rangeIdx);
+        entry.source = Source.RANGES;
+        return entry;
+    }
+
+    /**
+     * Like {@link #lookup(String, long)}, but only searches exact numbers.
+     */
+    @Override
+    public synchronized Number lookupExact(String number, long now) {
+        return matched(matcher.findExact(number, now));
+    }
+
+    /**
+     * Like {@link #lookup(String, long)}, but only searches patterns.
+     */
+    public synchronized Number lookupPattern(String number, long now) {
+        return lookupPattern(number, now, null);
+    }
+
+    /**
+     * Like {@link #lookupPattern(String, long)}, but records the patterns which have been checked.
+     * @param trace trace to record the checked patterns to (may be null)
+     */
+    @Override
+    public synchronized Number lookupPattern(String number, long now, DecisionTrace trace) {
+        return matched(matcher.findPattern(number, now, trace));
+    }
+
+    private Number matched(int handle) {
+        if (handle == CompiledMatcher.NO_MATCH)
+            return null;
+
+        Number entry = new Number();
+        entry.number = matcher.entry(handle);
+        entry.source = matcher.source(handle);
+        long lastCall = matcher.lastCall(handle);
+        entry.lastCall = lastCall != 0 ? lastCall : null;
+        entry.timesCalled = matcher.timesCalled(handle);
+        long expires = matcher.expires(handle);
+        entry.expires = expires != 0 ? expires : null;
+        return entry;
+    }
+
+    /**
+     * Like {@link #lookup(String, long)}, but only checks blocked countries.
+     */
+    @Override
+    public Number lookupCountry(String number) {
+        BitSet countries = this.countries;
+        int country = countries.isEmpty() ? 0 : CountryCode.findByDialCode(number);
+        if (country == 0 || !countries.get(country))
+            return null;
+
+        CountryCode code = CountryCode.COUNTRIES[country];
+        Number entry = new Number();
+        entry.number = "+" + code.dialCode + Wildcards.ANY;
+        entry.name = code.name;
+        entry.source = Source.COUNTRIES;
+        return entry;
+    }
+
+    public synchronized int exactCount() {
+        return matcher.exactCount();
+    }
+
+    public synchronized int patternCount() {
+        return matcher.patternCount();
+    }
+
+    public int rangeCount() {
+        return ranges.size();
+    }
+
+    public int countryCount() {
+        return countries.cardinality();
+    }
+
+    /**
+     * Updates the in-memory call statistics of an entry.
+     * @param entry entry which has been returned by {@link #lookup(String, long)}
+     */
+    public synchronized void recordCall(Number entry, long time) {
+        if (entry.source != Source.PERSONAL)
+            return;
+        int handle = matcher.find(entry.number, time);
+        if (matcher.isExact(handle) && matcher.source(handle) == Source.PERSONAL)
+            matcher.recordCall(handle, time);
+    }
+
+    @Override
+    public long expires(Number entry) {
+        return entry.expires != null ? entry.expires : 0;
+    }
+
+    /**
+     * @return rule which is shown in the call log for a matching entry
+     */
+    @Override
+    public String rule(Number entry) {
+        if (entry.source == Source.PERSONAL || entry.source == Source.COUNTRIES || entry.source == Source.RANGES)
+            return entry.number;
+        return sourceNames.get(entry.source) + ": " + entry.number;
+    }
+
+}
@@ -9,10 +9,12 @@
 package at.bitfire.nophonespam;
 
 import android.Manifest;
+import android.annotation.TargetApi;
 import android.app.LoaderManager;
 import android.content.AsyncTaskLoader;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.Loader;
 import android.content.pm.PackageManager;
@@ -21,12 +23,20 @@ import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.AsyncTask;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.OperationCanceledException;
 import android.support.annotation.NonNull;
 import android.support.design.widget.Snackbar;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.content.ContextCompat;
+import android.support.v4.view.MenuItemCompat;
+import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.SearchView;
+import android.text.TextUtils;
+import android.util.Log;
 import android.util.SparseBooleanArray;
 import android.view.ActionMode;
 import android.view.Menu;
@@ -39,23 +49,63 @@ import android.widget.ArrayAdapter;
 import android.widget.ListView;
 import android.widget.TextView;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
-import java.util.LinkedHashSet;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 
 import at.bitfire.nophonespam.model.DbHelper;
 import at.bitfire.nophonespam.model.Number;
+import at.bitfire.nophonespam.model.NumberRange;
+import at.bitfire.nophonespam.model.NumberSearch;
+import at.bitfire.nophonespam.screening.CountryCode;
+import at.bitfire.nophonespam.screening.PatternOptimizer;
+import at.bitfire.nophonespam.screening.Wildcards;
 
-public class BlacklistActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Set<Number>>, AdapterView.OnItemClickListener {
+public class BlacklistActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<BlacklistActivity.Page>, AdapterView.OnItemClickListener, MemoryTrimmer.UiCache {
+    private static final String TAG = "NoPhoneSpam";
+
+    static final int REQUEST_CONTACTS_PERMISSION = 1;
+    static final int REQUEST_IMPORT_RANGES = 2;
+
+    /** number of entries which are loaded at once; more entries are loaded when scrolling down */
+    static final int PAGE_SIZE = 100;
+
+    /** delay after a keystroke in the search field before the list is filtered */
+    static final long SEARCH_DELAY = 150;
+
+    /** estimated size of a loaded entry (for memory reports) */
+    static final int NUMBER_SIZE = 160;
 
     protected Settings settings;
 
     ListView list;
     ArrayAdapter<Number> adapter;
 
+    String searchQuery;
+    String sortOrder = Number.SORT_NUMBER;
+    /** whether all entries have been loaded */
+    boolean complete;
+    boolean loadingMore;
+
+    boolean started, trimmed;
+
+    final Handler handler = new Handler();
+    final Runnable search = new Runnable() {
+        @Override
+        public void run() {
+            reload();
+        }
+    };
+
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -67,6 +117,23 @@ public class BlacklistActivity extends AppCompatActivity implements LoaderManage
         list = (ListView)findViewById(R.id.numbers);
         list.setAdapter(adapter = new NumberAdapter(this));
         list.setOnItemClickListener(this);
+        list.setOnScrollListener(new AbsListView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+                // load next page when the user approaches the end of the loaded entries
+                if (!loadingMore && !complete && firstVisibleItem + visibleItemCount >= totalItemCount - PAGE_SIZE/5) {
+                    NumberLoader loader = (NumberLoader)getLoaderManager().<Page>getLoader(0);
+                    if (loader != null) {
+                        loadingMore = true;
+                        loader.loadMore();
+                    }
+                }
+            }
+        });
 
         list.setChoiceMode(ListView.CHOICE_MODE_MULTIPLE_MODAL);
         list.setMultiChoiceModeListener(new AbsListView.MultiChoiceModeListener() {
@@ -105,6 +172,52 @@ public class BlacklistActivity extends AppCompatActivity implements LoaderManage
             ActivityCompat.requestPermissions(this, new String[] { Manifest.permission.CALL_PHONE, Manifest.permission.READ_PHONE_STATE }, 0);
 
         getLoaderManager().initLoader(0, null, this);
+        MemoryTrimmer.addUiCache(this);
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        started = true;
+        if (trimmed) {
+            // entries have been released while the activity was hidden
+            trimmed = false;
+            getLoaderManager().initLoader(0, null, this);
+        }
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        RejectionNotifier.resetCounts();
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        started = false;
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        MemoryTrimmer.removeUiCache(this);
+    }
+
+    @Override
+    public long memoryUsage() {
+        return (long)adapter.getCount() * NUMBER_SIZE;
+    }
+
+    @Override
+    public long trimMemory() {
+        if (started || trimmed)
+            return 0;
+        long released = memoryUsage();
+        // releases the loaded entries and clears the adapter
+        getLoaderManager().destroyLoader(0);
+        trimmed = true;
+        return released;
     }
 
     protected void deleteSelectedNumbers() {
@@ -126,12 +239,18 @@ public class BlacklistActivity extends AppCompatActivity implements LoaderManage
                     for (String number : numbers)
                         db.delete(Number._TABLE, Number.NUMBER + "=?", new String[] { number });
                 } finally {
+                    CallReceiver.blacklistChanged();
                     dbHelper.close();
                 }
+                BlacklistProvider.notifyChanged(BlacklistActivity.this, numbers);
 
-                getLoaderManager().restartLoader(0, null, BlacklistActivity.this);
                 return null;
             }
+
+            @Override
+            protected void onPostExecute(Void result) {
+                reload();
+            }
         }.execute();
     }
 
@@ -139,6 +258,12 @@ public class BlacklistActivity extends AppCompatActivity implements LoaderManage
     public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
         super.onRequestPermissionsResult(requestCode, permissions, grantResults);
 
+        if (requestCode == REQUEST_CONTACTS_PERMISSION) {
+            // contacts are only synchronized when the permission has been granted
+            Allowlist.getInstance(this).contactsSettingChanged();
+            return;
+        }
+
         boolean ok = true;
         for (int result : grantResults)
             if (result != PackageManager.PERMISSION_GRANTED)
@@ -158,24 +283,226 @@ public class BlacklistActivity extends AppCompatActivity implements LoaderManage
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.activity_blacklist, menu);
+
+        SearchView searchView = (SearchView)MenuItemCompat.getActionView(menu.findItem(R.id.search));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                return onQueryTextChange(query);
+            }
+
+            @Override
+            public boolean onQueryTextChange(String query) {
+                searchQuery = query;
+                handler.removeCallbacks(search);
+                handler.postDelayed(search, SEARCH_DELAY);
+                return true;
+            }
+        });
         return true;
     }
 
     @Override
     public boolean onPrepareOptionsMenu(Menu menu) {
         menu.findItem(R.id.block_hidden_numbers).setChecked(settings.blockHiddenNumbers());
+        menu.findItem(R.id.block_repeated_calls).setChecked(settings.blockRepeatedCalls());
         menu.findItem(R.id.notifications).setChecked(settings.showNotifications());
+        menu.findItem(R.id.allow_contacts).setChecked(settings.allowContacts());
+
+        int sortItem = R.id.sort_number;
+        if (Number.SORT_LAST_CALL.equals(sortOrder))
+            sortItem = R.id.sort_last_call;
+        else if (Number.SORT_TIMES_CALLED.equals(sortOrder))
+            sortItem = R.id.sort_times_called;
+        menu.findItem(sortItem).setChecked(true);
         return true;
     }
 
     public void onBlockHiddenNumbers(MenuItem item) {
         settings.blockHiddenNumbers(!item.isChecked());
+        ScreeningPipeline.invalidate();
+    }
+
+    public void onBlockRepeatedCalls(MenuItem item) {
+        settings.blockRepeatedCalls(!item.isChecked());
+        ScreeningPipeline.invalidate();
     }
 
     public void onShowNotifications(MenuItem item) {
         settings.showNotifications(!item.isChecked());
     }
 
+    public void onSort(MenuItem item) {
+        switch (item.getItemId()) {
+            case R.id.sort_last_call:
+                sortOrder = Number.SORT_LAST_CALL;
+                break;
+            case R.id.sort_times_called:
+                sortOrder = Number.SORT_TIMES_CALLED;
+                break;
+            default:
+                sortOrder = Number.SORT_NUMBER;
+        }
+        item.setChecked(true);
+        reload();
+    }
+
+    public void onAllowContacts(MenuItem item) {
+        boolean allow = !item.isChecked();
+        settings.allowContacts(allow);
+        if (allow && ContextCompat.checkSelfPermission(this, Manifest.permission.READ_CONTACTS) != PackageManager.PERMISSION_GRANTED)
+            ActivityCompat.requestPermissions(this, new String[] { Manifest.permission.READ_CONTACTS }, REQUEST_CONTACTS_PERMISSION);
+        else
+            Allowlist.getInstance(this).contactsSettingChanged();
+    }
+
+    public void onBlockCountries(MenuItem item) {
+        final ListView countries = new ListView(this);
+        final CountryCodeAdapter adapter = new CountryCodeAdapter(this, R.layout.country_code_multiple_choice_item, false);
+        countries.setAdapter(adapter);
+        countries.setChoiceMode(ListView.CHOICE_MODE_MULTIPLE);
+
+        Set<String> blocked = settings.blockedCountries();
+        for (int i = 0; i < adapter.getCount(); i++)
+            countries.setItemChecked(i, blocked.contains(adapter.getItem(i).dialCode));
+
+        countries.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+            @Override
+            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+                // countries with the same dial code can't be distinguished
+                boolean checked = countries.isItemChecked(position);
+                String dialCode = adapter.getItem(position).dialCode;
+                for (int i = 0; i < adapter.getCount(); i++)
+                    if (adapter.getItem(i).dialCode.equals(dialCode))
+                        countries.setItemChecked(i, checked);
+            }
+        });
+
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.blacklist_block_countries)
+                .setView(countries)
+                .setPositiveButton(android.R.string.ok, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        Set<String> dialCodes = new HashSet<>();
+                        int count = 0;
+                        SparseBooleanArray checked = countries.getCheckedItemPositions();
+                        for (int i = 0; i < checked.size(); i++)
+                            if (checked.valueAt(i)) {
+                                dialCodes.add(adapter.getItem(checked.keyAt(i)).dialCode);
+                                count++;
+                            }
+                        settings.blockedCountries(dialCodes);
+                        CallReceiver.countriesChanged(dialCodes);
+
+                        Snackbar.make(list, getResources().getQuantityString(R.plurals.blacklist_countries_blocked, count, count),
+                                Snackbar.LENGTH_LONG).show();
+                    }
+                })
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
+    public void onImportRanges(MenuItem item) {
+        Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType("text/*");
+        startActivityForResult(intent, REQUEST_IMPORT_RANGES);
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if (requestCode == REQUEST_IMPORT_RANGES && resultCode == RESULT_OK && data != null && data.getData() != null)
+            importRanges(data.getData());
+        else
+            super.onActivityResult(requestCode, resultCode, data);
+    }
+
+    protected void importRanges(final Uri uri) {
+        final Context context = getApplicationContext();
+        new AsyncTask<Void, Void, int[]>() {
+            @Override
+            protected int[] doInBackground(Void... params) {
+                List<NumberRange> ranges = new LinkedList<>();
+                try {
+                    InputStream is = context.getContentResolver().openInputStream(uri);
+                    if (is == null)
+                        return null;
+                    BufferedReader reader = new BufferedReader(new InputStreamReader(is, "UTF-8"));
+                    try {
+                        String line;
+                        while ((line = reader.readLine()) != null) {
+                            NumberRange range = NumberRange.parse(line);
+                            if (range != null)
+                                ranges.add(range);
+                        }
+                    } finally {
+                        reader.close();
+                    }
+                } catch(IOException e) {
+                    Log.e(TAG, "Couldn't read number ranges", e);
+                    return null;
+                }
+
+                DbHelper dbHelper = new DbHelper(context);
+                try {
+                    int merged = NumberRange.importRanges(dbHelper.getWritableDatabase(), ranges);
+                    CallReceiver.blacklistChanged();
+                    return new int[] { ranges.size(), merged };
+                } finally {
+                    dbHelper.close();
+                }
+            }
+
+            @Override
+            protected void onPostExecute(int[] result) {
+                Snackbar.make(list, result != null ?
+                        getString(R.string.blacklist_ranges_imported, result[0], result[1]) :
+                        getString(R.string.blacklist_ranges_import_failed), Snackbar.LENGTH_LONG).show();
+            }
+        }.execute();
+    }
+
+    public void onOptimize(MenuItem item) {
+        final Context context = getApplicationContext();
+        new AsyncTask<Void, Void, PatternOptimizer.Result>() {
+            @Override
+            protected PatternOptimizer.Result doInBackground(Void... params) {
+                DbHelper dbHelper = new DbHelper(context);
+                try {
+                    PatternOptimizer.Result result = BlacklistOptimizer.optimize(dbHelper.getWritableDatabase());
+                    CallReceiver.blacklistChanged();
+                    BlacklistProvider.notifyChanged(context, null);
+                    return result;
+                } finally {
+                    dbHelper.close();
+                }
+            }
+
+            @Override
+            protected void onPostExecute(PatternOptimizer.Result result) {
+                int removed = result.removedPatterns + result.removedExact;
+                Snackbar.make(list, removed == 0 ?
+                        getString(R.string.blacklist_optimize_nothing) :
+                        getString(R.string.blacklist_optimized, removed, result.removedPatterns, result.patternsBefore),
+                        Snackbar.LENGTH_LONG).show();
+                reload();
+            }
+        }.execute();
+    }
+
+    public void onShowSources(MenuItem item) {
+        startActivity(new Intent(this, SourcesActivity.class));
+    }
+
+    public void onShowAllowlist(MenuItem item) {
+        startActivity(new Intent(this, AllowlistActivity.class));
+    }
+
+    public void onShowCallLog(MenuItem item) {
+        startActivity(new Intent(this, CallLogActivity.class));
+    }
+
     public void onAbout(MenuItem item) {
         startActivity(new Intent(Intent.ACTION_VIEW, Uri.parse("https://gitlab.com/bitfireAT/NoPhoneSpam/")));
     }
@@ -185,19 +512,37 @@ public class BlacklistActivity extends AppCompatActivity implements LoaderManage
     }
 
 
+    /**
+     * Restarts the loader with the current search query and sort order, beginning with the first page.
+     * A running query is cancelled.
+     */
+    protected void reload() {
+        getLoaderManager().restartLoader(0, null, this);
+    }
+
     @Override
-    public Loader<Set<Number>> onCreateLoader(int i, Bundle bundle) {
-        return new NumberLoader(this);
+    public Loader<Page> onCreateLoader(int i, Bundle bundle) {
+        return new NumberLoader(this, searchQuery, sortOrder);
     }
 
     @Override
-    public void onLoadFinished(Loader<Set<Number>> loader, Set<Number> numbers) {
-        adapter.clear();
-        adapter.addAll(numbers);
+    public void onLoadFinished(Loader<Page> loader, Page page) {
+        adapter.setNotifyOnChange(false);
+        if (adapter.getCount() + page.numbers.size() == page.loaded.size())
+            // next page
+            adapter.addAll(page.numbers);
+        else {
+            // first page, or the entries are delivered again (for instance, to a re-created activity)
+            adapter.clear();
+            adapter.addAll(page.loaded);
+        }
+        adapter.notifyDataSetChanged();
+        complete = page.complete;
+        loadingMore = false;
     }
 
     @Override
-    public void onLoaderReset(Loader<Set<Number>> loader) {
+    public void onLoaderReset(Loader<Page> loader) {
         adapter.clear();
     }
 
@@ -216,7 +561,7 @@ public class BlacklistActivity extends AppCompatActivity implements LoaderManage
             Number number = getItem(position);
 
             TextView tv = (TextView)view.findViewById(R.id.number);
-            String viewNumber = Number.wildcardsDbToView(number.number);
+            String viewNumber = Wildcards.dbToView(number.number);
             int countryIndex = CountryCode.findByDialCode(viewNumber);
             if (countryIndex > 0)
                 tv.setText(CountryCode.COUNTRIES[countryIndex].flag + " " + viewNumber);
@@ -234,6 +579,14 @@ public class BlacklistActivity extends AppCompatActivity implements LoaderManage
             } else
                 tv.setVisibility(View.GONE);
 
+            tv = (TextView)view.findViewById(R.id.expires);
+            if (number.expires != null) {
+                tv.setVisibility(View.VISIBLE);
+                tv.setText(getContext().getString(R.string.blacklist_expires,
+                        SimpleDateFormat.getDateTimeInstance().format(new Date(number.expires))));
+            } else
+                tv.setVisibility(View.GONE);
+
             return view;
         }
 
@@ -249,10 +602,47 @@ public class BlacklistActivity extends AppCompatActivity implements LoaderManage
     }
 
 
-    protected static class NumberLoader extends AsyncTaskLoader<Set<Number>> implements BlacklistObserver.Observer {
+    protected static class Page {
+
+        /** entries of this page */
+        final List<Number> numbers;
+        /** all entries which have been loaded so far (including this page) */
+        List<Number> loaded;
+        /** whether this is the last page */
+        final boolean complete;
+        final boolean first;
+
+        Page(List<Number> numbers, boolean first) {
+            this.numbers = numbers;
+            this.first = first;
+            complete = numbers.size() < PAGE_SIZE;
+        }
+
+    }
+
+    /**
+     * Loads the blacklist page by page. The first page is loaded when the loader is started and
+     * when the blacklist changes; {@link #loadMore()} loads the entries after the last loaded one
+     * (see {@link Number#after}), so that earlier pages never have to be loaded again.
+     */
+    protected static class NumberLoader extends AsyncTaskLoader<Page> implements BlacklistObserver.Observer {
+
+        final String query, sortOrder;
+
+        /** last loaded entry, the next page starts after it (null: load the first page) */
+        volatile Number after;
+        /** whether the first page is being loaded, so that there's no next page yet */
+        volatile boolean reloading;
+        /** entries of all delivered pages (only accessed on the main thread) */
+        final List<Number> loaded = new ArrayList<>();
+
+        /** cancels the running query when the loader is restarted (API level 16+) */
+        Object cancellationSignal;
 
-        public NumberLoader(Context context) {
+        public NumberLoader(Context context, String query, String sortOrder) {
             super(context);
+            this.query = query;
+            this.sortOrder = sortOrder;
         }
 
         @Override
@@ -260,29 +650,114 @@ public class BlacklistActivity extends AppCompatActivity implements LoaderManage
             BlacklistObserver.addObserver(this, true);
         }
 
+        /**
+         * Loads the page after the loaded entries. Must be called on the main thread.
+         */
+        public void loadMore() {
+            if (reloading || loaded.isEmpty())
+                return;
+            after = loaded.get(loaded.size() - 1);
+            forceLoad();
+        }
+
         @Override
-        public Set<Number> loadInBackground() {
+        public Page loadInBackground() {
+            Number after = this.after;
+
+            String search = null;
+            List<String> searchArgs = new LinkedList<>();
+            if (!TextUtils.isEmpty(query))
+                search = NumberSearch.selection(query, searchArgs);
+
             DbHelper dbHelper = new DbHelper(getContext());
             try {
                 SQLiteDatabase db = dbHelper.getReadableDatabase();
+                List<Number> numbers = new ArrayList<>(PAGE_SIZE);
+
+                List<String> selectionArgs = new LinkedList<>(searchArgs);
+                load(db, and(search, after != null ? Number.after(sortOrder, after, selectionArgs) : null), selectionArgs, PAGE_SIZE, numbers);
+
+                if (numbers.size() < PAGE_SIZE && after != null && after.lastCall != null && Number.SORT_LAST_CALL.equals(sortOrder))
+                    // entries which have never called come last, but they're not selected together with the others
+                    load(db, and(search, Number.NEVER_CALLED), searchArgs, PAGE_SIZE - numbers.size(), numbers);
+
+                return new Page(numbers, after == null);
+            } finally {
+                clearCancellationSignal();
+                dbHelper.close();
+            }
+        }
+
+        private void load(SQLiteDatabase db, String selection, List<String> selectionArgs, int limit, List<Number> numbers) {
+            Cursor c = query(db, selection, selectionArgs.toArray(new String[selectionArgs.size()]), limit);
+            try {
+                // SQLiteCursor runs the query when the window is filled for the first time, so
+                // the cancellation signal must stay set until then
+                c.getCount();
+                clearCancellationSignal();
 
-                Set<Number> numbers = new LinkedHashSet<>();
-                Cursor c = db.query(Number._TABLE, null, null, null, null, null, Number.NUMBER);
                 while (c.moveToNext()) {
                     ContentValues values = new ContentValues();
                     DatabaseUtils.cursorRowToContentValues(c, values);
                     numbers.add(Number.fromValues(values));
                 }
+            } finally {
                 c.close();
+            }
+        }
 
-                return numbers;
-            } finally {
-                dbHelper.close();
+        private static String and(String a, String b) {
+            if (a == null)
+                return b;
+            if (b == null)
+                return a;
+            return "(" + a + ") AND " + b;
+        }
+
+        private Cursor query(SQLiteDatabase db, String selection, String[] selectionArgs, int limit) {
+            if (Build.VERSION.SDK_INT >= 16) {
+                android.os.CancellationSignal signal;
+                synchronized(this) {
+                    if (isLoadInBackgroundCanceled())
+                        throw new OperationCanceledException();
+                    cancellationSignal = signal = new android.os.CancellationSignal();
+                }
+                return db.query(false, Number._TABLE, null, selection, selectionArgs, null, null, sortOrder, String.valueOf(limit), signal);
+            } else
+                return db.query(Number._TABLE, null, selection, selectionArgs, null, null, sortOrder, String.valueOf(limit));
+        }
+
+        private synchronized void clearCancellationSignal() {
+            cancellationSignal = null;
+        }
+
+        @Override
+        public void deliverResult(Page page) {
+            if (page != null) {
+                if (page.first) {
+                    loaded.clear();
+                    reloading = false;
+                }
+                loaded.addAll(page.numbers);
+                page.loaded = Collections.unmodifiableList(loaded);
+            }
+            super.deliverResult(page);
+        }
+
+        @Override
+        @TargetApi(16)
+        public void cancelLoadInBackground() {
+            super.cancelLoadInBackground();
+            synchronized(this) {
+                if (cancellationSignal != null)
+                    ((android.os.CancellationSignal)cancellationSignal).cancel();
             }
         }
 
         @Override
         public void onBlacklistUpdate() {
+            reloading = true;
+            after = null;
             forceLoad();
         }
 
@@ -0,0 +1,139 @@
+/*
+ * Copyright © Ricki Hirner (bitfire web engineering).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ */
+
+package at.bitfire.nophonespam;
+
+import android.net.Uri;
+
+/**
+ * Contract of the {@link BlacklistProvider} for other apps. Access requires
+ * the {@link #PERMISSION} (which is only granted to apps with the same signature).
+ *
+ * Other apps may copy this class; it only depends on the Android framework.
+ */
+public final class BlacklistContract {
+
+    public static final String AUTHORITY = "at.bitfire.nophonespam.blacklist";
+    public static final Uri AUTHORITY_URI = Uri.parse("content://" + AUTHORITY);
+
+    public static final String PERMISSION = "at.bitfire.nophonespam.permission.MANAGE_BLACKLIST";
+
+    private BlacklistContract() {
+    }
+
+
+    /**
+     * Entries of the personal blacklist.
+     *
+     * Numbers are stored in database format: % matches any number of digits, _ matches one digit.
+     * Characters other than digits, + and wildcards are removed when an entry is inserted or updated;
+     * invalid values are rejected with an {@link IllegalArgumentException}.
+     * Observers of {@link #CONTENT_URI} (with descendants) are notified with the URI of the
+     * changed entry, or with {@link #CONTENT_URI} itself if many entries have been changed at once.
+     */
+    public static final class Numbers {
+
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(AUTHORITY_URI, "numbers");
+
+        public static final String
+                CONTENT_TYPE = "vnd.android.cursor.dir/vnd.at.bitfire.nophonespam.number",
+                CONTENT_ITEM_TYPE = "vnd.android.cursor.item/vnd.at.bitfire.nophonespam.number";
+
+        public static final String
+                NUMBER = "number",
+                NAME = "name",
+                LAST_CALL = "lastCall",
+                TIMES_CALLED = "timesCalled",
+                // time (in ms since epoch) after which the entry is removed, or null if it never expires
+                EXPIRES = "expires";
+
+        private Numbers() {
+        }
+
+        /**
+         * @param number number in database format (may contain wildcards)
+         * @return URI of the entry
+         */
+        public static Uri uri(String number) {
+            return CONTENT_URI.buildUpon().appendPath(number).build();
+        }
+
+    }
+
+
+    /**
+     * Numbers which have been allowed manually: they're never blocked, even if they're on a
+     * blocklist. Numbers of contacts (which may be allowed by a setting) are not listed and can't
+     * be changed. Numbers are normalized when they're inserted; entries can be inserted, queried
+     * and deleted. Observers of {@link #CONTENT_URI} are notified when entries have been changed.
+     */
+    public static final class AllowedNumbers {
+
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(AUTHORITY_URI, "allowed");
+
+        public static final String
+                CONTENT_TYPE = "vnd.android.cursor.dir/vnd.at.bitfire.nophonespam.allowed",
+                CONTENT_ITEM_TYPE = "vnd.android.cursor.item/vnd.at.bitfire.nophonespam.allowed";
+
+        public static final String
+                NUMBER = "number",
+                NAME = "name";
+
+        private AllowedNumbers() {
+        }
+
+        /**
+         * @param number normalized number
+         * @return URI of the entry
+         */
+        public static Uri uri(String number) {
+            return CONTENT_URI.buildUpon().appendPath(number).build();
+        }
+
+    }
+
+
+    /**
+     * Decides whether a number would be blocked, using the same rules as for incoming calls
+     * (allowed numbers, hidden numbers, blacklist entries, ranges, subscribed lists and countries,
+     * but not heuristics which depend on earlier calls). Querying {@link #uri(String)} returns
+     * exactly one row.
+     */
+    public static final class Match {
+
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(AUTHORITY_URI, "match");
+
+        public static final String CONTENT_ITEM_TYPE = "vnd.android.cursor.item/vnd.at.bitfire.nophonespam.match";
+
+        public static final String
+                // normalized number which has been checked
+                NUMBER = "number",
+                // 1 if the number would be blocked, 0 otherwise
+                BLOCKED = "blocked",
+                // name of the deciding rule (like "allowlist" or "exact"), or null if no rule has decided
+                RULE = "rule",
+                // matching entry (number, pattern, range or country), may be null
+                ENTRY = "entry",
+                // name of the matching entry, may be null
+                NAME = "name",
+                // source of the matching entry: 0 = personal blacklist, >0 = subscribed list, <0 = other
+                SOURCE = "source";
+
+        private Match() {
+        }
+
+        /**
+         * @param number number as received from the network (will be normalized)
+         */
+        public static Uri uri(String number) {
+            return CONTENT_URI.buildUpon().appendPath(number).build();
+        }
+
+    }
+
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright © Ricki Hirner (bitfire web engineering).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ */
+
+package at.bitfire.nophonespam;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import at.bitfire.nophonespam.model.Number;
+import at.bitfire.nophonespam.screening.PatternOptimizer;
+
+/**
+ * Removes redundant blacklist entries (see {@link PatternOptimizer}) from the database.
+ * Call statistics of removed entries are added to the entries they have been merged into;
+ * names are taken over when the remaining entry doesn't have one.
+ */
+public class BlacklistOptimizer {
+    private static final String TAG = "NoPhoneSpam";
+
+    private BlacklistOptimizer() {
+    }
+
+    /**
+     * Removes redundant entries in one transaction. The caller is responsible
+     * for calling {@link CallReceiver#blacklistChanged()} afterwards.
+     */
+    public static PatternOptimizer.Result optimize(SQLiteDatabase db) {
+        db.beginTransaction();
+        try {
+            List<PatternOptimizer.Entry> entries = new ArrayList<>();
+            Cursor c = db.query(Number._TABLE, new String[] { Number.NUMBER, Number.NAME, Number.LAST_CALL, Number.TIMES_CALLED, Number.EXPIRES },
+                    null, null, null, null, Number.NUMBER);
+            try {
+                while (c.moveToNext())
+                    entries.add(new PatternOptimizer.Entry(c.getString(0), c.getString(1),
+                            c.isNull(2) ? 0 : c.getLong(2), c.getInt(3), c.isNull(4) ? 0 : c.getLong(4)));
+            } finally {
+                c.close();
+            }
+
+            PatternOptimizer.Result result = PatternOptimizer.optimize(entries);
+
+            // sum up statistics per remaining entry
+            Map<PatternOptimizer.Entry, PatternOptimizer.Entry> merged = new HashMap<>();
+            for (PatternOptimizer.Merge merge : result.merges) {
+                PatternOptimizer.Entry into = merged.get(merge.into);
+                if (into == null)
+                    into = merge.into;
+                merged.put(merge.into, new PatternOptimizer.Entry(into.pattern,
+                        !TextUtils.isEmpty(into.name) ? into.name : merge.redundant.name,
+                        Math.max(into.lastCall, merge.redundant.lastCall),
+                        into.timesCalled + merge.redundant.timesCalled,
+                        into.expires));
+
+                db.delete(Number._TABLE, Number.NUMBER + "=?", new String[] { merge.redundant.pattern });
+            }
+
+            ContentValues values = new ContentValues(3);
+            for (PatternOptimizer.Entry entry : merged.values()) {
+                values.put(Number.NAME, entry.name);
+                values.put(Number.LAST_CALL, entry.lastCall != 0 ? entry.lastCall : null);
+                values.put(Number.TIMES_CALLED, entry.timesCalled);
+                db.update(Number._TABLE, values, Number.NUMBER + "=?", new String[] { entry.pattern });
+            }
+
+            db.setTransactionSuccessful();
+            Log.i(TAG, "Optimized blacklist: removed " + result.removedPatterns + " of " + result.patternsBefore + " patterns and " +
+                    result.removedExact + " exact numbers");
+            return result;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+}
@@ -0,0 +1,491 @@
+/*
+ * Copyright © Ricki Hirner (bitfire web engineering).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ */
+
+package at.bitfire.nophonespam;
+
+import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.content.UriMatcher;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import at.bitfire.nophonespam.BlacklistContract.AllowedNumbers;
+import at.bitfire.nophonespam.BlacklistContract.Match;
+import at.bitfire.nophonespam.BlacklistContract.Numbers;
+import at.bitfire.nophonespam.model.AllowedNumber;
+import at.bitfire.nophonespam.model.DbHelper;
+import at.bitfire.nophonespam.model.Number;
+import at.bitfire.nophonespam.model.Source;
+import at.bitfire.nophonespam.screening.PhoneNumbers;
+import at.bitfire.nophonespam.screening.RulePipeline.Decision;
+import at.bitfire.nophonespam.screening.Wildcards;
+
+/**
+ * Gives other apps (with the {@link BlacklistContract#PERMISSION}) access to the personal blacklist
+ * and the manually allowed numbers, as described in {@link BlacklistContract}.
+ *
+ * {@link #applyBatch(ArrayList)} and {@link #bulkInsert(Uri, ContentValues[])} run in a single
+ * transaction, so that the blacklist is only compiled again and observers are only notified once
+ * per batch. Inserting a number which is already on the blacklist updates the entry.
+ */
+public class BlacklistProvider extends ContentProvider {
+    private static final String TAG = "NoPhoneSpam";
+
+    /** if more entries have been changed at once, observers are notified once for all entries */
+    static final int MAX_ITEM_NOTIFICATIONS = 50;
+
+    private static final int
+            NUMBERS = 1,
+            NUMBER = 2,
+            MATCH = 3,
+            ALLOWED = 4,
+            ALLOWED_NUMBER = 5;
+
+    private static final UriMatcher uriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
+    static {
+        uriMatcher.addURI(BlacklistContract.AUTHORITY, "numbers", NUMBERS);
+        uriMatcher.addURI(BlacklistContract.AUTHORITY, "numbers/*", NUMBER);
+        uriMatcher.addURI(BlacklistContract.AUTHORITY, "match/*", MATCH);
+        uriMatcher.addURI(BlacklistContract.AUTHORITY, "allowed", ALLOWED);
+        uriMatcher.addURI(BlacklistContract.AUTHORITY, "allowed/*", ALLOWED_NUMBER);
+    }
+
+    private static final Set<String> WRITABLE_COLUMNS = new HashSet<>(Arrays.asList(
+            Number.NUMBER, Number.NAME, Number.LAST_CALL, Number.TIMES_CALLED, Number.EXPIRES
+    ));
+
+    private static final String[] ALLOWED_COLUMNS = new String[] {
+            AllowedNumbers.NUMBER, AllowedNumbers.NAME
+    };
+
+    private static final String[] MATCH_COLUMNS = new String[] {
+            Match.NUMBER, Match.BLOCKED, Match.RULE, Match.ENTRY, Match.NAME, Match.SOURCE
+    };
+
+    private DbHelper dbHelper;
+
+    /** entries which have been changed by the current batch (if there is one) of the calling thread */
+    private final ThreadLocal<Changes> batchChanges = new ThreadLocal<>();
+
+
+    /**
+     * Notifies observers of the provider about changes which have been made by the app itself.
+     * @param numbers changed numbers, or null if the changes are not known in detail
+     */
+    static void notifyChanged(Context context, Collection<String> numbers) {
+        ContentResolver resolver = context.getContentResolver();
+        if (numbers == null || numbers.size() > MAX_ITEM_NOTIFICATIONS)
+            resolver.notifyChange(Numbers.CONTENT_URI, null);
+        else
+            for (String number : numbers)
+                resolver.notifyChange(Numbers.uri(number), null);
+    }
+
+    /**
+     * Notifies observers of the provider that manually allowed numbers have been changed by the app itself.
+     */
+    static void notifyAllowedChanged(Context context) {
+        context.getContentResolver().notifyChange(AllowedNumbers.CONTENT_URI, null);
+    }
+
+    @Override
+    public boolean onCreate() {
+        dbHelper = new DbHelper(getContext());
+        return true;
+    }
+
+    @Override
+    public String getType(@NonNull Uri uri) {
+        switch (uriMatcher.match(uri)) {
+            case NUMBERS:
+                return Numbers.CONTENT_TYPE;
+            case NUMBER:
+                return Numbers.CONTENT_ITEM_TYPE;
+            case MATCH:
+                return Match.CONTENT_ITEM_TYPE;
+            case ALLOWED:
+                return AllowedNumbers.CONTENT_TYPE;
+            case ALLOWED_NUMBER:
+                return AllowedNumbers.CONTENT_ITEM_TYPE;
+        }
+        return null;
+    }
+
+
+    @Override
+    public Cursor query(@NonNull Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        Cursor c;
+        switch (uriMatcher.match(uri)) {
+            case NUMBER:
+                selection = DatabaseUtils.concatenateWhere(selection, Number.NUMBER + "=?");
+                selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs, new String[] { uri.getLastPathSegment() });
+                // fall through
+            case NUMBERS:
+                c = dbHelper.getReadableDatabase().query(Number._TABLE, projection, selection, selectionArgs, null, null, sortOrder);
+                c.setNotificationUri(getContext().getContentResolver(), Numbers.CONTENT_URI);
+                return c;
+            case MATCH:
+                return match(PhoneNumbers.normalize(uri.getLastPathSegment()), projection != null ? projection : MATCH_COLUMNS);
+            case ALLOWED_NUMBER:
+                selection = DatabaseUtils.concatenateWhere(selection, AllowedNumber.NUMBER + "=?");
+                selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs, new String[] { uri.getLastPathSegment() });
+                // fall through
+            case ALLOWED:
+                c = dbHelper.getReadableDatabase().query(AllowedNumber._TABLE, projection != null ? projection : ALLOWED_COLUMNS,
+                        DatabaseUtils.concatenateWhere(selection, AllowedNumber.MANUAL), selectionArgs, null, null, sortOrder);
+                c.setNotificationUri(getContext().getContentResolver(), AllowedNumbers.CONTENT_URI);
+                return c;
+        }
+        throw new IllegalArgumentException("Unknown URI: " + uri);
+    }
+
+    private Cursor match(String number, String[] projection) {
+        Decision<Number> decision = ScreeningPipeline.getInstance(getContext()).match(number, System.currentTimeMillis());
+
+        Number entry = decision != null ? decision.entry : null;
+        String name = entry != null ? entry.name : null;
+        if (entry != null && name == null && entry.source >= Source.PERSONAL) {
+            // names are not kept in memory
+            SQLiteDatabase db = dbHelper.getReadableDatabase();
+            name = entry.source == Source.PERSONAL ?
+                    CallReceiver.queryName(db, entry.number) :
+                    Source.queryEntryName(db, entry.source, entry.number);
+        }
+
+        MatrixCursor c = new MatrixCursor(projection, 1);
+        MatrixCursor.RowBuilder row = c.newRow();
+        for (String column : projection)
+            switch (column) {
+                case Match.NUMBER:
+                    row.add(number);
+                    break;
+                case Match.BLOCKED:
+                    row.add(decision != null && decision.block ? 1 : 0);
+                    break;
+                case Match.RULE:
+                    row.add(decision != null ? decision.rule.name : null);
+                    break;
+                case Match.ENTRY:
+                    row.add(entry != null ? entry.number : null);
+                    break;
+                case Match.NAME:
+                    row.add(name);
+                    break;
+                case Match.SOURCE:
+                    row.add(entry != null ? entry.source : null);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown column: " + column);
+            }
+        return c;
+    }
+
+
+    @Override
+    public Uri insert(@NonNull Uri uri, ContentValues values) {
+        Changes changes = beginChanges();
+        Uri inserted;
+        switch (uriMatcher.match(uri)) {
+            case NUMBERS:
+                inserted = Numbers.uri(insertNumber(dbHelper.getWritableDatabase(), values, changes));
+                break;
+            case ALLOWED:
+                inserted = AllowedNumbers.uri(insertAllowed(dbHelper.getWritableDatabase(), values, changes));
+                break;
+            default:
+                throw new IllegalArgumentException("Can't insert into " + uri);
+        }
+        endChanges(changes);
+        return inserted;
+    }
+
+    @Override
+    public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
+        int match = uriMatcher.match(uri);
+        if (match != NUMBERS && match != ALLOWED)
+            throw new IllegalArgumentException("Can't insert into " + uri);
+
+        Changes changes = new Changes();
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (ContentValues entry : values)
+                if (match == NUMBERS)
+                    insertNumber(db, entry, changes);
+                else
+                    insertAllowed(db, entry, changes);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        notifyChanges(changes);
+        return values.length;
+    }
+
+    /**
+     * Inserts an entry, or updates it if the number is already on the blacklist.
+     * @return number of the entry
+     */
+    private String insertNumber(SQLiteDatabase db, ContentValues values, Changes changes) {
+        if (!values.containsKey(Number.NUMBER))
+            throw new IllegalArgumentException("Number required");
+        values = checkValues(values);
+        String number = values.getAsString(Number.NUMBER);
+
+        if (db.insertWithOnConflict(Number._TABLE, null, values, SQLiteDatabase.CONFLICT_IGNORE) == -1 && values.size() > 1) {
+            ContentValues update = new ContentValues(values);
+            update.remove(Number.NUMBER);
+            db.update(Number._TABLE, update, Number.NUMBER + "=?", new String[] { number });
+        }
+        changes.add(number);
+        return number;
+    }
+
+    /**
+     * Adds a number manually to the allowlist, or updates its name if it has already been added.
+     * @return normalized number
+     */
+    private String insertAllowed(SQLiteDatabase db, ContentValues values, Changes changes) {
+        for (String column : values.keySet())
+            if (!AllowedNumbers.NUMBER.equals(column) && !AllowedNumbers.NAME.equals(column))
+                throw new IllegalArgumentException("Unknown column: " + column);
+
+        String number = values.getAsString(AllowedNumbers.NUMBER);
+        number = number != null ? PhoneNumbers.normalize(number) : "";
+        if (number.isEmpty())
+            throw new IllegalArgumentException("Invalid number: " + values.getAsString(AllowedNumbers.NUMBER));
+
+        AllowedNumber.insertManual(db, number, values.getAsString(AllowedNumbers.NAME));
+        changes.allowed.add(number);
+        return number;
+    }
+
+    @Override
+    public int update(@NonNull Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        values = checkValues(values);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        Changes changes = beginChanges();
+        int rows;
+        switch (uriMatcher.match(uri)) {
+            case NUMBERS:
+                rows = db.update(Number._TABLE, values, selection, selectionArgs);
+                if (rows > 0)
+                    changes.addAll();
+                break;
+            case NUMBER:
+                String number = uri.getLastPathSegment();
+                rows = db.update(Number._TABLE, values,
+                        DatabaseUtils.concatenateWhere(selection, Number.NUMBER + "=?"),
+                        DatabaseUtils.appendSelectionArgs(selectionArgs, new String[] { number }));
+                if (rows > 0) {
+                    changes.add(number);
+                    if (values.containsKey(Number.NUMBER))
+                        changes.add(values.getAsString(Number.NUMBER));
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Can't update " + uri);
+        }
+        endChanges(changes);
+        return rows;
+    }
+
+    @Override
+    public int delete(@NonNull Uri uri, String selection, String[] selectionArgs) {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        Changes changes = beginChanges();
+        int rows;
+        switch (uriMatcher.match(uri)) {
+            case NUMBERS:
+                rows = db.delete(Number._TABLE, selection, selectionArgs);
+                if (rows > 0)
+                    changes.addAll();
+                break;
+            case NUMBER:
+                String number = uri.getLastPathSegment();
+                rows = db.delete(Number._TABLE,
+                        DatabaseUtils.concatenateWhere(selection, Number.NUMBER + "=?"),
+                        DatabaseUtils.appendSelectionArgs(selectionArgs, new String[] { number }));
+                if (rows > 0)
+                    changes.add(number);
+                break;
+            case ALLOWED_NUMBER:
+                selection = DatabaseUtils.concatenateWhere(selection, AllowedNumber.NUMBER + "=?");
+                selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs, new String[] { uri.getLastPathSegment() });
+                // fall through
+            case ALLOWED:
+                rows = deleteAllowed(db, selection, selectionArgs, changes);
+                break;
+            default:
+                throw new IllegalArgumentException("Can't delete " + uri);
+        }
+        endChanges(changes);
+        return rows;
+    }
+
+    /**
+     * Removes manually allowed numbers (numbers of contacts are kept).
+     */
+    private int deleteAllowed(SQLiteDatabase db, String selection, String[] selectionArgs, Changes changes) {
+        selection = DatabaseUtils.concatenateWhere(selection, AllowedNumber.MANUAL);
+        Cursor c = db.query(AllowedNumber._TABLE, new String[] { AllowedNumber.NUMBER }, selection, selectionArgs, null, null, null);
+        try {
+            while (c.moveToNext())
+                changes.allowed.add(c.getString(0));
+        } finally {
+            c.close();
+        }
+        return db.delete(AllowedNumber._TABLE, selection, selectionArgs);
+    }
+
+    @NonNull
+    @Override
+    public ContentProviderResult[] applyBatch(@NonNull ArrayList<ContentProviderOperation> operations) throws OperationApplicationException {
+        Changes changes = new Changes();
+        batchChanges.set(changes);
+
+        ContentProviderResult[] results;
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            // calls insert/update/delete, which collect their changes in batchChanges
+            results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            batchChanges.remove();
+        }
+
+        notifyChanges(changes);
+        return results;
+    }
+
+
+    /**
+     * Checks the values of an entry and normalizes the number like {@link EditNumberActivity} does,
+     * so that other apps can't store entries which the app wouldn't store.
+     * @return normalized values
+     * @throws IllegalArgumentException if a column is unknown or a value is invalid
+     */
+    private static ContentValues checkValues(ContentValues values) {
+        for (String column : values.keySet())
+            if (!WRITABLE_COLUMNS.contains(column))
+                throw new IllegalArgumentException("Unknown column: " + column);
+
+        ContentValues normalized = new ContentValues(values);
+        if (values.containsKey(Number.NUMBER)) {
+            String number = values.getAsString(Number.NUMBER);
+            String dbNumber = number != null ? Wildcards.viewToDb(Wildcards.dbToView(number)) : "";
+            if (dbNumber.isEmpty() || dbNumber.lastIndexOf('+') > 0)
+                throw new IllegalArgumentException("Invalid number: " + number);
+            normalized.put(Number.NUMBER, dbNumber);
+        }
+        checkLong(values, Number.EXPIRES, true);
+        checkLong(values, Number.LAST_CALL, true);
+        checkLong(values, Number.TIMES_CALLED, false);
+        return normalized;
+    }
+
+    private static void checkLong(ContentValues values, String column, boolean nullable) {
+        if (!values.containsKey(column))
+            return;
+        Object value = values.get(column);
+        if (value == null ? !nullable : values.getAsLong(column) == null)
+            throw new IllegalArgumentException("Invalid " + column + ": " + value);
+    }
+
+    /**
+     * @return changes of the current batch, or new changes if the operation is not part of a batch
+     */
+    private Changes beginChanges() {
+        Changes changes = batchChanges.get();
+        return changes != null ? changes : new Changes();
+    }
+
+    private void endChanges(Changes changes) {
+        if (changes != batchChanges.get())
+            notifyChanges(changes);
+    }
+
+    private void notifyChanges(Changes changes) {
+        Context context = getContext();
+        if (!changes.allowed.isEmpty()) {
+            Allowlist.getInstance(context).numbersChanged(changes.allowed);
+            Log.i(TAG, changes.allowed.size() + " allowed number(s) changed by other app");
+            notifyAllowedChanged(context);
+        }
+
+        if (!changes.all && changes.numbers.isEmpty())
+            return;
+
+        CallReceiver.blacklistChanged();
+        ExpiryReceiver.schedule(context, dbHelper.getWritableDatabase());
+
+        if (changes.all)
+            Log.i(TAG, "Blacklist changed by other app");
+        else
+            Log.i(TAG, changes.numbers.size() + " blacklist entries changed by other app");
+        notifyChanged(context, changes.all ? null : changes.numbers);
+
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                BlacklistObserver.notifyUpdated();
+            }
+        });
+    }
+
+
+    /**
+     * Numbers which have been changed by an operation or batch.
+     */
+    private static class Changes {
+
+        final Set<String> numbers = new LinkedHashSet<>();
+        /** whether entries have been changed which are not known in detail */
+        boolean all;
+
+        /** manually allowed numbers which have been added or removed */
+        final Set<String> allowed = new HashSet<>();
+
+        void add(String number) {
+            if (all)
+                return;
+            numbers.add(number);
+            if (numbers.size() > MAX_ITEM_NOTIFICATIONS)
+                // observers will be notified once for all entries anyway
+                addAll();
+        }
+
+        void addAll() {
+            all = true;
+            numbers.clear();
+        }
+
+    }
+
+}
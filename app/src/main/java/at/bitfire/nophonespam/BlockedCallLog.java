@@ -0,0 +1,190 @@
+/*
+ * Copyright © Ricki Hirner (bitfire web engineering).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ */
+
+package at.bitfire.nophonespam;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import at.bitfire.nophonespam.model.BlockedCall;
+import at.bitfire.nophonespam.model.DbHelper;
+
+/**
+ * Append-only log of blocked calls. {@link #log(Context, BlockedCall)} only queues the
+ * call in memory, so it never adds latency to the ring path. A call is written by a
+ * background thread right away, so that it isn't lost when the process is stopped after
+ * the call. Only calls which follow within {@link #FLUSH_DELAY} ms (like during a call flood)
+ * are queued and written in one transaction after that time (or as soon as {@link #MAX_PENDING}
+ * calls are queued).
+ *
+ * The log is rolled over automatically: only the latest {@link #MAX_ENTRIES} calls
+ * which are not older than {@link #MAX_AGE} are kept.
+ */
+public class BlockedCallLog {
+    private static final String TAG = "NoPhoneSpam";
+
+    static final long FLUSH_DELAY = 2000;
+    static final int MAX_PENDING = 50;
+
+    static final int MAX_ENTRIES = 5000;
+    static final long MAX_AGE = TimeUnit.DAYS.toMillis(90);
+
+    private static final Object lock = new Object();
+    private static List<BlockedCall> pending = new ArrayList<>();
+    private static boolean flushScheduled;
+    /** time of the last flush ({@link SystemClock#elapsedRealtime()}) */
+    private static long lastFlush = -FLUSH_DELAY;
+
+    private static Handler handler;
+
+    /** interned rule names (rule name → ID in {@link BlockedCall#RULES_TABLE}), only accessed by the flush thread */
+    private static final Map<String, Long> ruleIds = new HashMap<>();
+
+
+    public static void log(Context context, BlockedCall call) {
+        final Context appContext = context.getApplicationContext();
+        synchronized(lock) {
+            pending.add(call);
+
+            if (handler == null) {
+                HandlerThread thread = new HandlerThread("BlockedCallLog", Process.THREAD_PRIORITY_BACKGROUND);
+                thread.start();
+                handler = new Handler(thread.getLooper());
+            }
+
+            Runnable flush = new Runnable() {
+                @Override
+                public void run() {
+                    flush(appContext);
+                }
+            };
+            boolean burst = SystemClock.elapsedRealtime() - lastFlush < FLUSH_DELAY;
+            if (pending.size() >= MAX_PENDING || (!flushScheduled && !burst))
+                handler.post(flush);
+            else if (!flushScheduled)
+                handler.postDelayed(flush, FLUSH_DELAY);
+            else
+                return;
+            flushScheduled = true;
+        }
+    }
+
+    static void flush(Context context) {
+        List<BlockedCall> calls;
+        synchronized(lock) {
+            calls = pending;
+            pending = new ArrayList<>();
+            flushScheduled = false;
+            lastFlush = SystemClock.elapsedRealtime();
+        }
+        if (calls.isEmpty())
+            return;
+
+        DbHelper dbHelper = new DbHelper(context);
+        try {
+            SQLiteDatabase db = dbHelper.getWritableDatabase();
+            db.beginTransaction();
+            try {
+                long baseTime = calls.get(0).time;
+                ContentValues values = new ContentValues(6);
+                values.put(BlockedCall.BATCH_BASE_TIME, baseTime);
+                long batch = db.insertOrThrow(BlockedCall.BATCHES_TABLE, null, values);
+
+                for (BlockedCall call : calls) {
+                    values.clear();
+                    values.put(BlockedCall.BATCH, batch);
+                    values.put(BlockedCall.TIME_OFFSET, call.time - baseTime);
+                    values.put(BlockedCall.NUMBER, call.number);
+                    values.put(BlockedCall.RULE, internRule(db, call.rule));
+                    values.put(BlockedCall.LATENCY, call.latency);
+                    db.insertOrThrow(BlockedCall._TABLE, null, values);
+                }
+
+                rollOver(db, System.currentTimeMillis() - MAX_AGE);
+
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } catch(Exception e) {
+            Log.e(TAG, "Couldn't write blocked call log", e);
+            synchronized(ruleIds) {
+                // IDs of a rolled back transaction are invalid
+                ruleIds.clear();
+            }
+        } finally {
+            dbHelper.close();
+        }
+    }
+
+    /**
+     * Forgets the cached rule IDs. Must be called when calls are logged to another database;
+     * may be called when memory is low (IDs are read from the database again when required).
+     */
+    static void clearRuleCache() {
+        synchronized(ruleIds) {
+            ruleIds.clear();
+        }
+    }
+
+    private static long internRule(SQLiteDatabase db, String rule) {
+        synchronized(ruleIds) {
+            Long id = ruleIds.get(rule);
+            if (id == null) {
+                Cursor c = db.query(BlockedCall.RULES_TABLE, new String[] { BlockedCall._ID }, BlockedCall.RULE_NAME + "=?", new String[] { rule }, null, null, null);
+                try {
+                    if (c.moveToNext())
+                        id = c.getLong(0);
+                } finally {
+                    c.close();
+                }
+
+                if (id == null) {
+                    ContentValues values = new ContentValues(1);
+                    values.put(BlockedCall.RULE_NAME, rule);
+                    id = db.insertOrThrow(BlockedCall.RULES_TABLE, null, values);
+                }
+                ruleIds.put(rule, id);
+            }
+            return id;
+        }
+    }
+
+    private static void rollOver(SQLiteDatabase db, long oldestTime) {
+        // calls of batches which are too old
+        int deleted = db.delete(BlockedCall._TABLE, BlockedCall.BATCH + " IN (SELECT " + BlockedCall._ID + " FROM " + BlockedCall.BATCHES_TABLE +
+                " WHERE " + BlockedCall.BATCH_BASE_TIME + "<?)", new String[] { String.valueOf(oldestTime) });
+
+        // calls exceeding the size limit
+        deleted += db.delete(BlockedCall._TABLE, BlockedCall._ID + "<=(SELECT MAX(" + BlockedCall._ID + ") FROM " + BlockedCall._TABLE + ")-" + MAX_ENTRIES, null);
+
+        if (deleted > 0) {
+            // batches and rules which are not referenced anymore
+            db.delete(BlockedCall.BATCHES_TABLE, BlockedCall._ID + "<(SELECT " + BlockedCall.BATCH + " FROM " + BlockedCall._TABLE +
+                    " ORDER BY " + BlockedCall._ID + " LIMIT 1)", null);
+            db.delete(BlockedCall.RULES_TABLE, BlockedCall._ID + " NOT IN (SELECT DISTINCT " + BlockedCall.RULE + " FROM " + BlockedCall._TABLE + ")", null);
+            synchronized(ruleIds) {
+                ruleIds.clear();
+            }
+        }
+    }
+
+}
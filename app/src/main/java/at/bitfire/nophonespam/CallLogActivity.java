@@ -0,0 +1,132 @@
+/*
+ * Copyright © Ricki Hirner (bitfire web engineering).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ */
+
+package at.bitfire.nophonespam;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.support.v7.app.AppCompatActivity;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.AbsListView;
+import android.widget.ArrayAdapter;
+import android.widget.ListView;
+import android.widget.TextView;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+
+import at.bitfire.nophonespam.model.BlockedCall;
+import at.bitfire.nophonespam.model.DbHelper;
+import at.bitfire.nophonespam.screening.Wildcards;
+
+/**
+ * Shows the log of blocked calls. The log is loaded in pages of {@link #PAGE_SIZE}
+ * entries while the user scrolls down.
+ */
+public class CallLogActivity extends AppCompatActivity implements AbsListView.OnScrollListener {
+
+    static final int PAGE_SIZE = 50;
+
+    ListView list;
+    ArrayAdapter<BlockedCall> adapter;
+
+    boolean loading, complete;
+    long oldestId = Long.MAX_VALUE;
+
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_call_log);
+
+        list = (ListView)findViewById(R.id.calls);
+        list.setAdapter(adapter = new CallAdapter(this));
+        list.setEmptyView(findViewById(R.id.empty));
+        list.setOnScrollListener(this);
+
+        loadNextPage();
+    }
+
+    protected void loadNextPage() {
+        if (loading || complete)
+            return;
+        loading = true;
+
+        final Context context = getApplicationContext();
+        final long beforeId = oldestId;
+        new AsyncTask<Void, Void, List<BlockedCall>>() {
+            @Override
+            protected List<BlockedCall> doInBackground(Void... params) {
+                DbHelper dbHelper = new DbHelper(context);
+                try {
+                    return BlockedCall.queryPage(dbHelper.getReadableDatabase(), beforeId, PAGE_SIZE);
+                } finally {
+                    dbHelper.close();
+                }
+            }
+
+            @Override
+            protected void onPostExecute(List<BlockedCall> calls) {
+                if (!calls.isEmpty())
+                    oldestId = calls.get(calls.size() - 1).id;
+                complete = calls.size() < PAGE_SIZE;
+                adapter.addAll(calls);
+                loading = false;
+            }
+        }.execute();
+    }
+
+    @Override
+    public void onScrollStateChanged(AbsListView view, int scrollState) {
+    }
+
+    @Override
+    public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+        // load next page when the user approaches the end of the list
+        if (firstVisibleItem + visibleItemCount >= totalItemCount - PAGE_SIZE/5)
+            loadNextPage();
+    }
+
+
+    private static class CallAdapter extends ArrayAdapter<BlockedCall> {
+
+        public CallAdapter(Context context) {
+            super(context, R.layout.call_log_item);
+        }
+
+        @Override
+        public View getView(int position, View view, ViewGroup parent) {
+            if (view == null)
+                view = View.inflate(getContext(), R.layout.call_log_item, null);
+
+            BlockedCall call = getItem(position);
+
+            TextView tv = (TextView)view.findViewById(R.id.number);
+            tv.setText(call.number != null ? call.number : getContext().getString(R.string.receiver_notify_private_number));
+
+            tv = (TextView)view.findViewById(R.id.rule);
+            if (BlockedCall.RULE_HIDDEN.equals(call.rule))
+                tv.setText(getContext().getString(R.string.call_log_rule, getContext().getString(R.string.blacklist_block_hidden_numbers)));
+            else if (BlockedCall.RULE_REPEATED.equals(call.rule))
+                tv.setText(getContext().getString(R.string.call_log_rule, getContext().getString(R.string.blacklist_block_repeated_calls)));
+            else
+                tv.setText(getContext().getString(R.string.call_log_rule, Wildcards.dbToView(call.rule)));
+
+            tv = (TextView)view.findViewById(R.id.details);
+            tv.setText(getContext().getString(R.string.call_log_details,
+                    SimpleDateFormat.getDateTimeInstance().format(new Date(call.time)), call.latency / 1000f));
+
+            return view;
+        }
+
+    }
+
+}
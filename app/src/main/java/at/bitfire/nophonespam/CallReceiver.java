@@ -8,115 +8,249 @@
 
 package at.bitfire.nophonespam;
 
-import android.app.Notification;
-import android.app.NotificationManager;
-import android.app.PendingIntent;
 import android.content.BroadcastReceiver;
-import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
 import android.database.Cursor;
-import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
-import android.os.Environment;
 import android.support.annotation.NonNull;
-import android.support.v4.app.NotificationManagerCompat;
-import android.support.v4.text.TextUtilsCompat;
-import android.support.v7.app.NotificationCompat;
 import android.telephony.TelephonyManager;
 import android.text.TextUtils;
 import android.util.Log;
 
 import com.android.internal.telephony.ITelephony;
 
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileReader;
-import java.io.IOException;
 import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
+import at.bitfire.nophonespam.model.BlockedCall;
 import at.bitfire.nophonespam.model.DbHelper;
 import at.bitfire.nophonespam.model.Number;
+import at.bitfire.nophonespam.model.Source;
+import at.bitfire.nophonespam.screening.DecisionTrace;
+import at.bitfire.nophonespam.screening.MatcherSegment;
+import at.bitfire.nophonespam.screening.PhoneNumbers;
+import at.bitfire.nophonespam.screening.RingFilter;
+import at.bitfire.nophonespam.screening.RulePipeline.Decision;
 
 public class CallReceiver extends BroadcastReceiver {
     private static final String TAG = "NoPhoneSpam";
 
-    private static final int NOTIFY_REJECTED = 0;
+    /** ringing broadcasts for the same call within this time are only processed once */
+    static final long DUPLICATE_RING_WINDOW = TimeUnit.SECONDS.toMillis(30);
+
+    private static volatile ITelephony cachedTelephony;
+
+    // broadcasts are delivered on the main thread
+    private static final RingFilter rings = new RingFilter(DUPLICATE_RING_WINDOW);
+
+
+    /**
+     * Must be called whenever blacklist entries have been added, changed or removed.
+     */
+    public static void blacklistChanged() {
+        blacklistChanged(Source.PERSONAL);
+    }
+
+    /**
+     * Must be called whenever the entries of a source have been changed or the source has been removed.
+     */
+    public static void blacklistChanged(long source) {
+        blacklistChanged(source, null);
+    }
+
+    /**
+     * Must be called whenever the blocked countries have been changed.
+     * @param dialCodes dial codes of the blocked countries
+     */
+    public static void countriesChanged(Set<String> dialCodes) {
+        Blacklist.countriesChanged(dialCodes);
+        ScreeningPipeline.invalidate();
+    }
+
+    /**
+     * @param compiled  already compiled entries of the source, or null if they have to be read again
+     */
+    public static void blacklistChanged(long source, MatcherSegment compiled) {
+        if (compiled != null)
+            Blacklist.replace(source, compiled);
+        else
+            Blacklist.invalidate(source);
+        ScreeningPipeline.invalidate();
+    }
+
+    /**
+     * Loads everything the first screened call would have to load, so that
+     * it's as fast as later calls. Must not be called on the main thread.
+     */
+    static void prewarm(Context context) {
+        new Settings(context).blockHiddenNumbers();
+        Allowlist.getInstance(context).isAllowed("");
+        Blacklist.getInstance(context).lookup(PhoneNumbers.normalize("+0"), System.currentTimeMillis());
+        ScreeningPipeline.getInstance(context);
+
+        try {
+            new CallReceiver().telephony(context);
+        } catch (Exception e) {
+            Log.w(TAG, "Couldn't resolve telephony interface", e);
+        }
+    }
 
     @Override
     public void onReceive(Context context, Intent intent) {
-        if (TelephonyManager.ACTION_PHONE_STATE_CHANGED.equals(intent.getAction()) &&
-                intent.getStringExtra(TelephonyManager.EXTRA_STATE).equals(TelephonyManager.EXTRA_STATE_RINGING)) {
-            String incomingNumber = intent.getStringExtra(TelephonyManager.EXTRA_INCOMING_NUMBER);
-            Log.i(TAG, "Received call: " + incomingNumber);
-
-            Settings settings = new Settings(context);
-            if (TextUtils.isEmpty(incomingNumber)) {
-                // private number (no caller ID)
-                if (settings.blockHiddenNumbers())
-                    rejectCall(context, null);
-
-            } else {
-                DbHelper dbHelper = new DbHelper(context);
-                try {
-                    SQLiteDatabase db = dbHelper.getWritableDatabase();
-                    Cursor c = db.query(Number._TABLE, null, "? LIKE " + Number.NUMBER, new String[] { incomingNumber }, null, null, null);
-                    if (c.moveToNext()) {
-                        ContentValues values = new ContentValues();
-                        DatabaseUtils.cursorRowToContentValues(c, values);
-                        Number number = Number.fromValues(values);
-
-                        rejectCall(context, number);
-
-                        values.clear();
-                        values.put(Number.LAST_CALL, System.currentTimeMillis());
-                        values.put(Number.TIMES_CALLED, number.timesCalled + 1);
-                        db.update(Number._TABLE, values, Number.NUMBER + "=?", new String[]{number.number});
-
-                        BlacklistObserver.notifyUpdated();
-                    }
-                    c.close();
-                } finally {
-                    dbHelper.close();
-                }
+        if (!TelephonyManager.ACTION_PHONE_STATE_CHANGED.equals(intent.getAction()))
+            return;
+
+        if (!TelephonyManager.EXTRA_STATE_RINGING.equals(intent.getStringExtra(TelephonyManager.EXTRA_STATE))) {
+            // call has been answered or ended
+            rings.ended();
+            return;
+        }
+
+        long start = System.nanoTime();
+        String rawNumber = intent.getStringExtra(TelephonyManager.EXTRA_INCOMING_NUMBER);
+        String incomingNumber = PhoneNumbers.normalize(rawNumber);
+        long normalizationNanos = System.nanoTime() - start;
+        Log.i(TAG, "Received call: " + incomingNumber);
+
+        long now = System.currentTimeMillis();
+        if (rings.isDuplicate(incomingNumber, now)) {
+            Log.d(TAG, "Ignoring duplicate broadcast for the same call");
+            return;
+        }
+
+        Settings settings = new Settings(context);
+        DecisionTrace trace = null;
+        if (settings.traceCalls()) {
+            trace = new DecisionTrace(rawNumber);
+            trace.step("normalize", incomingNumber, normalizationNanos);
+        }
+
+        long pipelineStart = System.nanoTime();
+        ScreeningPipeline pipeline = ScreeningPipeline.getInstance(context);
+        if (trace != null)
+            trace.step("pipeline", pipeline.toString(), System.nanoTime() - pipelineStart);
+
+        long evaluationStart = System.nanoTime();
+        Decision<Number> decision = pipeline.evaluate(incomingNumber, now, trace);
+        long evaluationNanos = System.nanoTime() - evaluationStart;
+
+        if (!TextUtils.isEmpty(incomingNumber) && settings.shadowVerification() &&
+                (decision == null || ScreeningPipeline.isBlacklistEntry(decision)))
+            ShadowVerifier.verifyCall(context, rawNumber, incomingNumber, decision != null ? decision.entry : null, evaluationNanos);
+
+        if (decision == null) {
+            logTrace(trace, "not blocked");
+            return;
+        } else if (!decision.block) {
+            Log.i(TAG, "Number is allowed (" + decision.rule.name + "), not blocking");
+            logTrace(trace, decision.toString());
+            return;
+        }
+
+        long latency = System.nanoTime() - start;
+        long rejectStart = System.nanoTime();
+        rejectCall(context);
+        rings.rejected();
+        if (trace != null)
+            trace.step("reject", null, System.nanoTime() - rejectStart);
+
+        // the entry of a decision is shared with the decision cache, so only modify a copy
+        Number number = decision.entry != null ? decision.entry.copy() : null;
+        if (number != null && number.source >= Source.PERSONAL) {
+            long dbStart = System.nanoTime();
+            DbHelper dbHelper = new DbHelper(context);
+            try {
+                SQLiteDatabase db = dbHelper.getWritableDatabase();
+                if (number.source == Source.PERSONAL) {
+                    if (number.name == null)
+                        // names are not kept in memory
+                        number.name = queryName(db, number.number);
+
+                    // increment in SQL because the cached entry may be outdated
+                    db.execSQL("UPDATE " + Number._TABLE + " SET " +
+                            Number.LAST_CALL + "=?," + Number.TIMES_CALLED + "=" + Number.TIMES_CALLED + "+1" +
+                            " WHERE " + Number.NUMBER + "=?", new Object[] { now, number.number });
+                } else if (number.name == null)
+                    number.name = Source.queryEntryName(db, number.source, number.number);
+            } finally {
+                dbHelper.close();
             }
+            if (trace != null)
+                trace.step("database", number.source == Source.PERSONAL ? "call statistics, name" : "name", System.nanoTime() - dbStart);
+            Blacklist.getInstance(context).recordCall(number, now);
+            number.lastCall = now;
+            number.timesCalled++;
+        }
+
+        notifyRejected(context, number);
+        logCall(context, TextUtils.isEmpty(incomingNumber) ? null : incomingNumber, decision.logRule, latency);
+
+        if (number != null) {
+            BlacklistObserver.notifyUpdated();
+            if (number.source == Source.PERSONAL)
+                BlacklistProvider.notifyChanged(context, Collections.singletonList(number.number));
+        }
+        logTrace(trace, decision.toString());
+    }
+
+    private static void logTrace(DecisionTrace trace, String decision) {
+        if (trace != null) {
+            trace.step("decision", decision, -1);
+            Log.i(TAG, trace.toString());
         }
     }
 
-    protected void rejectCall(@NonNull Context context, Number number) {
-        TelephonyManager tm = (TelephonyManager)context.getSystemService(Context.TELEPHONY_SERVICE);
-        Class c = null;
+    static String queryName(SQLiteDatabase db, String number) {
+        Cursor c = db.query(Number._TABLE, new String[] { Number.NAME }, Number.NUMBER + "=?", new String[] { number }, null, null, null);
         try {
-            c = Class.forName(tm.getClass().getName());
-            Method m = c.getDeclaredMethod("getITelephony");
-            m.setAccessible(true);
+            return c.moveToNext() ? c.getString(0) : null;
+        } finally {
+            c.close();
+        }
+    }
 
-            ITelephony telephony = (ITelephony)m.invoke(tm);
+    protected void logCall(Context context, String incomingNumber, String rule, long latencyNanos) {
+        BlockedCallLog.log(context, new BlockedCall(System.currentTimeMillis(), incomingNumber, rule,
+                TimeUnit.NANOSECONDS.toMicros(latencyNanos)));
+    }
 
-            telephony.endCall();
+    protected void rejectCall(@NonNull Context context) {
+        try {
+            telephony(context).endCall();
         } catch (Exception e) {
-            e.printStackTrace();
+            // the handle becomes invalid when the phone process is restarted, so resolve it again
+            cachedTelephony = null;
+            try {
+                telephony(context).endCall();
+            } catch (Exception e2) {
+                e2.printStackTrace();
+            }
         }
+    }
 
-        Settings settings = new Settings(context);
-        if (settings.showNotifications()) {
-            Notification notify = new NotificationCompat.Builder(context)
-                    .setSmallIcon(R.mipmap.ic_launcher)
-                    .setContentTitle(context.getString(R.string.receiver_notify_call_rejected))
-                    .setContentText(number != null ? (number.name != null ? number.name : number.number) : context.getString(R.string.receiver_notify_private_number))
-                    .setPriority(NotificationCompat.PRIORITY_HIGH)
-                    .setCategory(NotificationCompat.CATEGORY_CALL)
-                    .setShowWhen(true)
-                    .setAutoCancel(true)
-                    .setContentIntent(PendingIntent.getActivity(context, 0, new Intent(context, BlacklistActivity.class), PendingIntent.FLAG_UPDATE_CURRENT))
-                    .addPerson("tel:" + number)
-                    .setGroup("rejected")
-                    .build();
-
-            String tag = number != null ? number.number : "private";
-            NotificationManagerCompat.from(context).notify(tag, NOTIFY_REJECTED, notify);
+    /**
+     * @return internal telephony interface which is used to end calls (resolved once per process)
+     * @throws Exception if the interface is not accessible
+     */
+    protected ITelephony telephony(@NonNull Context context) throws Exception {
+        ITelephony telephony = cachedTelephony;
+        if (telephony == null) {
+            TelephonyManager tm = (TelephonyManager)context.getSystemService(Context.TELEPHONY_SERVICE);
+            Class c = Class.forName(tm.getClass().getName());
+            Method m = c.getDeclaredMethod("getITelephony");
+            m.setAccessible(true);
+            telephony = cachedTelephony = (ITelephony)m.invoke(tm);
         }
+        return telephony;
+    }
 
+    protected void notifyRejected(@NonNull Context context, Number number) {
+        Settings settings = new Settings(context);
+        if (settings.showNotifications())
+            RejectionNotifier.enqueue(context, number);
     }
 
 }
@@ -0,0 +1,62 @@
+/*
+ * Copyright © Ricki Hirner (bitfire web engineering).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ */
+
+package at.bitfire.nophonespam;
+
+import android.content.Context;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ArrayAdapter;
+import android.widget.TextView;
+
+import java.util.Arrays;
+
+import at.bitfire.nophonespam.screening.CountryCode;
+
+import static at.bitfire.nophonespam.screening.CountryCode.COUNTRIES;
+
+public class CountryCodeAdapter extends ArrayAdapter<CountryCode> {
+
+    private final int resource;
+
+    public CountryCodeAdapter(Context context) {
+        this(context, R.layout.country_code_item, true);
+    }
+
+    /**
+     * @param resource  item layout (with a TextView {@code R.id.country_text})
+     * @param withNone  whether the list starts with "None" (otherwise, position + 1 is the index into COUNTRIES)
+     */
+    public CountryCodeAdapter(Context context, int resource, boolean withNone) {
+        super(context, resource, R.id.country_text, withNone ? COUNTRIES : Arrays.copyOfRange(COUNTRIES, 1, COUNTRIES.length));
+        this.resource = resource;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        return createView(position, convertView, parent);
+    }
+
+    @Override
+    public View getDropDownView(int position, View convertView, ViewGroup parent) {
+        return createView(position, convertView, parent);
+    }
+
+    private View createView(int position, View convertView, ViewGroup parent) {
+        if (convertView == null) {
+            convertView = LayoutInflater.from(getContext())
+                    .inflate(resource, parent, false);
+        }
+        CountryCode country = getItem(position);
+        TextView tv = (TextView) convertView.findViewById(R.id.country_text);
+        tv.setText(country.toString());
+        return convertView;
+    }
+
+}
@@ -22,19 +22,40 @@ import android.support.v7.app.AppCompatActivity;
 import android.text.TextUtils;
 import android.view.Menu;
 import android.view.MenuItem;
+import android.widget.ArrayAdapter;
 import android.widget.Spinner;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import java.text.DateFormat;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
 import at.bitfire.nophonespam.model.DbHelper;
 import at.bitfire.nophonespam.model.Number;
+import at.bitfire.nophonespam.screening.CountryCode;
+import at.bitfire.nophonespam.screening.Wildcards;
 
 public class EditNumberActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Number> {
 
     static final String EXTRA_NUMBER = "number";
 
+    /** durations (in ms) matching R.array.edit_expiry_durations, 0 meaning "never" */
+    static final long[] EXPIRY_DURATIONS = {
+            0,
+            TimeUnit.DAYS.toMillis(1),
+            TimeUnit.DAYS.toMillis(7),
+            TimeUnit.DAYS.toMillis(30),
+            TimeUnit.DAYS.toMillis(90)
+    };
+
     TextView tvName, tvNumber;
-    Spinner spinnerCountryCode;
+    Spinner spinnerCountryCode, spinnerExpires;
+
+    ArrayAdapter<CharSequence> expiresAdapter;
+    Long loadedExpires;
 
 
     @Override
@@ -49,7 +70,13 @@ public class EditNumberActivity extends AppCompatActivity implements LoaderManag
         tvNumber = (TextView)findViewById(R.id.number);
         spinnerCountryCode = (Spinner)findViewById(R.id.country_code);
 
-        spinnerCountryCode.setAdapter(new CountryCode.CountryCodeAdapter(this));
+        spinnerCountryCode.setAdapter(new CountryCodeAdapter(this));
+
+        spinnerExpires = (Spinner)findViewById(R.id.expires);
+        expiresAdapter = new ArrayAdapter<>(this, android.R.layout.simple_spinner_item);
+        expiresAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        expiresAdapter.addAll(getResources().getTextArray(R.array.edit_expiry_durations));
+        spinnerExpires.setAdapter(expiresAdapter);
 
         if (intentNumber != null)
             getLoaderManager().initLoader(0, null, this);
@@ -76,13 +103,23 @@ public class EditNumberActivity extends AppCompatActivity implements LoaderManag
         return localNumber;
     }
 
+    private Long getExpires() {
+        int selectedIndex = spinnerExpires.getSelectedItemPosition();
+        if (selectedIndex >= EXPIRY_DURATIONS.length)
+            // "keep current expiry time" item
+            return loadedExpires;
+        long duration = EXPIRY_DURATIONS[selectedIndex];
+        return duration != 0 ? System.currentTimeMillis() + duration : null;
+    }
+
     public void onSave(MenuItem item) {
         if (validate()) {
             String combinedNumber = getCombinedNumber();
 
-            ContentValues values = new ContentValues(2);
+            ContentValues values = new ContentValues(3);
             values.put(Number.NAME, tvName.getText().toString());
-            values.put(Number.NUMBER, Number.wildcardsViewToDb(combinedNumber));
+            values.put(Number.NUMBER, Wildcards.viewToDb(combinedNumber));
+            values.put(Number.EXPIRES, getExpires());
 
             DbHelper dbHelper = new DbHelper(this);
             try {
@@ -92,6 +129,12 @@ public class EditNumberActivity extends AppCompatActivity implements LoaderManag
                 else
                     db.insert(Number._TABLE, null, values);
 
+                CallReceiver.blacklistChanged();
+                BlacklistProvider.notifyChanged(this, getIntentNumber() != null ?
+                        Arrays.asList(getIntentNumber(), values.getAsString(Number.NUMBER)) :
+                        Collections.singletonList(values.getAsString(Number.NUMBER)));
+                ExpiryReceiver.schedule(this, db);
+
                 Toast.makeText(this, R.string.edit_changes_saved, Toast.LENGTH_SHORT).show();
 
                 finish();
@@ -143,11 +186,17 @@ public class EditNumberActivity extends AppCompatActivity implements LoaderManag
     public void onLoadFinished(Loader<Number> loader, Number number) {
         if (number != null) {
             tvName.setText(number.name);
-            String viewNumber = Number.wildcardsDbToView(number.number);
+            String viewNumber = Wildcards.dbToView(number.number);
             int countryIndex = CountryCode.findByDialCode(viewNumber);
             spinnerCountryCode.setSelection(countryIndex);
             String localPart = CountryCode.stripDialCode(viewNumber, countryIndex);
             tvNumber.setText(localPart);
+
+            loadedExpires = number.expires;
+            if (number.expires != null) {
+                expiresAdapter.add(getString(R.string.edit_expiry_keep, DateFormat.getDateTimeInstance().format(new Date(number.expires))));
+                spinnerExpires.setSelection(expiresAdapter.getCount() - 1);
+            }
         }
     }
 
@@ -0,0 +1,124 @@
+/*
+ * Copyright © Ricki Hirner (bitfire web engineering).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ */
+
+package at.bitfire.nophonespam;
+
+import android.annotation.TargetApi;
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import at.bitfire.nophonespam.model.DbHelper;
+import at.bitfire.nophonespam.model.Number;
+
+/**
+ * Removes expired blacklist entries. Instead of filtering expired entries on every
+ * lookup, a single alarm is scheduled for the earliest expiry time. When it fires,
+ * all expired entries are deleted at once (using the index on {@link Number#EXPIRES})
+ * and the alarm is re-scheduled for the next expiry time. Alarms don't survive a reboot,
+ * so {@link PrewarmReceiver} schedules the sweep again after boot and after app updates.
+ */
+public class ExpiryReceiver extends BroadcastReceiver {
+    private static final String TAG = "NoPhoneSpam";
+
+    static final String ACTION_SWEEP = "at.bitfire.nophonespam.SWEEP_EXPIRED";
+
+    @Override
+    public void onReceive(final Context context, Intent intent) {
+        if (!ACTION_SWEEP.equals(intent.getAction()))
+            return;
+
+        final PendingResult result = goAsync();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    DbHelper dbHelper = new DbHelper(context);
+                    try {
+                        SQLiteDatabase db = dbHelper.getWritableDatabase();
+                        if (sweep(db, System.currentTimeMillis()) > 0) {
+                            BlacklistProvider.notifyChanged(context, null);
+                            new Handler(Looper.getMainLooper()).post(new Runnable() {
+                                @Override
+                                public void run() {
+                                    BlacklistObserver.notifyUpdated();
+                                }
+                            });
+                        }
+                        schedule(context, db);
+                    } finally {
+                        dbHelper.close();
+                    }
+                } finally {
+                    result.finish();
+                }
+            }
+        }).start();
+    }
+
+    /**
+     * Deletes all entries which have expired at the given time.
+     * @return number of deleted entries
+     */
+    static int sweep(SQLiteDatabase db, long now) {
+        int deleted = db.delete(Number._TABLE, Number.EXPIRES + "<=?", new String[] { String.valueOf(now) });
+        if (deleted > 0) {
+            Log.i(TAG, "Removed " + deleted + " expired number(s)");
+            CallReceiver.blacklistChanged();
+        }
+        return deleted;
+    }
+
+    /**
+     * Schedules the next sweep for the earliest expiry time, or cancels
+     * the pending sweep if there are no expiring entries.
+     */
+    static void schedule(Context context) {
+        DbHelper dbHelper = new DbHelper(context);
+        try {
+            schedule(context, dbHelper.getReadableDatabase());
+        } finally {
+            dbHelper.close();
+        }
+    }
+
+    static void schedule(Context context, SQLiteDatabase db) {
+        Long next = null;
+        Cursor c = db.rawQuery("SELECT MIN(" + Number.EXPIRES + ") FROM " + Number._TABLE, null);
+        try {
+            if (c.moveToNext() && !c.isNull(0))
+                next = c.getLong(0);
+        } finally {
+            c.close();
+        }
+
+        AlarmManager am = (AlarmManager)context.getSystemService(Context.ALARM_SERVICE);
+        PendingIntent sweep = PendingIntent.getBroadcast(context, 0,
+                new Intent(context, ExpiryReceiver.class).setAction(ACTION_SWEEP), PendingIntent.FLAG_UPDATE_CURRENT);
+        if (next == null)
+            am.cancel(sweep);
+        else if (Build.VERSION.SDK_INT >= 19)
+            setExact(am, next, sweep);
+        else
+            am.set(AlarmManager.RTC, next, sweep);
+    }
+
+    @TargetApi(19)
+    private static void setExact(AlarmManager am, long time, PendingIntent operation) {
+        am.setExact(AlarmManager.RTC, time, operation);
+    }
+
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright © Ricki Hirner (bitfire web engineering).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ */
+
+package at.bitfire.nophonespam;
+
+import android.content.ComponentCallbacks2;
+import android.util.Log;
+
+import java.lang.ref.WeakReference;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Releases cached data in tiers when the system is low on memory:
+ * <ol>
+ *     <li>{@link #TIER_UI}: data of the UI (for instance, the loaded blacklist entries of a hidden activity),</li>
+ *     <li>{@link #TIER_DECISIONS}: recent screening decisions and interned call log rules,</li>
+ *     <li>{@link #TIER_SEGMENTS}: compiled segments of the blocklists, so that the next rebuild
+ *     of the {@link Blacklist} reads all entries from the database again.</li>
+ * </ol>
+ * A tier is only trimmed together with all lower tiers. The merged matcher of the {@link Blacklist},
+ * the {@link Allowlist} and the settings are never released, because they're required to screen calls.
+ */
+public class MemoryTrimmer {
+    private static final String TAG = "NoPhoneSpam";
+
+    public static final int
+            TIER_UI = 0,
+            TIER_DECISIONS = 1,
+            TIER_SEGMENTS = 2;
+
+    /** number of recent decisions which are kept when the decision tier is trimmed (for repeated calls) */
+    static final int DECISIONS_KEPT = 8;
+
+    protected static final List<WeakReference<UiCache>> uiCaches = new LinkedList<>();
+
+
+    public static synchronized void addUiCache(UiCache cache) {
+        uiCaches.add(new WeakReference<>(cache));
+    }
+
+    public static synchronized void removeUiCache(UiCache cache) {
+        for (WeakReference<UiCache> ref : uiCaches)
+            if (ref.get() == cache) {
+                uiCaches.remove(ref);
+                break;
+            }
+    }
+
+
+    /**
+     * @param level level as passed to {@link ComponentCallbacks2#onTrimMemory(int)}
+     * @return tier which should be trimmed at this level
+     */
+    public static int tierForLevel(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL)
+            return TIER_SEGMENTS;
+        else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW)
+            return TIER_DECISIONS;
+        return TIER_UI;
+    }
+
+    /**
+     * Releases the data of the given tier and all lower tiers.
+     */
+    public static synchronized void trim(int tier) {
+        long released = 0;
+
+        for (WeakReference<UiCache> ref : new LinkedList<>(uiCaches)) {
+            UiCache cache = ref.get();
+            if (cache != null)
+                released += cache.trimMemory();
+            else
+                uiCaches.remove(ref);
+        }
+
+        if (tier >= TIER_DECISIONS) {
+            released += ScreeningPipeline.trimDecisions(tier >= TIER_SEGMENTS ? 0 : DECISIONS_KEPT);
+            BlockedCallLog.clearRuleCache();
+        }
+
+        if (tier >= TIER_SEGMENTS)
+            released += Blacklist.trimSegments();
+
+        Log.i(TAG, "Trimmed memory up to tier " + tier + ", released ~" + released/1024 + " kB; now using " + report());
+    }
+
+    /**
+     * @return estimated memory usage of every tier (in bytes), index is the tier; the last element is the
+     * memory which is never released (ring path)
+     */
+    public static synchronized long[] memoryUsage() {
+        long ui = 0;
+        for (WeakReference<UiCache> ref : uiCaches) {
+            UiCache cache = ref.get();
+            if (cache != null)
+                ui += cache.memoryUsage();
+        }
+        return new long[] {
+                ui,
+                ScreeningPipeline.decisionsMemoryUsage(),
+                Blacklist.segmentsMemoryUsage(),
+                Blacklist.residentMemoryUsage()
+        };
+    }
+
+    public static String report() {
+        long[] usage = memoryUsage();
+        return String.format(Locale.ROOT, "UI ~%d kB, decisions ~%d kB, segments ~%d kB, resident ~%d kB",
+                usage[TIER_UI]/1024, usage[TIER_DECISIONS]/1024, usage[TIER_SEGMENTS]/1024, usage[TIER_SEGMENTS + 1]/1024);
+    }
+
+
+    public interface UiCache {
+
+        /**
+         * @return estimated memory usage (in bytes)
+         */
+        long memoryUsage();
+
+        /**
+         * Releases cached data which is not visible at the moment.
+         * @return memory which has been released (estimated, in bytes)
+         */
+        long trimMemory();
+
+    }
+
+}
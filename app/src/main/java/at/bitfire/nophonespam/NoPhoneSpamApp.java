@@ -0,0 +1,27 @@
+/*
+ * Copyright © Ricki Hirner (bitfire web engineering).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ */
+
+package at.bitfire.nophonespam;
+
+import android.app.Application;
+
+public class NoPhoneSpamApp extends Application {
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        MemoryTrimmer.trim(MemoryTrimmer.tierForLevel(level));
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        MemoryTrimmer.trim(MemoryTrimmer.TIER_SEGMENTS);
+    }
+
+}
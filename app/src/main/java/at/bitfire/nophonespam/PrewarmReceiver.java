@@ -0,0 +1,59 @@
+/*
+ * Copyright © Ricki Hirner (bitfire web engineering).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ */
+
+package at.bitfire.nophonespam;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Process;
+import android.util.Log;
+
+import at.bitfire.nophonespam.screening.CountryCode;
+
+/**
+ * Pre-warms the screening path after boot and after app updates: opens (and, if required,
+ * upgrades) the database, loads the blacklist and allowlist, resolves the telephony
+ * interface and loads the classes which are used when a call is screened. So the first
+ * call after a reboot doesn't have to wait for all of this. Also schedules the removal of
+ * expired entries again (see {@link ExpiryReceiver}), because alarms don't survive a reboot.
+ */
+public class PrewarmReceiver extends BroadcastReceiver {
+    private static final String TAG = "NoPhoneSpam";
+
+    @Override
+    public void onReceive(final Context context, Intent intent) {
+        String action = intent.getAction();
+        if (!Intent.ACTION_BOOT_COMPLETED.equals(action) && !Intent.ACTION_MY_PACKAGE_REPLACED.equals(action))
+            return;
+
+        final PendingResult result = goAsync();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                try {
+                    ExpiryReceiver.schedule(context);
+
+                    long start = System.currentTimeMillis();
+                    CallReceiver.prewarm(context);
+
+                    // used by the UI
+                    CountryCode.findByDialCode("+0");
+
+                    Log.i(TAG, "Screening path pre-warmed in " + (System.currentTimeMillis() - start) + " ms");
+                } catch(Exception e) {
+                    Log.e(TAG, "Couldn't pre-warm screening path", e);
+                } finally {
+                    result.finish();
+                }
+            }
+        }).start();
+    }
+
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright © Ricki Hirner (bitfire web engineering).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ */
+
+package at.bitfire.nophonespam;
+
+import android.app.Notification;
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.support.v4.app.NotificationManagerCompat;
+import android.support.v7.app.NotificationCompat;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import at.bitfire.nophonespam.model.Number;
+
+/**
+ * Coalesces "call rejected" notifications. Rejected calls are only queued by
+ * {@link #enqueue(Context, Number)}; a background thread posts them after
+ * {@link #WINDOW} ms. A single rejected call is shown as one notification, while
+ * bursts are summarized in one notification (which replaces the single one) with counts per
+ * caller, so that a spam wave causes one notification update per window instead of one per call.
+ *
+ * The summary counts are kept until the notification is dismissed (which is
+ * reported to this receiver).
+ */
+public class RejectionNotifier extends BroadcastReceiver {
+
+    static final long WINDOW = 1500;
+
+    private static final int
+            NOTIFY_REJECTED = 0,
+            NOTIFY_REJECTED_SUMMARY = 1;
+
+    private static final String TAG_PRIVATE = "private";
+
+    private static final int MAX_SUMMARY_LINES = 5;
+
+    private static final Object lock = new Object();
+    private static List<Number> pending = new ArrayList<>();
+    private static boolean postScheduled;
+
+    private static Handler handler;
+
+    // only accessed by the notification thread
+    private static Template template;
+    private static final Map<String, Integer> burstCounts = new LinkedHashMap<>();
+    private static int burstTotal;
+    private static String singleTag;
+
+
+    /**
+     * Queues a notification for a rejected call.
+     * @param number    matching blacklist entry, or null for private numbers
+     */
+    public static void enqueue(Context context, Number number) {
+        final Context appContext = context.getApplicationContext();
+        synchronized(lock) {
+            pending.add(number);
+            if (postScheduled)
+                return;
+
+            if (handler == null) {
+                HandlerThread thread = new HandlerThread("RejectionNotifier", Process.THREAD_PRIORITY_BACKGROUND);
+                thread.start();
+                handler = new Handler(thread.getLooper());
+            }
+            handler.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    post(appContext);
+                }
+            }, WINDOW);
+            postScheduled = true;
+        }
+    }
+
+    /**
+     * Called when a notification has been dismissed.
+     */
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        resetCounts();
+    }
+
+    /**
+     * Starts a new burst, i.e. the next rejected call will be shown as single notification again.
+     * Called when the notifications have been dismissed or the user has opened the app.
+     */
+    public static void resetCounts() {
+        synchronized(lock) {
+            if (handler != null)
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        resetBurst();
+                    }
+                });
+        }
+    }
+
+
+    private static void post(Context context) {
+        List<Number> numbers;
+        synchronized(lock) {
+            numbers = pending;
+            pending = new ArrayList<>();
+            postScheduled = false;
+        }
+        if (numbers.isEmpty())
+            return;
+
+        if (template == null)
+            template = new Template(context);
+
+        for (Number number : numbers) {
+            String label = template.label(number);
+            Integer count = burstCounts.get(label);
+            burstCounts.put(label, count != null ? count + 1 : 1);
+        }
+        burstTotal += numbers.size();
+
+        NotificationManagerCompat manager = NotificationManagerCompat.from(context);
+        if (burstTotal == 1) {
+            Number number = numbers.get(0);
+            singleTag = number != null ? number.number : TAG_PRIVATE;
+            manager.notify(singleTag, NOTIFY_REJECTED, template.single(number));
+
+        } else {
+            if (singleTag != null) {
+                // replaced by summary
+                manager.cancel(singleTag, NOTIFY_REJECTED);
+                singleTag = null;
+            }
+            manager.notify(NOTIFY_REJECTED_SUMMARY, template.summary(burstCounts, burstTotal));
+        }
+    }
+
+    private static void resetBurst() {
+        burstCounts.clear();
+        burstTotal = 0;
+        singleTag = null;
+    }
+
+
+    /**
+     * Parts of the notifications which are the same for every rejected call.
+     * Created once per process so that the pending intents don't have to be created
+     * again for every call. Strings are resolved for every notification, so that they
+     * follow locale changes.
+     */
+    private static class Template {
+
+        final Context context;
+
+        final PendingIntent contentIntent, deleteIntent;
+
+        Template(Context context) {
+            this.context = context;
+            contentIntent = PendingIntent.getActivity(context, 0, new Intent(context, BlacklistActivity.class), PendingIntent.FLAG_UPDATE_CURRENT);
+            deleteIntent = PendingIntent.getBroadcast(context, 0, new Intent(context, RejectionNotifier.class), PendingIntent.FLAG_UPDATE_CURRENT);
+        }
+
+        String label(Number number) {
+            if (number == null)
+                return context.getString(R.string.receiver_notify_private_number);
+            return number.name != null ? number.name : number.number;
+        }
+
+        NotificationCompat.Builder builder() {
+            NotificationCompat.Builder builder = new NotificationCompat.Builder(context);
+            builder .setSmallIcon(R.mipmap.ic_launcher)
+                    .setPriority(NotificationCompat.PRIORITY_HIGH)
+                    .setCategory(NotificationCompat.CATEGORY_CALL)
+                    .setShowWhen(true)
+                    .setAutoCancel(true)
+                    .setContentIntent(contentIntent)
+                    .setDeleteIntent(deleteIntent);
+            return builder;
+        }
+
+        Notification single(Number number) {
+            NotificationCompat.Builder builder = builder();
+            builder .setContentTitle(context.getString(R.string.receiver_notify_call_rejected))
+                    .setContentText(label(number));
+            if (number != null)
+                builder.addPerson("tel:" + number.number);
+            return builder.build();
+        }
+
+        Notification summary(Map<String, Integer> counts, int total) {
+            String title = context.getResources().getQuantityString(R.plurals.receiver_notify_calls_rejected, total, total);
+
+            NotificationCompat.InboxStyle style = new NotificationCompat.InboxStyle()
+                    .setBigContentTitle(title);
+            int lines = 0;
+            for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+                if (lines++ == MAX_SUMMARY_LINES) {
+                    style.setSummaryText(context.getString(R.string.receiver_notify_more_callers, counts.size() - MAX_SUMMARY_LINES));
+                    break;
+                }
+                int count = entry.getValue();
+                style.addLine(count > 1 ? context.getString(R.string.receiver_notify_caller_count, entry.getKey(), count) : entry.getKey());
+            }
+
+            NotificationCompat.Builder builder = builder();
+            builder .setContentTitle(title)
+                    .setContentText(TextUtils.join(", ", counts.keySet()))
+                    .setNumber(total)
+                    .setStyle(style);
+            return builder.build();
+        }
+
+    }
+
+}
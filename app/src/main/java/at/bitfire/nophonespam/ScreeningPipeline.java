@@ -0,0 +1,214 @@
+/*
+ * Copyright © Ricki Hirner (bitfire web engineering).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ */
+
+package at.bitfire.nophonespam;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import at.bitfire.nophonespam.model.Number;
+import at.bitfire.nophonespam.model.Source;
+import at.bitfire.nophonespam.screening.DecisionCache;
+import at.bitfire.nophonespam.screening.DecisionTrace;
+import at.bitfire.nophonespam.screening.PhoneNumbers;
+import at.bitfire.nophonespam.screening.RecentCalls;
+import at.bitfire.nophonespam.screening.RulePipeline;
+import at.bitfire.nophonespam.screening.RulePipeline.Decision;
+import at.bitfire.nophonespam.screening.RulePipeline.Rule;
+import at.bitfire.nophonespam.screening.ScreeningRules;
+
+/**
+ * Compiles the {@link ScreeningRules} which are enabled (by the settings and because they have entries)
+ * into a {@link RulePipeline}, which decides whether an incoming call is blocked. Blocklist rules
+ * have the same order as {@link Blacklist#lookup(String, long)}.
+ *
+ * Rule counters and cached decisions are kept for the whole process, so that they survive recompilation.
+ */
+public class ScreeningPipeline {
+    private static final String TAG = "NoPhoneSpam";
+
+    /** how long a screening decision is re-used (robo-dialers tend to call the same number again and again), at most until its entry expires */
+    static final long DECISION_TTL = TimeUnit.MINUTES.toMillis(10);
+    static final int DECISION_CACHE_SIZE = 64;
+
+    /** a number is blocked by the repeated calls rule when it calls this often … */
+    static final int REPEATED_CALLS = 3;
+    /** … within this time */
+    static final long REPEATED_CALLS_WINDOW = TimeUnit.MINUTES.toMillis(5);
+
+    private static volatile ScreeningPipeline instance;
+
+    private static final RulePipeline.Statistics statistics = new RulePipeline.Statistics();
+    // guarded by statistics (only used while rules are evaluated)
+    private static final RecentCalls recentCalls = new RecentCalls(16);
+    private static final DecisionCache<Decision<Number>> decisions = new DecisionCache<>(DECISION_CACHE_SIZE, DECISION_TTL);
+
+    private final Blacklist blacklist;
+    private final RulePipeline<Number> rules;
+
+
+    public static ScreeningPipeline getInstance(Context context) {
+        Blacklist blacklist = Blacklist.getInstance(context);
+        ScreeningPipeline pipeline = instance;
+        if (pipeline == null || pipeline.blacklist != blacklist)
+            pipeline = compile(context, blacklist);
+        return pipeline;
+    }
+
+    /**
+     * Drops the compiled pipeline and all cached decisions. Must be called when the blacklist
+     * or a setting which is used for screening has been changed.
+     */
+    public static synchronized void invalidate() {
+        decisions.clear();
+        instance = null;
+    }
+
+    private static synchronized ScreeningPipeline compile(Context context, Blacklist blacklist) {
+        if (instance != null && instance.blacklist == blacklist)
+            // compiled by another thread in the meantime
+            return instance;
+
+        Settings settings = new Settings(context);
+        List<Rule<Number>> rules = new ArrayList<>();
+
+        rules.add(new ScreeningRules.AllowlistRule<Number>(Allowlist.getInstance(context)));
+
+        if (settings.blockHiddenNumbers())
+            rules.add(new ScreeningRules.HiddenNumberRule<Number>());
+        if (blacklist.exactCount() > 0)
+            rules.add(new ScreeningRules.ExactRule<>(blacklist));
+        if (blacklist.patternCount() > 0)
+            rules.add(new ScreeningRules.PatternRule<>(blacklist));
+        if (blacklist.rangeCount() > 0)
+            rules.add(new ScreeningRules.RangeRule<>(blacklist));
+        if (blacklist.countryCount() > 0)
+            rules.add(new ScreeningRules.CountryRule<>(blacklist));
+
+        if (settings.blockRepeatedCalls())
+            rules.add(new RepeatedCallsRule());
+
+        ScreeningPipeline pipeline = new ScreeningPipeline(blacklist, new RulePipeline<Number>(rules, statistics, decisions));
+        Log.i(TAG, "Compiled screening pipeline: " + pipeline.rules + " (" + statistics + ")");
+        return instance = pipeline;
+    }
+
+    private ScreeningPipeline(Blacklist blacklist, RulePipeline<Number> rules) {
+        this.blacklist = blacklist;
+        this.rules = rules;
+    }
+
+
+    /**
+     * Evaluates the rules for an incoming call.
+     * @param number    normalized incoming number (empty for hidden numbers)
+     * @param now       current time
+     * @return decision of the first deciding rule, or null if no rule has decided (the call is not blocked then)
+     */
+    public Decision<Number> evaluate(String number, long now) {
+        return rules.evaluate(number, now);
+    }
+
+    /**
+     * Like {@link #evaluate(String, long)}, but records the steps which have been taken.
+     * @param trace trace to record the steps to (may be null)
+     */
+    public Decision<Number> evaluate(String number, long now, DecisionTrace trace) {
+        return rules.evaluate(number, now, trace);
+    }
+
+    /**
+     * Decides whether a number would be blocked, without handling it as a call.
+     * @see RulePipeline#match(String, long)
+     */
+    public Decision<Number> match(String number, long now) {
+        return rules.match(number, now);
+    }
+
+    /**
+     * Replays the screening of a number (without handling it as a call, see {@link #match(String, long)})
+     * and records the steps which have been taken.
+     * @param number number as received (will be normalized)
+     * @return trace of the decision
+     */
+    public static DecisionTrace explain(Context context, String number) {
+        DecisionTrace trace = new DecisionTrace(number);
+
+        long start = System.nanoTime();
+        String normalized = PhoneNumbers.normalize(number);
+        trace.step("normalize", normalized, System.nanoTime() - start);
+
+        start = System.nanoTime();
+        ScreeningPipeline pipeline = getInstance(context);
+        trace.step("pipeline", pipeline.toString(), System.nanoTime() - start);
+
+        Decision<Number> decision = pipeline.rules.match(normalized, System.currentTimeMillis(), trace);
+        trace.step("decision", decision != null ? decision.toString() : "not blocked", -1);
+        return trace;
+    }
+
+    @Override
+    public String toString() {
+        return rules.toString();
+    }
+
+    /**
+     * @return whether the decision has been made by an entry of the blacklist
+     */
+    public static boolean isBlacklistEntry(Decision<Number> decision) {
+        return decision.rule instanceof ScreeningRules.BlacklistRule;
+    }
+
+
+    /**
+     * Shrinks the cache of recent decisions.
+     * @param size maximum number of decisions which are kept (the most recently used ones)
+     * @return memory which has been released (estimated, in bytes)
+     */
+    static long trimDecisions(int size) {
+        long before = decisions.memoryUsage();
+        decisions.trimTo(size);
+        return before - decisions.memoryUsage();
+    }
+
+    /**
+     * @return estimated memory usage of the cache of recent decisions (in bytes)
+     */
+    static long decisionsMemoryUsage() {
+        return decisions.memoryUsage();
+    }
+
+    /**
+     * @return counters of all rules which have been evaluated in this process
+     */
+    public static String statistics() {
+        return statistics.toString();
+    }
+
+
+    static class RepeatedCallsRule extends ScreeningRules.RepeatedCallsRule<Number> {
+
+        RepeatedCallsRule() {
+            super(recentCalls, REPEATED_CALLS, REPEATED_CALLS_WINDOW);
+        }
+
+        @Override
+        protected Number entry(String number) {
+            Number entry = new Number();
+            entry.number = number;
+            entry.source = Source.HEURISTICS;
+            return entry;
+        }
+
+    }
+
+}
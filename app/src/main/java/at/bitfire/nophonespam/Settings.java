@@ -12,11 +12,21 @@ import android.app.Activity;
 import android.content.Context;
 import android.content.SharedPreferences;
 
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
 public class Settings {
 
     private static final String
             PREF_BLOCK_HIDDEN_NUMBERS = "blockHiddenNumbers",
-            PREF_NOTIFICATIONS = "notifications";
+            PREF_BLOCK_REPEATED_CALLS = "blockRepeatedCalls",
+            PREF_NOTIFICATIONS = "notifications",
+            PREF_ALLOW_CONTACTS = "allowContacts",
+            PREF_CONTACTS_SYNCED_UNTIL = "contactsSyncedUntil",
+            PREF_SHADOW_VERIFICATION = "shadowVerification",
+            PREF_TRACE_CALLS = "traceCalls",
+            PREF_BLOCKED_COUNTRIES = "blockedCountries";
 
     private final SharedPreferences pref;
 
@@ -37,6 +47,20 @@ public class Settings {
     }
 
 
+    /**
+     * @return whether numbers which call again and again in a short time should be blocked
+     */
+    public boolean blockRepeatedCalls() {
+        return pref.getBoolean(PREF_BLOCK_REPEATED_CALLS, false);
+    }
+
+    public void blockRepeatedCalls(boolean block) {
+        pref.edit()
+            .putBoolean(PREF_BLOCK_REPEATED_CALLS, block)
+            .apply();
+    }
+
+
     public boolean showNotifications() {
         return pref.getBoolean(PREF_NOTIFICATIONS, true);
     }
@@ -47,4 +71,67 @@ public class Settings {
             .apply();
     }
 
+
+    public boolean allowContacts() {
+        return pref.getBoolean(PREF_ALLOW_CONTACTS, false);
+    }
+
+    public void allowContacts(boolean allow) {
+        pref.edit()
+            .putBoolean(PREF_ALLOW_CONTACTS, allow)
+            .apply();
+    }
+
+
+    public long contactsSyncedUntil() {
+        return pref.getLong(PREF_CONTACTS_SYNCED_UNTIL, 0);
+    }
+
+    public void contactsSyncedUntil(long timestamp) {
+        pref.edit()
+            .putLong(PREF_CONTACTS_SYNCED_UNTIL, timestamp)
+            .apply();
+    }
+
+
+    /**
+     * @return whether decisions for real calls should be verified by {@link ShadowVerifier}
+     */
+    public boolean shadowVerification() {
+        return pref.getBoolean(PREF_SHADOW_VERIFICATION, false);
+    }
+
+    public void shadowVerification(boolean verify) {
+        pref.edit()
+            .putBoolean(PREF_SHADOW_VERIFICATION, verify)
+            .apply();
+    }
+
+    /**
+     * @return whether the screening of real calls should be traced (and the traces logged)
+     */
+    public boolean traceCalls() {
+        return pref.getBoolean(PREF_TRACE_CALLS, false);
+    }
+
+    public void traceCalls(boolean trace) {
+        pref.edit()
+            .putBoolean(PREF_TRACE_CALLS, trace)
+            .apply();
+    }
+
+
+    /**
+     * @return dial codes (without "+") of the countries which are blocked
+     */
+    public Set<String> blockedCountries() {
+        return new HashSet<>(pref.getStringSet(PREF_BLOCKED_COUNTRIES, Collections.<String>emptySet()));
+    }
+
+    public void blockedCountries(Set<String> dialCodes) {
+        pref.edit()
+            .putStringSet(PREF_BLOCKED_COUNTRIES, dialCodes)
+            .apply();
+    }
+
 }
@@ -0,0 +1,244 @@
+/*
+ * Copyright © Ricki Hirner (bitfire web engineering).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ */
+
+package at.bitfire.nophonespam;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import at.bitfire.nophonespam.model.DbHelper;
+import at.bitfire.nophonespam.model.Number;
+import at.bitfire.nophonespam.model.Source;
+import at.bitfire.nophonespam.screening.Wildcards;
+
+/**
+ * Compares the decisions of the {@link Blacklist} with the original lookup
+ * (<code>? LIKE number</code> on {@link Number#_TABLE}), which has been the reference
+ * behavior before the in-memory matchers were introduced.
+ *
+ * Decisions can be verified for real calls (in the background, after the call has been
+ * handled, if {@link Settings#shadowVerification()} is enabled) or for a corpus of
+ * generated numbers ({@link #verifyCorpus(Context, int, long)}). Disagreements are logged
+ * with the incoming number and both matching entries.
+ *
+ * Only entries of the personal blacklist are compared, because the original lookup didn't
+ * know number ranges and subscribed lists. Expired entries are excluded from the original
+ * lookup, too (they may not have been deleted yet, but are not used by the Blacklist anymore).
+ */
+public class ShadowVerifier {
+    private static final String TAG = "NoPhoneSpam";
+
+    /** a summary of real-call verifications is logged after this number of calls */
+    static final int SUMMARY_INTERVAL = 20;
+
+    private static Handler handler;
+
+    // only accessed by the verification thread
+    private static final Report callReport = new Report();
+
+
+    /**
+     * Verifies the decision for a real call in the background.
+     * @param rawNumber     incoming number as received (used by the original lookup, like before normalization was introduced)
+     * @param number        normalized incoming number (used by the {@link Blacklist})
+     * @param decision      matching entry as determined by the {@link Blacklist}, or null if the number is not blocked
+     * @param engineNanos   time the Blacklist needed for the decision
+     */
+    public static void verifyCall(Context context, final String rawNumber, final String number, final Number decision, final long engineNanos) {
+        final Context appContext = context.getApplicationContext();
+        final long now = System.currentTimeMillis();
+        synchronized(ShadowVerifier.class) {
+            if (handler == null) {
+                HandlerThread thread = new HandlerThread("ShadowVerifier", Process.THREAD_PRIORITY_BACKGROUND);
+                thread.start();
+                handler = new Handler(thread.getLooper());
+            }
+        }
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                DbHelper dbHelper = new DbHelper(appContext);
+                try {
+                    verify(dbHelper.getReadableDatabase(), rawNumber, number, decision, engineNanos, now, callReport);
+                } finally {
+                    dbHelper.close();
+                }
+                if (callReport.verified % SUMMARY_INTERVAL == 0)
+                    Log.i(TAG, "Shadow verification of calls: " + callReport);
+            }
+        });
+    }
+
+    /**
+     * Verifies the decisions for a generated corpus: all personal entries, numbers which match the
+     * patterns, numbers which differ from entries by one digit (inserted, removed or changed) and
+     * random numbers.
+     * @param randomNumbers number of random numbers
+     * @param seed          seed for the generated numbers (so that a corpus can be verified again)
+     */
+    public static Report verifyCorpus(Context context, int randomNumbers, long seed) {
+        Report report = new Report();
+        Random random = new Random(seed);
+
+        DbHelper dbHelper = new DbHelper(context);
+        try {
+            SQLiteDatabase db = dbHelper.getReadableDatabase();
+
+            List<String> entries = new ArrayList<>();
+            Cursor c = db.query(Number._TABLE, new String[] { Number.NUMBER }, null, null, null, null, null);
+            try {
+                while (c.moveToNext())
+                    entries.add(c.getString(0));
+            } finally {
+                c.close();
+            }
+
+            List<String> corpus = new ArrayList<>();
+            for (String entry : entries) {
+                String number = instantiate(entry, random);
+                corpus.add(number);
+                corpus.add(mutate(number, random));
+            }
+            for (int i = 0; i < randomNumbers; i++) {
+                String prefix = !entries.isEmpty() && random.nextBoolean() ?
+                        instantiate(entries.get(random.nextInt(entries.size())), random) : "+";
+                corpus.add(prefix.substring(0, random.nextInt(prefix.length() + 1)) + digits(random, random.nextInt(12)));
+            }
+
+            Blacklist blacklist = Blacklist.getInstance(context);
+            for (String number : corpus) {
+                if (number.isEmpty())
+                    continue;
+                long now = System.currentTimeMillis();
+                long start = System.nanoTime();
+                Number decision = blacklist.lookup(number, now);
+                verify(db, number, number, decision, System.nanoTime() - start, now, report);
+            }
+        } finally {
+            dbHelper.close();
+        }
+
+        Log.i(TAG, "Shadow verification of corpus (seed " + seed + "): " + report);
+        return report;
+    }
+
+
+    /**
+     * @param rawNumber number for the original lookup
+     * @param number    normalized number, which the decision has been made for
+     */
+    private static void verify(SQLiteDatabase db, String rawNumber, String number, Number decision, long engineNanos, long now, Report report) {
+        if (decision != null && decision.source != Source.PERSONAL)
+            // ranges and subscribed lists are unknown to the original lookup
+            return;
+
+        long start = System.nanoTime();
+        Set<String> legacy = new HashSet<>();
+        Cursor c = db.query(Number._TABLE, new String[] { Number.NUMBER }, "? LIKE " + Number.NUMBER +
+                " AND (" + Number.EXPIRES + " IS NULL OR " + Number.EXPIRES + ">?)",
+                new String[] { rawNumber, String.valueOf(now) }, null, null, null);
+        try {
+            while (c.moveToNext())
+                legacy.add(c.getString(0));
+        } finally {
+            c.close();
+        }
+        long legacyNanos = System.nanoTime() - start;
+
+        boolean agree = decision == null ? legacy.isEmpty() : legacy.contains(decision.number);
+        report.add(agree, engineNanos, legacyNanos);
+        if (!agree)
+            Log.w(TAG, "Shadow verification: disagreement for " + number + (rawNumber.equals(number) ? "" : " (received as " + rawNumber + ")") +
+                    ": Blacklist matched " +
+                    (decision != null ? decision.number : "nothing") + ", original lookup matched " +
+                    (legacy.isEmpty() ? "nothing" : legacy.toString()));
+    }
+
+    /**
+     * @return number which matches the given entry
+     */
+    private static String instantiate(String entry, Random random) {
+        StringBuilder number = new StringBuilder(entry.length() + 4);
+        for (int i = 0; i < entry.length(); i++) {
+            char c = entry.charAt(i);
+            if (c == Wildcards.ANY)
+                number.append(digits(random, random.nextInt(5)));
+            else if (c == Wildcards.ONE)
+                number.append(digits(random, 1));
+            else
+                number.append(c);
+        }
+        return number.toString();
+    }
+
+    /**
+     * @return number which differs from the given number by one inserted, removed or changed digit
+     */
+    private static String mutate(String number, Random random) {
+        int pos = random.nextInt(number.length() + 1);
+        StringBuilder mutated = new StringBuilder(number);
+        switch (random.nextInt(3)) {
+            case 0:
+                mutated.insert(pos, digits(random, 1));
+                break;
+            case 1:
+                if (pos < number.length())
+                    mutated.deleteCharAt(pos);
+                break;
+            default:
+                if (pos < number.length())
+                    mutated.setCharAt(pos, digits(random, 1).charAt(0));
+        }
+        return mutated.toString();
+    }
+
+    private static String digits(Random random, int count) {
+        char[] digits = new char[count];
+        for (int i = 0; i < count; i++)
+            digits[i] = (char)('0' + random.nextInt(10));
+        return new String(digits);
+    }
+
+
+    public static class Report {
+
+        public int verified, disagreements;
+        public long engineNanos, legacyNanos;
+
+        void add(boolean agree, long engineNanos, long legacyNanos) {
+            verified++;
+            if (!agree)
+                disagreements++;
+            this.engineNanos += engineNanos;
+            this.legacyNanos += legacyNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%d decisions verified, %d disagreement(s); average lookup time %d µs (original: %d µs)",
+                    verified, disagreements,
+                    verified > 0 ? TimeUnit.NANOSECONDS.toMicros(engineNanos / verified) : 0,
+                    verified > 0 ? TimeUnit.NANOSECONDS.toMicros(legacyNanos / verified) : 0);
+        }
+
+    }
+
+}
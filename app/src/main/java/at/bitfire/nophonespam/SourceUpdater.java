@@ -0,0 +1,224 @@
+/*
+ * Copyright © Ricki Hirner (bitfire web engineering).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ */
+
+package at.bitfire.nophonespam;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
+import java.util.zip.CRC32;
+
+import at.bitfire.nophonespam.model.DbHelper;
+import at.bitfire.nophonespam.model.Source;
+import at.bitfire.nophonespam.screening.MatcherSegment;
+import at.bitfire.nophonespam.screening.PackedBlock;
+import at.bitfire.nophonespam.screening.SegmentBuilder;
+import at.bitfire.nophonespam.screening.Wildcards;
+
+/**
+ * Fetches subscribed blocklists. Lists are plain text with one entry per line in the
+ * format "number[,name]" (numbers may contain * and # wildcards). Lines starting with
+ * "#" are comments; a "# version: …" comment at the top of the list is used as version,
+ * so that unchanged lists don't have to be read completely. Lists without version
+ * header are versioned by checksum. Entries are stored sorted and packed (see {@link Source}).
+ *
+ * Lists can be fetched from http(s) URLs and from everything the content resolver
+ * can open (file and content URLs).
+ */
+public class SourceUpdater {
+    private static final String TAG = "NoPhoneSpam";
+
+    static final int
+            CONNECT_TIMEOUT = 15000,
+            READ_TIMEOUT = 30000;
+
+    static final String VERSION_HEADER = "# version:";
+
+    /**
+     * Fetches a source and replaces its entries if the version has changed.
+     * The entries are compiled for the {@link Blacklist} right away, so that they don't
+     * have to be read from the database again.
+     * @param builder   builder for compiling the entries (reports progress, can be used to cancel the update)
+     * @return true if the entries have been replaced, false if the list hasn't been changed
+     * @throws IOException if the list couldn't be fetched
+     * @throws CancellationException if the update has been cancelled (entries are not changed then)
+     */
+    public static boolean update(Context context, Source source, SegmentBuilder builder) throws IOException {
+        Uri uri = Uri.parse(source.url);
+        String scheme = uri.getScheme();
+
+        InputStream in;
+        HttpURLConnection connection = null;
+        if ("http".equalsIgnoreCase(scheme) || "https".equalsIgnoreCase(scheme)) {
+            connection = (HttpURLConnection)new URL(source.url).openConnection();
+            connection.setConnectTimeout(CONNECT_TIMEOUT);
+            connection.setReadTimeout(READ_TIMEOUT);
+            if (source.updated != null)
+                connection.setIfModifiedSince(source.updated);
+            int status = connection.getResponseCode();
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                connection.disconnect();
+                Log.i(TAG, "Source " + source.name + " not modified");
+                return false;
+            } else if (status != HttpURLConnection.HTTP_OK) {
+                connection.disconnect();
+                throw new IOException("HTTP " + status + " " + connection.getResponseMessage());
+            }
+            in = connection.getInputStream();
+        } else {
+            in = context.getContentResolver().openInputStream(uri);
+            if (in == null)
+                throw new FileNotFoundException(source.url);
+        }
+
+        List<String[]> entries = new ArrayList<>();
+        String version = null;
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+            CRC32 checksum = new CRC32();
+            boolean header = true;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (header && line.toLowerCase(Locale.ROOT).startsWith(VERSION_HEADER)) {
+                    version = line.substring(VERSION_HEADER.length()).trim();
+                    if (version.equals(source.version)) {
+                        Log.i(TAG, "Source " + source.name + " is up to date (version " + version + ")");
+                        return false;
+                    }
+                    continue;
+                }
+
+                checksum.update(line.getBytes("UTF-8"));
+                if (line.isEmpty() || line.startsWith("#"))
+                    continue;
+                header = false;
+
+                String[] fields = line.split("[,;\\t]", 2);
+                String number = Wildcards.viewToDb(fields[0]);
+                if (PackedBlock.isPackable(number)) {
+                    String name = fields.length > 1 ? fields[1].trim() : null;
+                    entries.add(new String[] { number, TextUtils.isEmpty(name) ? null : name });
+                }
+            }
+            if (version == null) {
+                version = "crc:" + Long.toHexString(checksum.getValue());
+                if (version.equals(source.version)) {
+                    Log.i(TAG, "Source " + source.name + " is up to date (unchanged checksum)");
+                    return false;
+                }
+            }
+        } finally {
+            in.close();
+            if (connection != null)
+                connection.disconnect();
+        }
+
+        // sort and remove duplicates (the first entry of a number is kept), so that the
+        // segment is the same as when it's read from the packed blocks again
+        Collections.sort(entries, new Comparator<String[]>() {
+            @Override
+            public int compare(String[] a, String[] b) {
+                return a[0].compareTo(b[0]);
+            }
+        });
+        List<String[]> unique = new ArrayList<>(entries.size());
+        for (String[] entry : entries)
+            if (unique.isEmpty() || !unique.get(unique.size() - 1)[0].equals(entry[0]))
+                unique.add(entry);
+        entries = unique;
+
+        int n = entries.size();
+        String[] numbers = new String[n];
+        int i = 0;
+        for (String[] entry : entries)
+            numbers[i++] = entry[0];
+        MatcherSegment segment = builder.build((int)source.id, numbers, new long[n], new int[n], new long[n]);
+
+        DbHelper dbHelper = new DbHelper(context);
+        try {
+            store(dbHelper.getWritableDatabase(), source, version, entries, builder);
+        } finally {
+            dbHelper.close();
+        }
+        Log.i(TAG, "Updated source " + source.name + " to version " + version + ", " + n + " entries");
+
+        CallReceiver.blacklistChanged(source.id, segment);
+        return true;
+    }
+
+    private static void store(SQLiteDatabase db, Source source, String version, List<String[]> entries, SegmentBuilder builder) {
+        db.beginTransaction();
+        try {
+            Source.deleteEntries(db, source.id);
+
+            Source.BlockWriter writer = new Source.BlockWriter(db, source.id);
+            for (String[] entry : entries) {
+                if (builder.isCancelled())
+                    // roll back
+                    throw new CancellationException();
+                writer.add(entry[0], entry[1]);
+            }
+            int stored = writer.finish();
+
+            source.version = version;
+            source.updated = System.currentTimeMillis();
+            source.entries = stored;
+
+            ContentValues values = new ContentValues(3);
+            values.put(Source.VERSION, source.version);
+            values.put(Source.UPDATED, source.updated);
+            values.put(Source.ENTRIES, source.entries);
+            db.update(Source._TABLE, values, Source._ID + "=?", new String[] { String.valueOf(source.id) });
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Removes a source and its entries.
+     */
+    public static void remove(Context context, long source) {
+        DbHelper dbHelper = new DbHelper(context);
+        try {
+            SQLiteDatabase db = dbHelper.getWritableDatabase();
+            String[] sourceArgs = new String[] { String.valueOf(source) };
+            db.beginTransaction();
+            try {
+                Source.deleteEntries(db, source);
+                db.delete(Source._TABLE, Source._ID + "=?", sourceArgs);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } finally {
+            dbHelper.close();
+        }
+        CallReceiver.blacklistChanged(source);
+    }
+
+}
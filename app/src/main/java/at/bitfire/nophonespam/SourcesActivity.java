@@ -0,0 +1,287 @@
+/*
+ * Copyright © Ricki Hirner (bitfire web engineering).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ */
+
+package at.bitfire.nophonespam;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.DialogInterface;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.support.design.widget.Snackbar;
+import android.support.v7.app.AlertDialog;
+import android.support.v7.app.AppCompatActivity;
+import android.text.TextUtils;
+import android.util.Log;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.AdapterView;
+import android.widget.ArrayAdapter;
+import android.widget.EditText;
+import android.widget.ListView;
+import android.widget.ProgressBar;
+import android.widget.TextView;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+import at.bitfire.nophonespam.model.DbHelper;
+import at.bitfire.nophonespam.model.Source;
+import at.bitfire.nophonespam.screening.SegmentBuilder;
+
+/**
+ * Manages subscribed blocklists: add/remove sources and fetch them. A tap on a
+ * source fetches it, a long tap removes it. Running updates are cancelled when
+ * the activity is closed.
+ */
+public class SourcesActivity extends AppCompatActivity {
+    private static final String TAG = "NoPhoneSpam";
+
+    ListView list;
+    ArrayAdapter<Source> adapter;
+    ProgressBar progress;
+
+    /** builder of the running update, null if there's no running update */
+    SegmentBuilder updateBuilder;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_sources);
+
+        list = (ListView)findViewById(R.id.sources);
+        list.setAdapter(adapter = new SourceAdapter(this));
+        list.setEmptyView(findViewById(R.id.empty));
+        progress = (ProgressBar)findViewById(R.id.progress);
+        list.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+            @Override
+            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+                update(Collections.singletonList(adapter.getItem(position)));
+            }
+        });
+        list.setOnItemLongClickListener(new AdapterView.OnItemLongClickListener() {
+            @Override
+            public boolean onItemLongClick(AdapterView<?> parent, View view, int position, long id) {
+                confirmRemove(adapter.getItem(position));
+                return true;
+            }
+        });
+
+        reload();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (updateBuilder != null)
+            updateBuilder.cancel();
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.activity_sources, menu);
+        return true;
+    }
+
+    public void onAddSource(MenuItem item) {
+        final View view = View.inflate(this, R.layout.dialog_add_source, null);
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.sources_add)
+                .setView(view)
+                .setPositiveButton(android.R.string.ok, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        String name = ((EditText)view.findViewById(R.id.name)).getText().toString().trim(),
+                               url = ((EditText)view.findViewById(R.id.url)).getText().toString().trim();
+                        if (!TextUtils.isEmpty(url))
+                            add(TextUtils.isEmpty(name) ? url : name, url);
+                    }
+                })
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
+    public void onUpdateAll(MenuItem item) {
+        int count = adapter.getCount();
+        Source[] sources = new Source[count];
+        for (int i = 0; i < count; i++)
+            sources[i] = adapter.getItem(i);
+        update(Arrays.asList(sources));
+    }
+
+
+    protected void reload() {
+        final Context context = getApplicationContext();
+        new AsyncTask<Void, Void, List<Source>>() {
+            @Override
+            protected List<Source> doInBackground(Void... params) {
+                DbHelper dbHelper = new DbHelper(context);
+                try {
+                    return Source.queryAll(dbHelper.getReadableDatabase());
+                } finally {
+                    dbHelper.close();
+                }
+            }
+
+            @Override
+            protected void onPostExecute(List<Source> sources) {
+                adapter.clear();
+                adapter.addAll(sources);
+            }
+        }.execute();
+    }
+
+    protected void add(final String name, final String url) {
+        final Context context = getApplicationContext();
+        new AsyncTask<Void, Void, Source>() {
+            @Override
+            protected Source doInBackground(Void... params) {
+                DbHelper dbHelper = new DbHelper(context);
+                try {
+                    SQLiteDatabase db = dbHelper.getWritableDatabase();
+                    ContentValues values = new ContentValues(2);
+                    values.put(Source.NAME, name);
+                    values.put(Source.URL, url);
+                    return Source.query(db, db.insertOrThrow(Source._TABLE, null, values));
+                } finally {
+                    dbHelper.close();
+                }
+            }
+
+            @Override
+            protected void onPostExecute(Source source) {
+                update(Collections.singletonList(source));
+            }
+        }.execute();
+    }
+
+    protected void update(final List<Source> sources) {
+        if (updateBuilder != null)
+            // one update at a time
+            return;
+
+        final Context context = getApplicationContext();
+        final SegmentBuilder builder = updateBuilder = new SegmentBuilder();
+        progress.setIndeterminate(true);
+        progress.setVisibility(View.VISIBLE);
+
+        new AsyncTask<Void, Integer, Integer>() {
+            String failed;
+
+            @Override
+            protected Integer doInBackground(Void... params) {
+                builder.setProgressListener(new SegmentBuilder.ProgressListener() {
+                    @Override
+                    public void onProgress(int done, int total) {
+                        publishProgress(done, total);
+                    }
+                });
+
+                int updated = 0;
+                for (Source source : sources)
+                    try {
+                        if (SourceUpdater.update(context, source, builder))
+                            updated++;
+                    } catch(CancellationException e) {
+                        Log.i(TAG, "Update of sources cancelled");
+                        break;
+                    } catch(IOException|RuntimeException e) {
+                        Log.w(TAG, "Couldn't fetch source " + source.url, e);
+                        failed = source.name;
+                    }
+                return updated;
+            }
+
+            @Override
+            protected void onProgressUpdate(Integer... values) {
+                progress.setIndeterminate(false);
+                progress.setMax(values[1]);
+                progress.setProgress(values[0]);
+            }
+
+            @Override
+            protected void onPostExecute(Integer updated) {
+                updateBuilder = null;
+                if (builder.isCancelled())
+                    return;
+
+                progress.setVisibility(View.GONE);
+                Snackbar.make(list, failed != null ?
+                        getString(R.string.sources_update_failed, failed) :
+                        getString(R.string.sources_updated, updated), Snackbar.LENGTH_LONG).show();
+                reload();
+            }
+        }.execute();
+    }
+
+    protected void confirmRemove(final Source source) {
+        final Context context = getApplicationContext();
+        new AlertDialog.Builder(this)
+                .setMessage(getString(R.string.sources_remove, source.name))
+                .setPositiveButton(android.R.string.ok, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        new AsyncTask<Void, Void, Void>() {
+                            @Override
+                            protected Void doInBackground(Void... params) {
+                                SourceUpdater.remove(context, source.id);
+                                return null;
+                            }
+
+                            @Override
+                            protected void onPostExecute(Void result) {
+                                reload();
+                            }
+                        }.execute();
+                    }
+                })
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
+
+    private static class SourceAdapter extends ArrayAdapter<Source> {
+
+        public SourceAdapter(Context context) {
+            super(context, R.layout.source_item);
+        }
+
+        @Override
+        public View getView(int position, View view, ViewGroup parent) {
+            if (view == null)
+                view = View.inflate(getContext(), R.layout.source_item, null);
+
+            Source source = getItem(position);
+
+            TextView tv = (TextView)view.findViewById(R.id.name);
+            tv.setText(source.name);
+
+            tv = (TextView)view.findViewById(R.id.url);
+            tv.setText(source.url);
+
+            tv = (TextView)view.findViewById(R.id.details);
+            if (source.updated != null)
+                tv.setText(getContext().getString(R.string.sources_details, source.entries, source.version,
+                        SimpleDateFormat.getDateTimeInstance().format(new Date(source.updated))));
+            else
+                tv.setText(R.string.sources_never_updated);
+
+            return view;
+        }
+
+    }
+
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright © Ricki Hirner (bitfire web engineering).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ */
+
+package at.bitfire.nophonespam.model;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Numbers which are never blocked, even if they match a blacklist entry.
+ * Entries are either added manually (no contact ID) or taken from the contacts. The contacts
+ * synchronization only touches entries with contact ID, so manual entries are kept.
+ */
+public class AllowedNumber {
+
+    public static final String
+            _TABLE = "allowed_numbers",
+            _ID = "_id",
+            NUMBER = "number",
+            NAME = "name",
+            CONTACT_ID = "contactId";
+
+    /** selection of the manually added entries */
+    public static final String MANUAL = CONTACT_ID + " IS NULL";
+
+    /** normalized number */
+    public String number;
+    public String name;
+
+    /** ID of the contact this entry has been taken from, or null if it has been added manually */
+    public Long contactId;
+
+
+    /**
+     * @return manually added entries, ordered by number
+     */
+    public static List<AllowedNumber> queryManual(SQLiteDatabase db) {
+        List<AllowedNumber> numbers = new LinkedList<>();
+        Cursor c = db.query(_TABLE, new String[] { NUMBER, NAME }, MANUAL, null, null, null, NUMBER);
+        try {
+            while (c.moveToNext()) {
+                AllowedNumber number = new AllowedNumber();
+                number.number = c.getString(0);
+                number.name = c.getString(1);
+                numbers.add(number);
+            }
+        } finally {
+            c.close();
+        }
+        return numbers;
+    }
+
+    /**
+     * Adds a number manually, or updates its name if it has already been added manually.
+     * @param number normalized number
+     */
+    public static void insertManual(SQLiteDatabase db, String number, String name) {
+        ContentValues values = new ContentValues(2);
+        values.put(NAME, name);
+        if (db.update(_TABLE, values, NUMBER + "=? AND " + MANUAL, new String[] { number }) == 0) {
+            values.put(NUMBER, number);
+            db.insertOrThrow(_TABLE, null, values);
+        }
+    }
+
+    /**
+     * Removes a manually added number (numbers of contacts are kept).
+     * @return number of removed entries
+     */
+    public static int deleteManual(SQLiteDatabase db, String number) {
+        return db.delete(_TABLE, NUMBER + "=? AND " + MANUAL, new String[] { number });
+    }
+
+}
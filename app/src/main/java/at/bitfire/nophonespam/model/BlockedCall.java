@@ -0,0 +1,99 @@
+/*
+ * Copyright © Ricki Hirner (bitfire web engineering).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ */
+
+package at.bitfire.nophonespam.model;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import at.bitfire.nophonespam.screening.ScreeningRules;
+
+/**
+ * An entry of the (append-only) blocked call log.
+ *
+ * To keep the log compact, calls are written in batches: every batch stores one
+ * absolute base time, and every call only stores its (small) offset to that base.
+ * Rules are interned into a separate table and referenced by ID.
+ */
+public class BlockedCall {
+
+    public static final String
+            _TABLE = "call_log",
+            _ID = "_id",
+            BATCH = "batch",
+            TIME_OFFSET = "timeOffset",
+            NUMBER = "number",
+            RULE = "rule",
+            LATENCY = "latency";
+
+    public static final String
+            BATCHES_TABLE = "call_log_batches",
+            BATCH_BASE_TIME = "baseTime";
+
+    public static final String
+            RULES_TABLE = "call_log_rules",
+            RULE_NAME = "name";
+
+    /** rule name for calls which have been rejected because they had no caller ID */
+    public static final String RULE_HIDDEN = ScreeningRules.RULE_HIDDEN;
+    /** rule name for calls which have been rejected because the number called repeatedly in a short time */
+    public static final String RULE_REPEATED = ScreeningRules.RULE_REPEATED;
+
+    public long id;
+
+    public long time;
+    public String number;
+    public String rule;
+
+    /** screening latency in µs */
+    public long latency;
+
+
+    public BlockedCall() {
+    }
+
+    public BlockedCall(long time, String number, String rule, long latency) {
+        this.time = time;
+        this.number = number;
+        this.rule = rule;
+        this.latency = latency;
+    }
+
+    /**
+     * Loads a page of the call log, newest calls first.
+     * @param beforeId only calls with an ID lower than this one are returned (use {@link Long#MAX_VALUE} for the first page)
+     * @param limit    maximum number of calls to return
+     */
+    public static List<BlockedCall> queryPage(SQLiteDatabase db, long beforeId, int limit) {
+        List<BlockedCall> calls = new ArrayList<>(limit);
+        Cursor c = db.rawQuery("SELECT l." + _ID + ", b." + BATCH_BASE_TIME + "+l." + TIME_OFFSET + ", l." + NUMBER + ", r." + RULE_NAME + ", l." + LATENCY +
+                " FROM " + _TABLE + " l" +
+                " JOIN " + BATCHES_TABLE + " b ON b." + _ID + "=l." + BATCH +
+                " JOIN " + RULES_TABLE + " r ON r." + _ID + "=l." + RULE +
+                " WHERE l." + _ID + "<?" +
+                " ORDER BY l." + _ID + " DESC LIMIT " + limit, new String[] { String.valueOf(beforeId) });
+        try {
+            while (c.moveToNext()) {
+                BlockedCall call = new BlockedCall();
+                call.id = c.getLong(0);
+                call.time = c.getLong(1);
+                call.number = c.getString(2);
+                call.rule = c.getString(3);
+                call.latency = c.getLong(4);
+                calls.add(call);
+            }
+        } finally {
+            c.close();
+        }
+        return calls;
+    }
+
+}
@@ -8,42 +8,140 @@
 
 package at.bitfire.nophonespam.model;
 
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
 public class DbHelper extends SQLiteOpenHelper {
 
-    private static final int DB_VERSION = 1;
+    private static final int DB_VERSION = 2;
 
     public DbHelper(Context context) {
-        super(context, "database", null, 1);
+        super(context, "database", null, DB_VERSION);
     }
 
     @Override
     public void onCreate(SQLiteDatabase db) {
+        // personal blacklist (source 0)
         db.execSQL("CREATE TABLE " + Number._TABLE + "(" +
                 Number.NUMBER + " TEXT NOT NULL PRIMARY KEY," +
                 Number.NAME + " TEXT NULL," +
                 Number.LAST_CALL + " INTEGER NULL," +
-                Number.TIMES_CALLED + " INTEGER NOT NULL DEFAULT 0" +
+                Number.TIMES_CALLED + " INTEGER NOT NULL DEFAULT 0," +
+                Number.EXPIRES + " INTEGER NULL" +
         ")");
+        createExpiresIndex(db);
+        createCallLog(db);
+        createAllowlist(db);
+        createRanges(db);
+        createSearchIndex(db);
+        createSortIndexes(db);
+        createSources(db);
+    }
 
-        ContentValues values = new ContentValues();
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int from, int to) {
+        if (from < 2) {
+            // version 1 only had the personal blacklist without expiry
+            db.execSQL("ALTER TABLE " + Number._TABLE + " ADD COLUMN " + Number.EXPIRES + " INTEGER NULL");
+            createExpiresIndex(db);
+            createCallLog(db);
+            createAllowlist(db);
+            createRanges(db);
+            createSearchIndex(db);
+            createSortIndexes(db);
+            createSources(db);
+        }
+    }
 
-        /*values.put(Number.NAME, "Werbekuh Schule BV");
-        values.put(Number.NUMBER, "+431810279346");
-        db.insert(Number._TABLE, null, values);
+    private static void createExpiresIndex(SQLiteDatabase db) {
+        // used by the expiry sweep (MIN() and range delete), so that it never has to scan the whole table
+        db.execSQL("CREATE INDEX " + Number._TABLE + "_" + Number.EXPIRES + " ON " + Number._TABLE + "(" + Number.EXPIRES + ")");
+    }
+
+    private static void createSortIndexes(SQLiteDatabase db) {
+        // for sorting the blacklist and loading it page by page (see Number#after); the number makes the order unique
+        db.execSQL("CREATE INDEX " + Number._TABLE + "_" + Number.LAST_CALL + "_" + Number.NUMBER + " ON " + Number._TABLE + "(" + Number.LAST_CALL + "," + Number.NUMBER + ")");
+        db.execSQL("CREATE INDEX " + Number._TABLE + "_" + Number.TIMES_CALLED + "_" + Number.NUMBER + " ON " + Number._TABLE + "(" + Number.TIMES_CALLED + "," + Number.NUMBER + ")");
+    }
 
-        values.put(Number.NAME, "Luxemburg");
-        values.put(Number.NUMBER, "+352*");
-        db.insert(Number._TABLE, null, values);*/
+    private static void createSearchIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE VIRTUAL TABLE " + NumberSearch._TABLE + " USING fts4(" + NumberSearch.NAME + "," + NumberSearch.DIGITS + ")");
 
+        String insertNew = "INSERT INTO " + NumberSearch._TABLE + "(" + NumberSearch.DOC_ID + "," + NumberSearch.NAME + "," + NumberSearch.DIGITS + ")" +
+                " VALUES (new.rowid,new." + Number.NAME + "," + NumberSearch.suffixesExpression("new." + Number.NUMBER) + ");";
+        String deleteOld = "DELETE FROM " + NumberSearch._TABLE + " WHERE " + NumberSearch.DOC_ID + "=old.rowid;";
+        db.execSQL("CREATE TRIGGER " + NumberSearch._TABLE + "_insert AFTER INSERT ON " + Number._TABLE + " BEGIN " + insertNew + " END");
+        db.execSQL("CREATE TRIGGER " + NumberSearch._TABLE + "_update AFTER UPDATE OF " + Number.NUMBER + "," + Number.NAME + " ON " + Number._TABLE +
+                " BEGIN " + deleteOld + insertNew + " END");
+        db.execSQL("CREATE TRIGGER " + NumberSearch._TABLE + "_delete AFTER DELETE ON " + Number._TABLE + " BEGIN " + deleteOld + " END");
+
+        // index existing entries
+        db.execSQL("INSERT INTO " + NumberSearch._TABLE + "(" + NumberSearch.DOC_ID + "," + NumberSearch.NAME + "," + NumberSearch.DIGITS + ")" +
+                " SELECT rowid," + Number.NAME + "," + NumberSearch.suffixesExpression(Number.NUMBER) + " FROM " + Number._TABLE);
     }
 
-    @Override
-    public void onUpgrade(SQLiteDatabase db, int from, int to) {
+    private static void createAllowlist(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + AllowedNumber._TABLE + "(" +
+                AllowedNumber._ID + " INTEGER PRIMARY KEY," +
+                AllowedNumber.NUMBER + " TEXT NOT NULL," +
+                AllowedNumber.NAME + " TEXT NULL," +
+                AllowedNumber.CONTACT_ID + " INTEGER NULL" +
+        ")");
+        db.execSQL("CREATE INDEX " + AllowedNumber._TABLE + "_" + AllowedNumber.NUMBER + " ON " + AllowedNumber._TABLE + "(" + AllowedNumber.NUMBER + ")");
+        db.execSQL("CREATE INDEX " + AllowedNumber._TABLE + "_" + AllowedNumber.CONTACT_ID + " ON " + AllowedNumber._TABLE + "(" + AllowedNumber.CONTACT_ID + ")");
+    }
+
+    private static void createRanges(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + NumberRange._TABLE + "(" +
+                NumberRange._ID + " INTEGER PRIMARY KEY," +
+                NumberRange.START + " INTEGER NOT NULL," +
+                NumberRange.END + " INTEGER NOT NULL," +
+                NumberRange.NAME + " TEXT NULL" +
+        ")");
+    }
+
+    private static void createSources(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + Source._TABLE + "(" +
+                Source._ID + " INTEGER PRIMARY KEY," +
+                Source.NAME + " TEXT NOT NULL," +
+                Source.URL + " TEXT NOT NULL," +
+                Source.VERSION + " TEXT NULL," +
+                Source.UPDATED + " INTEGER NULL," +
+                Source.ENTRIES + " INTEGER NOT NULL DEFAULT 0" +
+        ")");
+        createSourceBlocks(db);
+    }
+
+    private static void createSourceBlocks(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + Source.BLOCKS_TABLE + "(" +
+                Source.BLOCK_SOURCE + " INTEGER NOT NULL," +
+                Source.BLOCK_FIRST + " TEXT NOT NULL," +
+                Source.BLOCK_COUNT + " INTEGER NOT NULL," +
+                Source.BLOCK_DATA + " BLOB NOT NULL" +
+        ")");
+        // blocks are read/replaced per source; single entries are looked up by (source, first number of block)
+        db.execSQL("CREATE UNIQUE INDEX " + Source.BLOCKS_TABLE + "_" + Source.BLOCK_SOURCE + " ON " + Source.BLOCKS_TABLE + "(" +
+                Source.BLOCK_SOURCE + "," + Source.BLOCK_FIRST + ")");
+    }
+
+    private static void createCallLog(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + BlockedCall.BATCHES_TABLE + "(" +
+                BlockedCall._ID + " INTEGER PRIMARY KEY," +
+                BlockedCall.BATCH_BASE_TIME + " INTEGER NOT NULL" +
+        ")");
+        db.execSQL("CREATE TABLE " + BlockedCall.RULES_TABLE + "(" +
+                BlockedCall._ID + " INTEGER PRIMARY KEY," +
+                BlockedCall.RULE_NAME + " TEXT NOT NULL UNIQUE" +
+        ")");
+        db.execSQL("CREATE TABLE " + BlockedCall._TABLE + "(" +
+                BlockedCall._ID + " INTEGER PRIMARY KEY," +
+                BlockedCall.BATCH + " INTEGER NOT NULL," +
+                BlockedCall.TIME_OFFSET + " INTEGER NOT NULL," +
+                BlockedCall.NUMBER + " TEXT NULL," +
+                BlockedCall.RULE + " INTEGER NOT NULL," +
+                BlockedCall.LATENCY + " INTEGER NOT NULL" +
+        ")");
     }
 
 }
@@ -10,6 +10,8 @@ package at.bitfire.nophonespam.model;
 
 import android.content.ContentValues;
 
+import java.util.List;
+
 public class Number {
 
     public static final String
@@ -17,7 +19,17 @@ public class Number {
             NUMBER = "number",
             NAME = "name",
             LAST_CALL = "lastCall",
-            TIMES_CALLED = "timesCalled";
+            TIMES_CALLED = "timesCalled",
+            EXPIRES = "expires";
+
+    /** sort orders for lists of entries (backed by indexes; the number makes the order unique, see {@link #after}) */
+    public static final String
+            SORT_NUMBER = NUMBER,
+            SORT_LAST_CALL = LAST_CALL + " DESC," + NUMBER + " DESC",
+            SORT_TIMES_CALLED = TIMES_CALLED + " DESC," + NUMBER + " DESC";
+
+    /** selection of entries which have never called */
+    public static final String NEVER_CALLED = LAST_CALL + " IS NULL";
 
     public String number;
     public String name;
@@ -25,6 +37,31 @@ public class Number {
     public Long lastCall;
     public int timesCalled;
 
+    /** time (in ms since epoch) after which the entry is removed, or null if it never expires */
+    public Long expires;
+
+    /** ID of the {@link Source} the entry comes from (not stored in {@link #_TABLE}) */
+    public long source = Source.PERSONAL;
+
+
+    @Override
+    public String toString() {
+        return source != Source.PERSONAL ? number + " (source " + source + ")" : number;
+    }
+
+    /**
+     * @return copy of this entry, which can be modified without changing this entry
+     */
+    public Number copy() {
+        Number copy = new Number();
+        copy.number = number;
+        copy.name = name;
+        copy.lastCall = lastCall;
+        copy.timesCalled = timesCalled;
+        copy.expires = expires;
+        copy.source = source;
+        return copy;
+    }
 
     public static Number fromValues(ContentValues values) {
         Number number = new Number();
@@ -32,20 +69,30 @@ public class Number {
         number.name = values.getAsString(NAME);
         number.lastCall = values.getAsLong(LAST_CALL);
         number.timesCalled = values.getAsInteger(TIMES_CALLED);
+        number.expires = values.getAsLong(EXPIRES);
         return number;
     }
 
-    public static String wildcardsDbToView(String number) {
-        return number
-                .replace('%','*')
-                .replace('_','#');
-    }
-
-    public static String wildcardsViewToDb(String number) {
-        return number
-                .replaceAll("[^+#*0-9]", "")
-                .replace('*','%')
-                .replace('#','_');
+    /**
+     * Builds a selection for the entries which come after the given entry in the given sort order,
+     * so that a list can be loaded page by page without counting the entries of the earlier pages.
+     * For {@link #SORT_LAST_CALL}, entries which have never called ({@link #NEVER_CALLED}) come last.
+     * They're only selected after an entry which has never called, so that the selection can use
+     * the index; after the last entry which has called, they have to be selected separately.
+     * @param sortOrder     one of the SORT_ constants
+     * @param last          last entry of the previous page
+     * @param selectionArgs selection arguments are added to this list
+     */
+    public static String after(String sortOrder, Number last, List<String> selectionArgs) {
+        selectionArgs.add(last.number);
+        if (SORT_LAST_CALL.equals(sortOrder)) {
+            if (last.lastCall == null)
+                return "(" + NEVER_CALLED + " AND " + NUMBER + "<?)";
+            return "(" + LAST_CALL + "<" + last.lastCall + " OR (" + LAST_CALL + "=" + last.lastCall + " AND " + NUMBER + "<?))";
+        } else if (SORT_TIMES_CALLED.equals(sortOrder))
+            return "(" + TIMES_CALLED + "<" + last.timesCalled + " OR (" + TIMES_CALLED + "=" + last.timesCalled + " AND " + NUMBER + "<?))";
+        else
+            return NUMBER + ">?";
     }
 
 }
@@ -0,0 +1,130 @@
+/*
+ * Copyright © Ricki Hirner (bitfire web engineering).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ */
+
+package at.bitfire.nophonespam.model;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.text.TextUtils;
+
+import java.util.List;
+
+import at.bitfire.nophonespam.screening.PhoneNumbers;
+import at.bitfire.nophonespam.screening.RangeIndex;
+
+/**
+ * Blocks all numbers within a numeric range, for instance +4319000000–+4319099999.
+ * Start and end are stored encoded (see {@link PhoneNumbers#encode(String)}), so a range
+ * only contains numbers of the same form: international ranges don't block national numbers
+ * with the same digits. Ranges are stored already merged, i.e. they never overlap.
+ */
+public class NumberRange {
+
+    public static final String
+            _TABLE = "ranges",
+            _ID = "_id",
+            START = "start",
+            END = "end",
+            NAME = "name";
+
+    private static final String LABEL_SEPARATOR = "–";
+
+    /** encoded first and last number */
+    public long start, end;
+    public String name;
+
+    public NumberRange(long start, long end, String name) {
+        this.start = start;
+        this.end = end;
+        this.name = name;
+    }
+
+
+    /**
+     * Parses a line of a range list in the format "from,to[,name]" (";" and tab are
+     * accepted as separators, too). Numbers may contain formatting characters, but both
+     * must have the same form (leading "+" or not, same number of digits).
+     * @return parsed range, or null if the line doesn't contain a valid range
+     */
+    public static NumberRange parse(String line) {
+        String[] fields = line.split("[,;\\t]", 3);
+        if (fields.length < 2)
+            return null;
+
+        long start = PhoneNumbers.encode(PhoneNumbers.normalize(fields[0])),
+             end = PhoneNumbers.encode(PhoneNumbers.normalize(fields[1]));
+        if (!RangeIndex.Builder.isValid(start, end))
+            return null;
+
+        String name = fields.length > 2 ? fields[2].trim() : null;
+        return new NumberRange(start, end, TextUtils.isEmpty(name) ? null : name);
+    }
+
+    /**
+     * @return text representation of a range, for instance for the call log
+     */
+    public static String label(long start, long end) {
+        return PhoneNumbers.decode(start) + LABEL_SEPARATOR + PhoneNumbers.decode(end);
+    }
+
+    /**
+     * @return whether the given text is a range label (as opposed to a number or pattern)
+     */
+    public static boolean isLabel(String text) {
+        return text.contains(LABEL_SEPARATOR);
+    }
+
+    public static RangeIndex loadIndex(SQLiteDatabase db) {
+        RangeIndex.Builder builder = new RangeIndex.Builder();
+        Cursor c = db.query(_TABLE, new String[] { START, END, NAME }, null, null, null, null, START);
+        try {
+            while (c.moveToNext())
+                builder.add(c.getLong(0), c.getLong(1), c.getString(2));
+        } finally {
+            c.close();
+        }
+        return builder.build();
+    }
+
+    /**
+     * Adds ranges and merges them with the existing ones.
+     * @return number of ranges after merging
+     */
+    public static int importRanges(SQLiteDatabase db, List<NumberRange> ranges) {
+        db.beginTransaction();
+        try {
+            RangeIndex.Builder builder = new RangeIndex.Builder();
+            Cursor c = db.query(_TABLE, new String[] { START, END, NAME }, null, null, null, null, null);
+            try {
+                while (c.moveToNext())
+                    builder.add(c.getLong(0), c.getLong(1), c.getString(2));
+            } finally {
+                c.close();
+            }
+            for (NumberRange range : ranges)
+                builder.add(range.start, range.end, range.name);
+            RangeIndex merged = builder.build();
+
+            db.delete(_TABLE, null, null);
+            ContentValues values = new ContentValues(3);
+            for (int i = 0; i < merged.size(); i++) {
+                values.put(START, merged.start(i));
+                values.put(END, merged.end(i));
+                values.put(NAME, merged.name(i));
+                db.insertOrThrow(_TABLE, null, values);
+            }
+
+            db.setTransactionSuccessful();
+            return merged.size();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+}
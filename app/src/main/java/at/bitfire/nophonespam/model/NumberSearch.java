@@ -0,0 +1,85 @@
+/*
+ * Copyright © Ricki Hirner (bitfire web engineering).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ */
+
+package at.bitfire.nophonespam.model;
+
+import java.util.List;
+
+import at.bitfire.nophonespam.screening.PhoneNumbers;
+
+/**
+ * Full-text search index (FTS4) over the names and numbers of {@link Number#_TABLE}.
+ * It's maintained by triggers, so it's always in sync with the numbers table.
+ *
+ * To find number fragments anywhere in a number (not only at the beginning),
+ * all suffixes of a number are indexed, so that a prefix query matches any
+ * infix of the number.
+ */
+public class NumberSearch {
+
+    public static final String
+            _TABLE = "numbers_search",
+            DOC_ID = "docid",
+            NAME = "name",
+            DIGITS = "digits";
+
+    /** numbers longer than this can only be found by their first {@value} suffixes */
+    static final int MAX_INDEXED_SUFFIXES = 24;
+
+    private NumberSearch() {
+    }
+
+    /**
+     * @param column    column expression for the number (for instance "new.number" in triggers)
+     * @return SQL expression which generates the space-separated suffixes of the number
+     */
+    static String suffixesExpression(String column) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 1; i <= MAX_INDEXED_SUFFIXES; i++) {
+            if (i > 1)
+                sb.append("||' '||");
+            sb.append("substr(").append(column).append(",").append(i).append(")");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Builds a selection for {@link Number#_TABLE} which matches entries whose name contains
+     * words starting with the query terms, or whose number contains the digits of the query.
+     * @param query         search text as entered by the user
+     * @param selectionArgs selection arguments are added to this list
+     * @return selection, or null if the query doesn't contain anything to search for
+     */
+    public static String selection(String query, List<String> selectionArgs) {
+        StringBuilder nameQuery = new StringBuilder();
+        for (String term : query.split("\\s+")) {
+            // remove characters with special meaning in FTS queries
+            term = term.replaceAll("[\"*()^:+-]", "");
+            if (!term.isEmpty())
+                nameQuery.append(nameQuery.length() > 0 ? " " : "").append(term).append('*');
+        }
+
+        String digits = PhoneNumbers.normalize(query).replace("+", "");
+        if (nameQuery.length() == 0 && digits.isEmpty())
+            return null;
+
+        StringBuilder selection = new StringBuilder("rowid IN (");
+        if (nameQuery.length() > 0) {
+            selection.append("SELECT " + DOC_ID + " FROM " + _TABLE + " WHERE " + NAME + " MATCH ?");
+            selectionArgs.add(nameQuery.toString());
+        }
+        if (!digits.isEmpty()) {
+            if (nameQuery.length() > 0)
+                selection.append(" UNION ");
+            selection.append("SELECT " + DOC_ID + " FROM " + _TABLE + " WHERE " + DIGITS + " MATCH ?");
+            selectionArgs.add(digits + "*");
+        }
+        return selection.append(")").toString();
+    }
+
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright © Ricki Hirner (bitfire web engineering).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ */
+
+package at.bitfire.nophonespam.model;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.LinkedList;
+import java.util.List;
+
+import at.bitfire.nophonespam.screening.PackedBlock;
+
+/**
+ * Subscribed blocklist (for instance, a company list or a community spam feed) which is
+ * fetched from an URL. The personal blacklist ({@link Number#_TABLE}) is the implicit
+ * source {@link #PERSONAL}.
+ *
+ * Subscribed lists can be very large and are never edited, so their entries are not stored
+ * in rows, but sorted and packed into blocks ({@link PackedBlock}) in {@link #BLOCKS_TABLE}.
+ * A single entry is found by looking up the block (by its first number) and searching it.
+ */
+public class Source {
+
+    public static final String
+            _TABLE = "sources",
+            _ID = "_id",
+            NAME = "name",
+            URL = "url",
+            VERSION = "version",
+            UPDATED = "updated",
+            ENTRIES = "entries";
+
+    public static final String
+            BLOCKS_TABLE = "source_blocks",
+            BLOCK_SOURCE = "source",
+            BLOCK_FIRST = "first",
+            BLOCK_COUNT = "count",
+            BLOCK_DATA = "data";
+
+    /** ID of the personal blacklist */
+    public static final long PERSONAL = 0;
+
+    /** pseudo source of entries which are blocked because of their country (see {@link at.bitfire.nophonespam.Settings#blockedCountries()}) */
+    public static final long COUNTRIES = -1;
+
+    /** pseudo source of entries which are generated by screening heuristics (like repeated calls) */
+    public static final long HEURISTICS = -2;
+
+    /** pseudo source of entries which are blocked because they're within a {@link NumberRange} */
+    public static final long RANGES = -3;
+
+    public long id;
+    public String name;
+    /** http(s), file or content URL of the list */
+    public String url;
+
+    /** version of the list as stored, null if it has never been fetched */
+    public String version;
+    /** time of last successful update, or null if it has never been fetched */
+    public Long updated;
+    public int entries;
+
+
+    public static List<Source> queryAll(SQLiteDatabase db) {
+        List<Source> sources = new LinkedList<>();
+        Cursor c = db.query(_TABLE, new String[] { _ID, NAME, URL, VERSION, UPDATED, ENTRIES }, null, null, null, null, NAME);
+        try {
+            while (c.moveToNext())
+                sources.add(fromCursor(c));
+        } finally {
+            c.close();
+        }
+        return sources;
+    }
+
+    public static Source query(SQLiteDatabase db, long id) {
+        Cursor c = db.query(_TABLE, new String[] { _ID, NAME, URL, VERSION, UPDATED, ENTRIES }, _ID + "=?", new String[] { String.valueOf(id) }, null, null, null);
+        try {
+            return c.moveToNext() ? fromCursor(c) : null;
+        } finally {
+            c.close();
+        }
+    }
+
+    private static Source fromCursor(Cursor c) {
+        Source source = new Source();
+        source.id = c.getLong(0);
+        source.name = c.getString(1);
+        source.url = c.getString(2);
+        source.version = c.getString(3);
+        source.updated = c.isNull(4) ? null : c.getLong(4);
+        source.entries = c.getInt(5);
+        return source;
+    }
+
+    /**
+     * @return numbers of all entries of a source, in sorted order
+     */
+    public static String[] queryNumbers(SQLiteDatabase db, long source) {
+        Cursor c = db.query(BLOCKS_TABLE, new String[] { BLOCK_COUNT, BLOCK_DATA }, BLOCK_SOURCE + "=?",
+                new String[] { String.valueOf(source) }, null, null, BLOCK_FIRST);
+        try {
+            int n = 0;
+            while (c.moveToNext())
+                n += c.getInt(0);
+
+            String[] numbers = new String[n];
+            int i = 0;
+            c.moveToPosition(-1);
+            while (c.moveToNext()) {
+                PackedBlock.Reader reader = new PackedBlock.Reader(c.getBlob(1));
+                while (reader.next() && i < n)
+                    numbers[i++] = reader.number();
+            }
+            return numbers;
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * @return name of the entry, or null if it has no name
+     */
+    public static String queryEntryName(SQLiteDatabase db, long source, String number) {
+        // only the block which may contain the number is read
+        Cursor c = db.query(BLOCKS_TABLE, new String[] { BLOCK_DATA }, BLOCK_SOURCE + "=? AND " + BLOCK_FIRST + "<=?",
+                new String[] { String.valueOf(source), number }, null, null, BLOCK_FIRST + " DESC", "1");
+        try {
+            if (c.moveToNext()) {
+                PackedBlock.Reader reader = new PackedBlock.Reader(c.getBlob(0));
+                if (reader.seek(number))
+                    return reader.name();
+            }
+            return null;
+        } finally {
+            c.close();
+        }
+    }
+
+    public static void deleteEntries(SQLiteDatabase db, long source) {
+        db.delete(BLOCKS_TABLE, BLOCK_SOURCE + "=?", new String[] { String.valueOf(source) });
+    }
+
+
+    /**
+     * Packs the entries of a source into blocks and stores them. Entries must be added in
+     * sorted order; duplicate numbers are dropped.
+     */
+    public static class BlockWriter {
+
+        private final long source;
+        private final SQLiteStatement insert;
+        private final PackedBlock.Writer writer = new PackedBlock.Writer();
+        private int count;
+
+        public BlockWriter(SQLiteDatabase db, long source) {
+            this.source = source;
+            insert = db.compileStatement("INSERT INTO " + BLOCKS_TABLE + "(" +
+                    BLOCK_SOURCE + "," + BLOCK_FIRST + "," + BLOCK_COUNT + "," + BLOCK_DATA + ") VALUES (?,?,?,?)");
+        }
+
+        /**
+         * @param number    number in database format (must be {@link PackedBlock#isPackable(String) packable})
+         * @param name      name, may be null
+         */
+        public void add(String number, String name) {
+            if (writer.isFull())
+                writeBlock();
+            if (writer.add(number, name))
+                count++;
+        }
+
+        /**
+         * Writes the last block.
+         * @return number of stored entries
+         */
+        public int finish() {
+            try {
+                if (writer.count() > 0)
+                    writeBlock();
+            } finally {
+                insert.close();
+            }
+            return count;
+        }
+
+        private void writeBlock() {
+            insert.bindLong(1, source);
+            insert.bindString(2, writer.first());
+            insert.bindLong(3, writer.count());
+            insert.bindBlob(4, writer.finish());
+            insert.executeInsert();
+        }
+
+    }
+
+}
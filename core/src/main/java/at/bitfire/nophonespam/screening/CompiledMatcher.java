@@ -0,0 +1,358 @@
+/*
+ * Copyright © Ricki Hirner (bitfire web engineering).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ */
+
+package at.bitfire.nophonespam.screening;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Match structure for the entries of all blocklist sources: exact numbers of all
+ * sources are in one set of {@link ExactNumberStore}s, patterns of all sources in one
+ * set of {@link PatternTrie}s. So the cost of a lookup doesn't depend on the number of sources.
+ *
+ * If a number occurs in more than one source, the entry of the first source is used. When
+ * that entry expires, the entry of the next source which still lists the number takes over.
+ *
+ * The structures are split into a fixed number of shards, which are built in parallel
+ * (see {@link ParallelBuild}): exact numbers by hash of the key, patterns by their first
+ * symbol (patterns which start with a wildcard have their own shard). Every shard takes its
+ * entries from the segments in order, so the result is the same whatever the degree of
+ * parallelism. A lookup only searches the shards which can contain the number.
+ *
+ * Matches are returned as handle (≥ 0 for exact numbers, ≤ -2 for patterns) to be used
+ * with the accessors, so that lookups don't allocate memory.
+ *
+ * Not thread-safe.
+ */
+public class CompiledMatcher {
+
+    public static final int NO_MATCH = -1;
+
+    /** estimated size of a {@link Shadowed} entry (with its map entry) */
+    static final int SHADOWED_SIZE = 96;
+
+    static final int EXACT_SHARD_BITS = 4;
+    static final int EXACT_SHARDS = 1 << EXACT_SHARD_BITS;
+
+    /** one shard per symbol which can start a number ('0'–'9', '+') … */
+    static final int PATTERN_SHARDS = 12;
+    /** … and one for patterns which start with a wildcard */
+    static final int ROOT_PATTERN_SHARD = PATTERN_SHARDS - 1;
+
+    private final ExactNumberStore[] exact;
+    private final PatternTrie[] patterns;
+    /** per exact shard: entries which are hidden by an expiring entry of the same number, in order of precedence */
+    private final Map<Long, Shadowed>[] shadowed;
+
+    /**
+     * Merges segments into one matcher, using all cores.
+     * @param segments  segments to merge; if a number occurs in more than one
+     *                  segment, the entry of the first segment is used (until it expires)
+     */
+    public static CompiledMatcher merge(List<MatcherSegment> segments) {
+        return merge(segments, ParallelBuild.allCores());
+    }
+
+    /**
+     * Like {@link #merge(List)}, but builds the shards with the given parallelism.
+     */
+    @SuppressWarnings("unchecked")
+    public static CompiledMatcher merge(final List<MatcherSegment> segments, ParallelBuild build) {
+        final ExactNumberStore[] exact = new ExactNumberStore[EXACT_SHARDS];
+        final PatternTrie[] patterns = new PatternTrie[PATTERN_SHARDS];
+        final Map<Long, Shadowed>[] shadowed = new Map[EXACT_SHARDS];
+
+        build.run(EXACT_SHARDS + PATTERN_SHARDS, new ParallelBuild.Task() {
+            @Override
+            public void run(int index) {
+                if (index < EXACT_SHARDS)
+                    buildExactShard(index, segments, exact, shadowed);
+                else
+                    patterns[index - EXACT_SHARDS] = buildPatternShard(index - EXACT_SHARDS, segments);
+            }
+        });
+        return new CompiledMatcher(exact, patterns, shadowed);
+    }
+
+    private static void buildExactShard(int shard, List<MatcherSegment> segments, ExactNumberStore[] stores, Map<Long, Shadowed>[] shadowedMaps) {
+        int count = 0;
+        for (MatcherSegment segment : segments)
+            for (long key : segment.exactKeys)
+                if (exactShard(key) == shard)
+                    count++;
+
+        ExactNumberStore exact = new ExactNumberStore(count);
+        Map<Long, Shadowed> shadowed = new HashMap<>();
+        for (MatcherSegment segment : segments)
+            for (int i = 0; i < segment.exactKeys.length; i++) {
+                long key = segment.exactKeys[i];
+                if (exactShard(key) != shard)
+                    continue;
+                int idx = exact.indexOf(key);
+                if (idx == -1)
+                    exact.put(key, segment.source, segment.exactLastCalls[i], segment.exactTimesCalled[i], segment.exactExpires[i]);
+                else
+                    shadow(shadowed, key, exact.expires(idx),
+                            new Shadowed(segment.source, segment.exactLastCalls[i], segment.exactTimesCalled[i], segment.exactExpires[i]));
+            }
+        stores[shard] = exact;
+        shadowedMaps[shard] = shadowed;
+    }
+
+    private static PatternTrie buildPatternShard(int shard, List<MatcherSegment> segments) {
+        int count = 0;
+        for (MatcherSegment segment : segments)
+            for (String pattern : segment.patterns)
+                if (patternShard(pattern) == shard)
+                    count++;
+
+        PatternTrie patterns = new PatternTrie(count);
+        for (MatcherSegment segment : segments)
+            for (int i = 0; i < segment.patterns.length; i++)
+                if (patternShard(segment.patterns[i]) == shard)
+                    patterns.add(segment.patterns[i], segment.source, segment.patternExpires[i]);
+        return patterns;
+    }
+
+    /**
+     * @return shard of an exact number (uses other bits of the hash than {@link ExactNumberStore})
+     */
+    static int exactShard(long key) {
+        return (int)((key * 0x9E3779B97F4A7C15L) >>> (64 - EXACT_SHARD_BITS));
+    }
+
+    /**
+     * @return shard of a pattern
+     */
+    static int patternShard(String pattern) {
+        int shard = pattern.isEmpty() ? -1 : symbolShard(pattern.charAt(0));
+        return shard != -1 ? shard : ROOT_PATTERN_SHARD;
+    }
+
+    /**
+     * @return shard of the patterns which start with the given character, or -1 if there's none
+     */
+    private static int symbolShard(char c) {
+        if (c >= '0' && c <= '9')
+            return c - '0';
+        else if (c == '+')
+            return 10;
+        return -1;
+    }
+
+    /**
+     * Keeps an entry which is hidden by an entry of the same number, if it's still valid when the
+     * hiding entry (and the entries which have been kept before) have expired.
+     * @param expires expiry time of the hiding entry
+     */
+    private static void shadow(Map<Long, Shadowed> shadowed, long key, long expires, Shadowed entry) {
+        Shadowed last = shadowed.get(key);
+        while (last != null && last.next != null)
+            last = last.next;
+        if (last != null)
+            expires = last.expires;
+
+        if (expires == 0 || (entry.expires != 0 && entry.expires <= expires))
+            // never takes over
+            return;
+        if (last != null)
+            last.next = entry;
+        else
+            shadowed.put(key, entry);
+    }
+
+    private CompiledMatcher(ExactNumberStore[] exact, PatternTrie[] patterns, Map<Long, Shadowed>[] shadowed) {
+        this.exact = exact;
+        this.patterns = patterns;
+        this.shadowed = shadowed;
+    }
+
+    public int exactCount() {
+        int count = 0;
+        for (ExactNumberStore store : exact)
+            count += store.size();
+        return count;
+    }
+
+    public int patternCount() {
+        int count = 0;
+        for (PatternTrie trie : patterns)
+            count += trie.size();
+        return count;
+    }
+
+    /**
+     * @return approximate memory usage in bytes (without pattern strings)
+     */
+    public long memoryUsage() {
+        long usage = 0;
+        for (int shard = 0; shard < EXACT_SHARDS; shard++)
+            usage += exact[shard].memoryUsage() + (long)shadowed[shard].size() * SHADOWED_SIZE;
+        for (PatternTrie trie : patterns)
+            usage += trie.memoryUsage();
+        return usage;
+    }
+
+    /**
+     * Finds an entry which matches a number. Exact numbers take precedence over patterns.
+     * @param number    normalized number
+     * @param now       current time (entries which have expired at this time are removed)
+     * @return handle of the matching entry, or {@link #NO_MATCH}
+     */
+    public int find(String number, long now) {
+        int handle = findExact(number, now);
+        if (handle == NO_MATCH)
+            handle = findPattern(number, now);
+        return handle;
+    }
+
+    /**
+     * Like {@link #find(String, long)}, but only exact numbers are searched.
+     */
+    public int findExact(String number, long now) {
+        long key = PhoneNumbers.encode(number);
+        if (key == PhoneNumbers.NOT_ENCODABLE)
+            return NO_MATCH;
+
+        int shard = exactShard(key);
+        ExactNumberStore store = exact[shard];
+        if (store.removeExpired(now) > 0 && !shadowed[shard].isEmpty())
+            restoreShadowed(shard, now);
+        int idx = store.indexOf(key);
+        return idx != -1 ? idx << EXACT_SHARD_BITS | shard : NO_MATCH;
+    }
+
+    /**
+     * Like {@link #find(String, long)}, but only patterns are searched.
+     */
+    public int findPattern(String number, long now) {
+        return findPattern(number, now, null);
+    }
+
+    /**
+     * Like {@link #findPattern(String, long)}, but records the patterns which have been checked.
+     * @param trace trace to record the checked patterns to (may be null)
+     */
+    public int findPattern(String number, long now, DecisionTrace trace) {
+        // patterns which start with a wildcard first, like they're at the root of a single trie
+        int idx = patterns[ROOT_PATTERN_SHARD].find(number, now, trace);
+        if (idx != -1)
+            return patternHandle(idx, ROOT_PATTERN_SHARD);
+
+        int shard = number.isEmpty() ? -1 : symbolShard(number.charAt(0));
+        if (shard != -1 && (idx = patterns[shard].find(number, now, trace)) != -1)
+            return patternHandle(idx, shard);
+        return NO_MATCH;
+    }
+
+    private static int patternHandle(int idx, int shard) {
+        return -(idx * PATTERN_SHARDS + shard) - 2;
+    }
+
+    /**
+     * Puts the next valid hidden entry of every number of a shard whose entry has been removed into the store.
+     */
+    private void restoreShadowed(int shard, long now) {
+        ExactNumberStore store = exact[shard];
+        for (Iterator<Map.Entry<Long, Shadowed>> iterator = shadowed[shard].entrySet().iterator(); iterator.hasNext(); ) {
+            Map.Entry<Long, Shadowed> hidden = iterator.next();
+            long key = hidden.getKey();
+            if (store.contains(key))
+                continue;
+
+            Shadowed entry = hidden.getValue();
+            while (entry != null && entry.expires != 0 && entry.expires <= now)
+                entry = entry.next;
+            if (entry != null)
+                store.put(key, entry.tag, entry.lastCall, entry.timesCalled, entry.expires);
+
+            if (entry != null && entry.next != null)
+                hidden.setValue(entry.next);
+            else
+                iterator.remove();
+        }
+    }
+
+    public boolean isExact(int handle) {
+        return handle >= 0;
+    }
+
+    /**
+     * @return tag of the matching entry (ID of the source)
+     */
+    public int source(int handle) {
+        if (handle >= 0)
+            return exactStore(handle).tag(handle >>> EXACT_SHARD_BITS);
+        int pattern = -handle - 2;
+        return patterns[pattern % PATTERN_SHARDS].tag(pattern / PATTERN_SHARDS);
+    }
+
+    /**
+     * @return matching number or pattern
+     */
+    public String entry(int handle) {
+        if (handle >= 0)
+            return PhoneNumbers.decode(exactStore(handle).key(handle >>> EXACT_SHARD_BITS));
+        int pattern = -handle - 2;
+        return patterns[pattern % PATTERN_SHARDS].pattern(pattern / PATTERN_SHARDS);
+    }
+
+    /** @return time when the entry expires (0 if it never expires) */
+    public long expires(int handle) {
+        if (handle >= 0)
+            return exactStore(handle).expires(handle >>> EXACT_SHARD_BITS);
+        int pattern = -handle - 2;
+        return patterns[pattern % PATTERN_SHARDS].expires(pattern / PATTERN_SHARDS);
+    }
+
+    /** @return time of the last call (0 if there was no call or the entry is a pattern) */
+    public long lastCall(int handle) {
+        return handle >= 0 ? exactStore(handle).lastCall(handle >>> EXACT_SHARD_BITS) : 0;
+    }
+
+    /** @return number of calls (0 if the entry is a pattern) */
+    public int timesCalled(int handle) {
+        return handle >= 0 ? exactStore(handle).timesCalled(handle >>> EXACT_SHARD_BITS) : 0;
+    }
+
+    /**
+     * Updates the call statistics of an exact number. Must be called before
+     * the next {@link #find(String, long)}, because handles are not stable.
+     */
+    public void recordCall(int handle, long time) {
+        if (handle >= 0)
+            exactStore(handle).recordCall(handle >>> EXACT_SHARD_BITS, time);
+    }
+
+    private ExactNumberStore exactStore(int handle) {
+        return exact[handle & (EXACT_SHARDS - 1)];
+    }
+
+    private static class Shadowed {
+
+        final int tag;
+        final long lastCall;
+        final int timesCalled;
+        final long expires;
+
+        /** entry which takes over when this one expires */
+        Shadowed next;
+
+        Shadowed(int tag, long lastCall, int timesCalled, long expires) {
+            this.tag = tag;
+            this.lastCall = lastCall;
+            this.timesCalled = timesCalled;
+            this.expires = expires;
+        }
+
+    }
+
+}
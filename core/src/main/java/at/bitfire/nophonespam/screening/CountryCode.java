@@ -6,17 +6,7 @@
  * http://www.gnu.org/licenses/gpl.html
  */
 
-package at.bitfire.nophonespam;
-
-import android.content.Context;
-import android.view.LayoutInflater;
-import android.view.View;
-import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
-import android.widget.TextView;
-
-import java.util.Arrays;
-import java.util.Comparator;
+package at.bitfire.nophonespam.screening;
 
 public class CountryCode {
 
@@ -39,31 +29,12 @@ public class CountryCode {
 
     /**
      * Find the best-matching country code for a phone number.
-     * Tries longest dial codes first so e.g. "+1684" matches American Samoa before "+1" matches US.
+     * Longest dial codes match first so e.g. "+1684" matches American Samoa before "+1" matches US.
      * Returns the index into COUNTRIES, or 0 (None) if no match found.
      */
     public static int findByDialCode(String number) {
-        if (number == null || !number.startsWith("+"))
-            return 0;
-
-        String digits = number.substring(1); // strip leading "+"
-
-        // Sort a copy of indices by dial code length descending, so longer codes match first
-        Integer[] indices = new Integer[COUNTRIES.length];
-        for (int i = 0; i < indices.length; i++) indices[i] = i;
-        Arrays.sort(indices, new Comparator<Integer>() {
-            @Override
-            public int compare(Integer a, Integer b) {
-                return COUNTRIES[b].dialCode.length() - COUNTRIES[a].dialCode.length();
-            }
-        });
-
-        for (int idx : indices) {
-            String code = COUNTRIES[idx].dialCode;
-            if (!code.isEmpty() && digits.startsWith(code))
-                return idx;
-        }
-        return 0;
+        int idx = DialCodes.INDEX.find(number);
+        return idx != -1 ? idx : 0;
     }
 
     /**
@@ -79,31 +50,13 @@ public class CountryCode {
         return number;
     }
 
-    public static class CountryCodeAdapter extends ArrayAdapter<CountryCode> {
-
-        public CountryCodeAdapter(Context context) {
-            super(context, R.layout.country_code_item, R.id.country_text, COUNTRIES);
-        }
-
-        @Override
-        public View getView(int position, View convertView, ViewGroup parent) {
-            return createView(position, convertView, parent);
-        }
-
-        @Override
-        public View getDropDownView(int position, View convertView, ViewGroup parent) {
-            return createView(position, convertView, parent);
-        }
-
-        private View createView(int position, View convertView, ViewGroup parent) {
-            if (convertView == null) {
-                convertView = LayoutInflater.from(getContext())
-                        .inflate(R.layout.country_code_item, parent, false);
-            }
-            CountryCode country = getItem(position);
-            TextView tv = (TextView) convertView.findViewById(R.id.country_text);
-            tv.setText(country.toString());
-            return convertView;
+    private static class DialCodes {
+        static final DialCodeIndex INDEX;
+        static {
+            String[] dialCodes = new String[COUNTRIES.length];
+            for (int i = 0; i < COUNTRIES.length; i++)
+                dialCodes[i] = COUNTRIES[i].dialCode;
+            INDEX = new DialCodeIndex(dialCodes);
         }
     }
 
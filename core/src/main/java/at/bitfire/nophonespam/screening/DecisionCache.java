@@ -0,0 +1,112 @@
+/*
+ * Copyright © Ricki Hirner (bitfire web engineering).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ */
+
+package at.bitfire.nophonespam.screening;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache for screening decisions, keyed by normalized number.
+ * Entries expire after a fixed time-to-live, so that a changed situation
+ * (for instance, a new day) is re-evaluated eventually even if the cache is
+ * not cleared explicitly, or earlier when the decision itself expires.
+ *
+ * @param <V> decision type; may be null (for instance, for "not blocked")
+ */
+public class DecisionCache<V> {
+
+    /** estimated size of a cached decision (map entry, key and cache entry; the decision itself is not counted) */
+    static final int ENTRY_SIZE = 128;
+
+    private final long ttl;
+    private final LinkedHashMap<String, Entry<V>> entries;
+
+
+    /**
+     * @param maxSize   maximum number of cached decisions; least recently used decisions are evicted first
+     * @param ttl       time-to-live of a decision (in ms)
+     */
+    public DecisionCache(final int maxSize, long ttl) {
+        this.ttl = ttl;
+        entries = new LinkedHashMap<String, DecisionCache.Entry<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, DecisionCache.Entry<V>> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * @return cached decision, or null if there's no (or only an expired) decision for the number
+     */
+    public synchronized Entry<V> get(String number, long now) {
+        Entry<V> entry = entries.get(number);
+        if (entry != null && entry.expires <= now) {
+            entries.remove(number);
+            return null;
+        }
+        return entry;
+    }
+
+    public void put(String number, V decision, long now) {
+        put(number, decision, now, 0);
+    }
+
+    /**
+     * @param expires   time when the decision becomes invalid (for instance, because the entry
+     *                  which has caused it expires), or 0 if it's valid for the whole time-to-live
+     */
+    public synchronized void put(String number, V decision, long now, long expires) {
+        long until = now + ttl;
+        if (expires != 0 && expires < until)
+            until = expires;
+        entries.put(number, new Entry<>(decision, until));
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Evicts the least recently used decisions until at most the given number is left.
+     */
+    public synchronized void trimTo(int size) {
+        Iterator<Entry<V>> iterator = entries.values().iterator();
+        for (int n = entries.size(); n > size && iterator.hasNext(); n--) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return estimated memory usage (in bytes)
+     */
+    public synchronized long memoryUsage() {
+        return (long)entries.size() * ENTRY_SIZE;
+    }
+
+
+    public static class Entry<V> {
+
+        public final V decision;
+        final long expires;
+
+        Entry(V decision, long expires) {
+            this.decision = decision;
+            this.expires = expires;
+        }
+
+    }
+
+}
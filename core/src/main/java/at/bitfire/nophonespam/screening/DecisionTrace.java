@@ -0,0 +1,137 @@
+/*
+ * Copyright © Ricki Hirner (bitfire web engineering).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ */
+
+package at.bitfire.nophonespam.screening;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Steps which have been taken to screen a number, with the time spent in each step, so that
+ * it can be seen why a number has been blocked or allowed and where the time has gone.
+ *
+ * Tracing is opt-in: code which screens calls accepts a trace which may be null, and only
+ * records steps (and allocates memory for them) when it's not.
+ */
+public class DecisionTrace {
+
+    /** at most this number of examined candidate entries is recorded (all of them are counted) */
+    public static final int MAX_CANDIDATES = 32;
+
+    private final String number;
+    private final List<Step> steps = new ArrayList<>();
+    private int candidates;
+
+
+    /**
+     * @param number number which is screened (as received)
+     */
+    public DecisionTrace(String number) {
+        this.number = number;
+    }
+
+    public String number() {
+        return number;
+    }
+
+    /**
+     * Records a completed step.
+     * @param name      name of the step (like "normalize" or "rule exact")
+     * @param detail    result of the step, may be null
+     * @param nanos     time spent in the step
+     */
+    public void step(String name, String detail, long nanos) {
+        steps.add(new Step(name, detail, nanos));
+    }
+
+    /**
+     * Records a step which is completed later by {@link #end(int, String, long)}, so that
+     * steps which are recorded in the meantime (like candidates) appear after it.
+     * @return index of the step
+     */
+    public int begin(String name) {
+        steps.add(new Step(name, null, -1));
+        return steps.size() - 1;
+    }
+
+    public void end(int index, String detail, long nanos) {
+        Step step = steps.get(index);
+        step.detail = detail;
+        step.nanos = nanos;
+    }
+
+    /**
+     * Records an entry which has been examined.
+     * @param entry     entry (number or pattern)
+     * @param matches   whether the entry matches the screened number
+     */
+    public void candidate(String entry, boolean matches) {
+        if (candidates++ < MAX_CANDIDATES)
+            steps.add(new Step("candidate", matches ? entry + " (matches)" : entry, -1));
+    }
+
+    public List<Step> steps() {
+        return Collections.unmodifiableList(steps);
+    }
+
+    /**
+     * @return number of examined candidate entries
+     */
+    public int candidates() {
+        return candidates;
+    }
+
+    /**
+     * @return total time of all timed steps
+     */
+    public long nanos() {
+        long nanos = 0;
+        for (Step step : steps)
+            if (step.nanos > 0)
+                nanos += step.nanos;
+        return nanos;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ROOT, "Trace of %s: %.1f µs, %d candidate(s)", number, nanos() / 1000.0, candidates));
+        if (candidates > MAX_CANDIDATES)
+            sb.append(" (").append(MAX_CANDIDATES).append(" shown)");
+        for (Step step : steps) {
+            sb.append('\n');
+            if (step.nanos >= 0)
+                sb.append(String.format(Locale.ROOT, "%10.1f µs  ", step.nanos / 1000.0));
+            else
+                sb.append("              ");
+            sb.append(step.name);
+            if (step.detail != null)
+                sb.append(": ").append(step.detail);
+        }
+        return sb.toString();
+    }
+
+
+    public static class Step {
+
+        public final String name;
+        public String detail;
+        /** time spent in the step, or -1 if it hasn't been timed */
+        public long nanos;
+
+        Step(String name, String detail, long nanos) {
+            this.name = name;
+            this.detail = detail;
+            this.nanos = nanos;
+        }
+
+    }
+
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright © Ricki Hirner (bitfire web engineering).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ */
+
+package at.bitfire.nophonespam.screening;
+
+/**
+ * Resolves the dial code of an international number (like "+4366…") to the country
+ * in one pass over the first digits, without allocating memory.
+ *
+ * There's one table per dial code length, indexed by the numeric value of the dial code,
+ * so the longest matching dial code (e.g. "1684" before "1") is found by at most
+ * {@link #MAX_LENGTH} array accesses.
+ */
+public class DialCodeIndex {
+
+    public static final int MAX_LENGTH = 4;
+
+    /** tables[length-1][dial code]: index of the country + 1, or 0 if there's no such dial code */
+    private final short[][] tables = new short[MAX_LENGTH][];
+
+
+    /**
+     * @param dialCodes dial codes (digits without "+") by country index; empty dial codes are ignored.
+     *                  If countries share a dial code, the first one is used.
+     * @throws IllegalArgumentException if a dial code is longer than {@link #MAX_LENGTH} or contains other characters than digits
+     */
+    public DialCodeIndex(String[] dialCodes) {
+        for (int len = 1, size = 10; len <= MAX_LENGTH; len++, size *= 10)
+            tables[len - 1] = new short[size];
+
+        for (int i = 0; i < dialCodes.length; i++) {
+            String code = dialCodes[i];
+            if (code.isEmpty())
+                continue;
+            if (code.length() > MAX_LENGTH)
+                throw new IllegalArgumentException("Dial code too long: " + code);
+
+            int value = 0;
+            for (int j = 0; j < code.length(); j++) {
+                char c = code.charAt(j);
+                if (c < '0' || c > '9')
+                    throw new IllegalArgumentException("Invalid dial code: " + code);
+                value = value*10 + (c - '0');
+            }
+
+            short[] table = tables[code.length() - 1];
+            if (table[value] == 0)
+                table[value] = (short)(i + 1);
+        }
+    }
+
+    /**
+     * @param number international number (starting with "+")
+     * @return index of the country with the longest matching dial code, or -1 if no dial code matches
+     */
+    public int find(String number) {
+        if (number == null || number.isEmpty() || number.charAt(0) != '+')
+            return -1;
+
+        int found = -1, value = 0;
+        for (int len = 1; len <= MAX_LENGTH && len < number.length(); len++) {
+            char c = number.charAt(len);
+            if (c < '0' || c > '9')
+                break;
+            value = value*10 + (c - '0');
+            int idx = tables[len - 1][value];
+            if (idx != 0)
+                found = idx - 1;
+        }
+        return found;
+    }
+
+}
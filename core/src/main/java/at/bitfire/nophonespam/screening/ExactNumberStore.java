@@ -0,0 +1,222 @@
+/*
+ * Copyright © Ricki Hirner (bitfire web engineering).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ */
+
+package at.bitfire.nophonespam.screening;
+
+/**
+ * Set of exact numbers (encoded by {@link PhoneNumbers#encode(String)}) with call statistics
+ * and a tag (for instance, the ID of the list the number comes from).
+ *
+ * Implemented as open-addressing hash table (linear probing) with parallel primitive
+ * arrays, so that an entry only takes ~32 bytes (plus free slots) instead of a
+ * Number object with its strings, and lookups don't allocate memory.
+ *
+ * Entries with an expiry time are additionally put into an {@link ExpiryQueue} and
+ * removed by {@link #removeExpired(long)}. The queue isn't updated when an entry is replaced,
+ * so an entry is only removed when it still has the expiry time of the queue entry.
+ *
+ * Not thread-safe.
+ */
+public class ExactNumberStore {
+
+    private static final float LOAD_FACTOR = 0.75f;
+
+    /** marks free slots ({@link PhoneNumbers#NOT_ENCODABLE} is never a valid key) */
+    private static final long FREE = PhoneNumbers.NOT_ENCODABLE;
+
+    private long[] keys;
+    private long[] lastCalls;
+    private long[] expires;
+    private int[] timesCalled;
+    private int[] tags;
+
+    private int size, mask, resizeAt;
+
+    private final ExpiryQueue expiries = new ExpiryQueue();
+
+
+    public ExactNumberStore(int expectedSize) {
+        int capacity = 16;
+        while (capacity * LOAD_FACTOR < expectedSize)
+            capacity <<= 1;
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        lastCalls = new long[capacity];
+        expires = new long[capacity];
+        timesCalled = new int[capacity];
+        tags = new int[capacity];
+        mask = capacity - 1;
+        resizeAt = (int)(capacity * LOAD_FACTOR);
+    }
+
+    private int slot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int)(h ^ (h >>> 32)) & mask;
+    }
+
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return index of the entry for the given key (to be used with the accessors), or -1 if there's no entry
+     */
+    public int indexOf(long key) {
+        if (key == FREE)
+            return -1;
+        for (int idx = slot(key); ; idx = (idx + 1) & mask) {
+            long k = keys[idx];
+            if (k == key)
+                return idx;
+            if (k == FREE)
+                return -1;
+        }
+    }
+
+    public boolean contains(long key) {
+        return indexOf(key) != -1;
+    }
+
+    public long key(int index) {
+        return keys[index];
+    }
+
+    public int tag(int index) {
+        return tags[index];
+    }
+
+    /** @return time of the last call, or 0 if there was no call */
+    public long lastCall(int index) {
+        return lastCalls[index];
+    }
+
+    public int timesCalled(int index) {
+        return timesCalled[index];
+    }
+
+    /** @return time when the entry expires, or 0 if it never expires */
+    public long expires(int index) {
+        return expires[index];
+    }
+
+    public void recordCall(int index, long time) {
+        lastCalls[index] = time;
+        timesCalled[index]++;
+    }
+
+    /**
+     * Adds an entry or replaces an existing entry with the same key.
+     * @param key           encoded number
+     * @param tag           tag of the entry
+     * @param lastCall      time of last call (0 if there was no call)
+     * @param timesCalled   number of calls
+     * @param expires       time when the entry expires (0 if it never expires)
+     */
+    public void put(long key, int tag, long lastCall, int timesCalled, long expires) {
+        if (key == FREE)
+            throw new IllegalArgumentException("Number is not encodable");
+        if (size >= resizeAt)
+            resize(keys.length * 2);
+
+        int idx = slot(key);
+        while (keys[idx] != FREE && keys[idx] != key)
+            idx = (idx + 1) & mask;
+        if (keys[idx] == FREE)
+            size++;
+        keys[idx] = key;
+        tags[idx] = tag;
+        lastCalls[idx] = lastCall;
+        this.timesCalled[idx] = timesCalled;
+        this.expires[idx] = expires;
+
+        if (expires != 0)
+            expiries.add(expires, key);
+    }
+
+    public boolean remove(long key) {
+        int idx = indexOf(key);
+        if (idx == -1)
+            return false;
+        removeAt(idx);
+        return true;
+    }
+
+    private void removeAt(int idx) {
+        // backward shift deletion: move following entries of the same probe sequence into the gap
+        int gap = idx;
+        for (int next = (gap + 1) & mask; keys[next] != FREE; next = (next + 1) & mask) {
+            int home = slot(keys[next]);
+            boolean movable = gap <= next ?
+                    (home <= gap || home > next) :
+                    (home <= gap && home > next);
+            if (movable) {
+                keys[gap] = keys[next];
+                tags[gap] = tags[next];
+                lastCalls[gap] = lastCalls[next];
+                timesCalled[gap] = timesCalled[next];
+                expires[gap] = expires[next];
+                gap = next;
+            }
+        }
+        keys[gap] = FREE;
+        tags[gap] = 0;
+        lastCalls[gap] = 0;
+        timesCalled[gap] = 0;
+        expires[gap] = 0;
+        size--;
+    }
+
+    /**
+     * Removes all entries which have expired at the given time. Cheap when nothing
+     * has expired, so it can be called before every lookup.
+     * @return number of removed entries
+     */
+    public int removeExpired(long now) {
+        int removed = 0;
+        while (expiries.hasExpired(now)) {
+            long time = expiries.nextTime();
+            int idx = indexOf(expiries.poll());
+            // the entry may have been replaced in the meantime (with another or without expiry time)
+            if (idx != -1 && expires[idx] == time) {
+                removeAt(idx);
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * @return approximate memory used by this store (in bytes)
+     */
+    public long memoryUsage() {
+        return (long)keys.length * (8 + 8 + 8 + 4 + 4) + expiries.size() * 16L;
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys, oldLastCalls = lastCalls, oldExpires = expires;
+        int[] oldTimesCalled = timesCalled, oldTags = tags;
+        allocate(capacity);
+
+        for (int i = 0; i < oldKeys.length; i++)
+            if (oldKeys[i] != FREE) {
+                int idx = slot(oldKeys[i]);
+                while (keys[idx] != FREE)
+                    idx = (idx + 1) & mask;
+                keys[idx] = oldKeys[i];
+                tags[idx] = oldTags[i];
+                lastCalls[idx] = oldLastCalls[i];
+                timesCalled[idx] = oldTimesCalled[i];
+                expires[idx] = oldExpires[i];
+            }
+    }
+
+}
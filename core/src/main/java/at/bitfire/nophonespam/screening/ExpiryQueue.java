@@ -0,0 +1,92 @@
+/*
+ * Copyright © Ricki Hirner (bitfire web engineering).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ */
+
+package at.bitfire.nophonespam.screening;
+
+import java.util.Arrays;
+
+/**
+ * Priority queue (binary min-heap) of (expiry time, key) pairs in primitive arrays.
+ * In-memory match structures use it to drop expired entries: checking whether
+ * anything has expired is a single comparison, so expired entries are removed
+ * without scanning all entries and without filtering every lookup.
+ */
+public class ExpiryQueue {
+
+    private long[] times = new long[8], keys = new long[8];
+    private int size;
+
+    public int size() {
+        return size;
+    }
+
+    public void add(long time, long key) {
+        if (size == times.length) {
+            times = Arrays.copyOf(times, size*2);
+            keys = Arrays.copyOf(keys, size*2);
+        }
+
+        // sift up
+        int idx = size++;
+        while (idx > 0) {
+            int parent = (idx - 1) >>> 1;
+            if (times[parent] <= time)
+                break;
+            times[idx] = times[parent];
+            keys[idx] = keys[parent];
+            idx = parent;
+        }
+        times[idx] = time;
+        keys[idx] = key;
+    }
+
+    /**
+     * @return whether there's at least one entry which has expired at the given time
+     */
+    public boolean hasExpired(long now) {
+        return size > 0 && times[0] <= now;
+    }
+
+    /**
+     * @return expiry time of the entry which is returned by the next {@link #poll()}
+     */
+    public long nextTime() {
+        if (size == 0)
+            throw new IllegalStateException("Queue is empty");
+        return times[0];
+    }
+
+    /**
+     * Removes the entry with the earliest expiry time.
+     * @return key of the removed entry
+     */
+    public long poll() {
+        if (size == 0)
+            throw new IllegalStateException("Queue is empty");
+        long key = keys[0];
+
+        long time = times[--size], last = keys[size];
+        // sift down
+        int idx = 0, half = size >>> 1;
+        while (idx < half) {
+            int child = 2*idx + 1;
+            if (child + 1 < size && times[child + 1] < times[child])
+                child++;
+            if (time <= times[child])
+                break;
+            times[idx] = times[child];
+            keys[idx] = keys[child];
+            idx = child;
+        }
+        times[idx] = time;
+        keys[idx] = last;
+
+        return key;
+    }
+
+}
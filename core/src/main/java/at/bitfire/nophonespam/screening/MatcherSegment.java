@@ -0,0 +1,162 @@
+/*
+ * Copyright © Ricki Hirner (bitfire web engineering).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ */
+
+package at.bitfire.nophonespam.screening;
+
+import java.util.Arrays;
+
+/**
+ * Entries of one blocklist source, pre-compiled into primitive arrays (exact numbers
+ * encoded as long, everything else as pattern). Segments are immutable and kept per
+ * source, so that when one source is updated, only its segment has to be rebuilt
+ * before all segments are merged into a {@link CompiledMatcher} again.
+ */
+public class MatcherSegment {
+
+    /** source ID; used as tag of the entries in the {@link CompiledMatcher} */
+    public final int source;
+
+    final long[] exactKeys, exactLastCalls, exactExpires;
+    final int[] exactTimesCalled;
+
+    final String[] patterns;
+    final long[] patternExpires;
+
+    private MatcherSegment(Builder builder) {
+        source = builder.source;
+
+        int n = builder.exactCount;
+        exactKeys = Arrays.copyOf(builder.exactKeys, n);
+        exactLastCalls = Arrays.copyOf(builder.exactLastCalls, n);
+        exactExpires = Arrays.copyOf(builder.exactExpires, n);
+        exactTimesCalled = Arrays.copyOf(builder.exactTimesCalled, n);
+
+        n = builder.patternCount;
+        patterns = Arrays.copyOf(builder.patterns, n);
+        patternExpires = Arrays.copyOf(builder.patternExpires, n);
+    }
+
+    private MatcherSegment(int source, int exactCount, int patternCount) {
+        this.source = source;
+        exactKeys = new long[exactCount];
+        exactLastCalls = new long[exactCount];
+        exactExpires = new long[exactCount];
+        exactTimesCalled = new int[exactCount];
+        patterns = new String[patternCount];
+        patternExpires = new long[patternCount];
+    }
+
+    /**
+     * Concatenates segments which have been built from consecutive parts of a source.
+     * The result is the same as if all entries had been added to one {@link Builder}.
+     */
+    static MatcherSegment concat(int source, MatcherSegment[] parts) {
+        int exactCount = 0, patternCount = 0;
+        for (MatcherSegment part : parts) {
+            exactCount += part.exactCount();
+            patternCount += part.patternCount();
+        }
+
+        MatcherSegment segment = new MatcherSegment(source, exactCount, patternCount);
+        int exactPos = 0, patternPos = 0;
+        for (MatcherSegment part : parts) {
+            int n = part.exactCount();
+            System.arraycopy(part.exactKeys, 0, segment.exactKeys, exactPos, n);
+            System.arraycopy(part.exactLastCalls, 0, segment.exactLastCalls, exactPos, n);
+            System.arraycopy(part.exactExpires, 0, segment.exactExpires, exactPos, n);
+            System.arraycopy(part.exactTimesCalled, 0, segment.exactTimesCalled, exactPos, n);
+            exactPos += n;
+
+            n = part.patternCount();
+            System.arraycopy(part.patterns, 0, segment.patterns, patternPos, n);
+            System.arraycopy(part.patternExpires, 0, segment.patternExpires, patternPos, n);
+            patternPos += n;
+        }
+        return segment;
+    }
+
+    public int exactCount() {
+        return exactKeys.length;
+    }
+
+    public int patternCount() {
+        return patterns.length;
+    }
+
+    /**
+     * @return estimated memory usage (in bytes; pattern strings are not counted because they're shared with the {@link CompiledMatcher})
+     */
+    public long memoryUsage() {
+        return (long)exactKeys.length * (8 + 8 + 8 + 4) + (long)patterns.length * (4 + 8);
+    }
+
+
+    public static class Builder {
+
+        final int source;
+
+        long[] exactKeys, exactLastCalls, exactExpires;
+        int[] exactTimesCalled;
+        int exactCount;
+
+        String[] patterns = new String[16];
+        long[] patternExpires = new long[16];
+        int patternCount;
+
+        public Builder(int source, int expectedSize) {
+            this.source = source;
+            int capacity = Math.max(expectedSize, 16);
+            exactKeys = new long[capacity];
+            exactLastCalls = new long[capacity];
+            exactExpires = new long[capacity];
+            exactTimesCalled = new int[capacity];
+        }
+
+        /**
+         * Adds an entry.
+         * @param number        number or pattern (SQL LIKE syntax)
+         * @param lastCall      time of last call (0 if there was no call)
+         * @param timesCalled   number of calls
+         * @param expires       time when the entry expires (0 if it never expires)
+         */
+        public Builder add(String number, long lastCall, int timesCalled, long expires) {
+            long key = PhoneNumbers.encode(number);
+            if (key != PhoneNumbers.NOT_ENCODABLE) {
+                if (exactCount == exactKeys.length) {
+                    int capacity = exactCount * 2;
+                    exactKeys = Arrays.copyOf(exactKeys, capacity);
+                    exactLastCalls = Arrays.copyOf(exactLastCalls, capacity);
+                    exactExpires = Arrays.copyOf(exactExpires, capacity);
+                    exactTimesCalled = Arrays.copyOf(exactTimesCalled, capacity);
+                }
+                exactKeys[exactCount] = key;
+                exactLastCalls[exactCount] = lastCall;
+                exactExpires[exactCount] = expires;
+                exactTimesCalled[exactCount] = timesCalled;
+                exactCount++;
+
+            } else {
+                if (patternCount == patterns.length) {
+                    int capacity = patternCount * 2;
+                    patterns = Arrays.copyOf(patterns, capacity);
+                    patternExpires = Arrays.copyOf(patternExpires, capacity);
+                }
+                patterns[patternCount] = number;
+                patternExpires[patternCount] = expires;
+                patternCount++;
+            }
+            return this;
+        }
+
+        public MatcherSegment build() {
+            return new MatcherSegment(this);
+        }
+
+    }
+
+}
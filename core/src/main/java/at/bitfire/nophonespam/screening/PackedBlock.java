@@ -0,0 +1,236 @@
+/*
+ * Copyright © Ricki Hirner (bitfire web engineering).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ */
+
+package at.bitfire.nophonespam.screening;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Compact storage format for large sorted lists of numbers (with optional names).
+ *
+ * Entries are stored in blocks of up to {@link #BLOCK_ENTRIES} sorted entries. Every entry is
+ * front-coded: it only stores the number of characters it shares with the previous entry, and
+ * the remaining characters as 4-bit codes (two per byte). Codes are assigned in character order
+ * ({@link #SYMBOLS}: the wildcards of the database format, + and digits), so that the order of
+ * the packed entries is the same as the order of the strings.
+ *
+ * Format of an entry: shared length (1 byte), suffix length (1 byte), suffix codes (high nibble first),
+ * length of the UTF-8 encoded name (varint, 0 if there's no name), name.
+ *
+ * A block can be searched by {@link Reader#seek(String)}, which decodes the entries one after
+ * another (but doesn't create strings) until the number has been found or passed.
+ */
+public class PackedBlock {
+
+    /** number of entries per block */
+    public static final int BLOCK_ENTRIES = 64;
+
+    /** maximum length of a number */
+    public static final int MAX_LENGTH = 255;
+
+    /** characters which can be stored, in character order; the index is the code */
+    static final String SYMBOLS = "%+0123456789_";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+
+    /**
+     * @return whether the number can be stored in a block
+     */
+    public static boolean isPackable(String number) {
+        int length = number.length();
+        if (length == 0 || length > MAX_LENGTH)
+            return false;
+        for (int i = 0; i < length; i++)
+            if (SYMBOLS.indexOf(number.charAt(i)) == -1)
+                return false;
+        return true;
+    }
+
+
+    public static class Writer {
+
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream(BLOCK_ENTRIES * 8);
+        private String first, previous;
+        private int count;
+
+        /** last number which has been added (to any block), for checking the order */
+        private String last;
+
+        /**
+         * Appends an entry to the current block.
+         * @param number    number (must be packable and not smaller than the previous number)
+         * @param name      name, may be null
+         * @return false if the number is equal to the previous one (it's not added again then), true otherwise
+         * @throws IllegalArgumentException if the number can't be packed or is not in order
+         */
+        public boolean add(String number, String name) {
+            if (!isPackable(number))
+                throw new IllegalArgumentException("Number can't be packed: " + number);
+            if (last != null) {
+                int cmp = number.compareTo(last);
+                if (cmp == 0)
+                    return false;
+                else if (cmp < 0)
+                    throw new IllegalArgumentException("Numbers must be sorted: " + number + " after " + last);
+            }
+
+            int prefix = 0;
+            if (previous != null) {
+                int max = Math.min(number.length(), previous.length());
+                while (prefix < max && number.charAt(prefix) == previous.charAt(prefix))
+                    prefix++;
+            } else
+                first = number;
+
+            int suffix = number.length() - prefix;
+            out.write(prefix);
+            out.write(suffix);
+            for (int i = 0; i < suffix; i += 2) {
+                int hi = SYMBOLS.indexOf(number.charAt(prefix + i)),
+                    lo = i + 1 < suffix ? SYMBOLS.indexOf(number.charAt(prefix + i + 1)) : 0;
+                out.write(hi << 4 | lo);
+            }
+
+            byte[] nameBytes = name != null ? name.getBytes(UTF8) : new byte[0];
+            int length = nameBytes.length;
+            while (length >= 0x80) {
+                out.write(length & 0x7f | 0x80);
+                length >>>= 7;
+            }
+            out.write(length);
+            out.write(nameBytes, 0, nameBytes.length);
+
+            previous = last = number;
+            count++;
+            return true;
+        }
+
+        public boolean isFull() {
+            return count >= BLOCK_ENTRIES;
+        }
+
+        /**
+         * @return number of entries in the current block
+         */
+        public int count() {
+            return count;
+        }
+
+        /**
+         * @return first (smallest) number of the current block
+         */
+        public String first() {
+            return first;
+        }
+
+        /**
+         * Finishes the current block. Following entries are written to a new block
+         * (and must still be greater than the entries of this block).
+         * @return packed block
+         */
+        public byte[] finish() {
+            byte[] data = out.toByteArray();
+            out.reset();
+            first = previous = null;
+            count = 0;
+            return data;
+        }
+
+    }
+
+
+    public static class Reader {
+
+        private final byte[] data;
+        private int pos;
+
+        private final byte[] codes = new byte[MAX_LENGTH];
+        private int length = -1;
+        private int nameStart, nameLength;
+
+        public Reader(byte[] data) {
+            this.data = data;
+        }
+
+        /**
+         * Moves to the next entry.
+         * @return false if there are no more entries
+         */
+        public boolean next() {
+            if (pos >= data.length)
+                return false;
+
+            int prefix = data[pos++] & 0xff,
+                suffix = data[pos++] & 0xff;
+            for (int i = 0; i < suffix; i++) {
+                int b = data[pos + (i >> 1)];
+                codes[prefix + i] = (byte)((i & 1) == 0 ? (b >>> 4) & 0x0f : b & 0x0f);
+            }
+            pos += (suffix + 1) >> 1;
+            length = prefix + suffix;
+
+            int nameLength = 0, shift = 0, b;
+            do {
+                b = data[pos++] & 0xff;
+                nameLength |= (b & 0x7f) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            nameStart = pos;
+            this.nameLength = nameLength;
+            pos += nameLength;
+            return true;
+        }
+
+        /**
+         * Moves forward to the given number.
+         * @return true if the number has been found (it's the current entry then), false if it's not in the block
+         */
+        public boolean seek(String number) {
+            while (next()) {
+                int cmp = compareTo(number);
+                if (cmp == 0)
+                    return true;
+                else if (cmp > 0)
+                    return false;
+            }
+            return false;
+        }
+
+        /**
+         * Compares the number of the current entry with the given number (without decoding it).
+         * @return a negative value, zero or a positive value if the current number is smaller, equal or greater
+         */
+        public int compareTo(String number) {
+            int max = Math.min(length, number.length());
+            for (int i = 0; i < max; i++) {
+                char c = SYMBOLS.charAt(codes[i]);
+                if (c != number.charAt(i))
+                    return c - number.charAt(i);
+            }
+            return length - number.length();
+        }
+
+        public String number() {
+            char[] number = new char[length];
+            for (int i = 0; i < length; i++)
+                number[i] = SYMBOLS.charAt(codes[i]);
+            return new String(number);
+        }
+
+        /**
+         * @return name of the current entry, or null if it has no name
+         */
+        public String name() {
+            return nameLength > 0 ? new String(data, nameStart, nameLength, UTF8) : null;
+        }
+
+    }
+
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright © Ricki Hirner (bitfire web engineering).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ */
+
+package at.bitfire.nophonespam.screening;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs the independent tasks of a build (like the shards of a {@link CompiledMatcher}) on
+ * several threads. Idle threads claim the next task until all tasks are done, so fast
+ * threads take over the work of slow ones. The calling thread works, too, so a build
+ * completes even if the executor is busy.
+ *
+ * Tasks write their results to their own slots, and the caller combines them in task order
+ * afterwards, so the result of a build doesn't depend on the degree of parallelism.
+ */
+public class ParallelBuild {
+
+    /** runs all tasks on the calling thread */
+    public static final ParallelBuild SERIAL = new ParallelBuild(null, 1);
+
+    private static ThreadPoolExecutor sharedExecutor;
+
+    private final Executor executor;
+    private final int parallelism;
+
+
+    /**
+     * @return executor with one thread per core (threads are stopped when idle)
+     */
+    public static synchronized Executor sharedExecutor() {
+        if (sharedExecutor == null) {
+            int cores = Runtime.getRuntime().availableProcessors();
+            sharedExecutor = new ThreadPoolExecutor(cores, cores, 10, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        final AtomicInteger count = new AtomicInteger();
+
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable, "ParallelBuild-" + count.incrementAndGet());
+                            thread.setDaemon(true);
+                            thread.setPriority(Thread.NORM_PRIORITY - 1);
+                            return thread;
+                        }
+                    });
+            sharedExecutor.allowCoreThreadTimeOut(true);
+        }
+        return sharedExecutor;
+    }
+
+    /**
+     * @return build which uses all cores
+     */
+    public static ParallelBuild allCores() {
+        return new ParallelBuild(sharedExecutor(), Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param executor      executor for the helper threads (may be null if parallelism is 1)
+     * @param parallelism   number of threads which should work on one build (including the calling thread)
+     */
+    public ParallelBuild(Executor executor, int parallelism) {
+        this.executor = executor;
+        this.parallelism = executor != null ? Math.max(1, parallelism) : 1;
+    }
+
+    public int parallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Runs tasks and waits until all of them are done. Interrupting the calling thread
+     * doesn't stop the build (the helper threads would have to be interrupted, too).
+     * @param tasks number of tasks
+     * @param task  task, called with the indices 0 to tasks-1 (from several threads)
+     * @throws RuntimeException the first exception which has been thrown by a task (remaining tasks are skipped then)
+     */
+    public void run(final int tasks, final Task task) {
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        final CountDownLatch finished = new CountDownLatch(tasks);
+
+        Runnable worker = new Runnable() {
+            @Override
+            public void run() {
+                int idx;
+                while ((idx = next.getAndIncrement()) < tasks)
+                    try {
+                        if (failure.get() == null)
+                            task.run(idx);
+                    } catch(RuntimeException e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        finished.countDown();
+                    }
+            }
+        };
+
+        for (int i = 1; i < Math.min(parallelism, tasks); i++)
+            executor.execute(worker);
+        worker.run();
+
+        // wait for tasks which are still running on other threads (interruption is deferred)
+        boolean interrupted = false;
+        while (true)
+            try {
+                finished.await();
+                break;
+            } catch(InterruptedException e) {
+                interrupted = true;
+            }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+
+        if (failure.get() != null)
+            throw failure.get();
+    }
+
+
+    public interface Task {
+
+        /**
+         * @param index index of the task
+         */
+        void run(int index);
+
+    }
+
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright © Ricki Hirner (bitfire web engineering).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ */
+
+package at.bitfire.nophonespam.screening;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds blacklist entries which are redundant because another entry matches
+ * (at least) all numbers they match, for instance <code>+35212345</code> next to
+ * <code>+352%</code>, or <code>+436641%</code> next to <code>+43664%</code>.
+ *
+ * Subsumption is checked symbolically, so it's sound (an entry is only reported as
+ * redundant if it really is), but not complete for exotic combinations of wildcards.
+ */
+public class PatternOptimizer {
+
+    private PatternOptimizer() {
+    }
+
+    /**
+     * @param general   pattern (SQL LIKE syntax)
+     * @param specific  pattern (SQL LIKE syntax)
+     * @return true if every number which matches <code>specific</code> also matches <code>general</code>
+     */
+    public static boolean subsumes(String general, String specific) {
+        int g = general.length(), s = specific.length();
+        // covered[i][j]: general[i..] covers specific[j..]
+        boolean[][] covered = new boolean[g + 1][s + 1];
+        covered[g][s] = true;
+        for (int i = g - 1; i >= 0; i--) {
+            char gc = general.charAt(i);
+            for (int j = s; j >= 0; j--) {
+                if (gc == Wildcards.ANY)
+                    // '%' covers nothing, or absorbs the next symbol (whatever it is)
+                    covered[i][j] = covered[i + 1][j] || (j < s && covered[i][j + 1]);
+                else if (j < s) {
+                    char sc = specific.charAt(j);
+                    if (sc == Wildcards.ANY)
+                        // only '%' can cover '%' (which may be empty or arbitrarily long)
+                        covered[i][j] = false;
+                    else if (gc == Wildcards.ONE)
+                        covered[i][j] = covered[i + 1][j + 1];
+                    else
+                        covered[i][j] = gc == sc && covered[i + 1][j + 1];
+                }
+            }
+        }
+        return covered[0][0];
+    }
+
+    /**
+     * Determines redundant entries.
+     * @param entries   all blacklist entries (not modified)
+     * @return optimization result with the redundant entries and the entries they should be merged into
+     */
+    public static Result optimize(List<Entry> entries) {
+        int n = entries.size();
+        boolean[] isPattern = new boolean[n];
+        List<Integer> patterns = new ArrayList<>();
+        for (int i = 0; i < n; i++)
+            if (isPattern[i] = Wildcards.hasWildcards(entries.get(i).pattern))
+                patterns.add(i);
+
+        // index of an entry which covers the entry, -1 if none
+        int[] target = new int[n];
+        for (int i = 0; i < n; i++) {
+            target[i] = -1;
+            String pattern = entries.get(i).pattern;
+            for (int candidate : patterns) {
+                if (candidate == i)
+                    continue;
+                String candidatePattern = entries.get(candidate).pattern;
+                boolean covered = isPattern[i] ?
+                        subsumes(candidatePattern, pattern) :
+                        Wildcards.matches(candidatePattern, pattern);
+                // equivalent patterns (like "1%%" and "1%") cover each other; keep the first one
+                if (covered && isPattern[i] && candidate > i && subsumes(pattern, candidatePattern))
+                    covered = false;
+                // an entry must not be merged into an entry which expires earlier
+                long expires = entries.get(i).expires, candidateExpires = entries.get(candidate).expires;
+                if (candidateExpires != 0 && (expires == 0 || expires > candidateExpires))
+                    covered = false;
+                if (covered) {
+                    target[i] = candidate;
+                    break;
+                }
+            }
+        }
+
+        Result result = new Result(n, patterns.size());
+        for (int i = 0; i < n; i++)
+            if (target[i] != -1) {
+                // follow chains like "+43664123" → "+436641%" → "+43664%"
+                int into = target[i];
+                while (target[into] != -1)
+                    into = target[into];
+                result.merges.add(new Merge(entries.get(i), entries.get(into)));
+                if (isPattern[i])
+                    result.removedPatterns++;
+                else
+                    result.removedExact++;
+            }
+        return result;
+    }
+
+
+    public static class Entry {
+
+        public final String pattern;
+        public final String name;
+        public final long lastCall;
+        public final int timesCalled;
+        /** expiry time, 0 if the entry never expires */
+        public final long expires;
+
+        public Entry(String pattern, String name, long lastCall, int timesCalled, long expires) {
+            this.pattern = pattern;
+            this.name = name;
+            this.lastCall = lastCall;
+            this.timesCalled = timesCalled;
+            this.expires = expires;
+        }
+
+    }
+
+    /**
+     * Redundant entry which should be removed; its statistics should be added to the target entry.
+     */
+    public static class Merge {
+
+        public final Entry redundant, into;
+
+        Merge(Entry redundant, Entry into) {
+            this.redundant = redundant;
+            this.into = into;
+        }
+
+    }
+
+    public static class Result {
+
+        public final List<Merge> merges = new ArrayList<>();
+
+        public final int entriesBefore, patternsBefore;
+        public int removedPatterns, removedExact;
+
+        Result(int entriesBefore, int patternsBefore) {
+            this.entriesBefore = entriesBefore;
+            this.patternsBefore = patternsBefore;
+        }
+
+    }
+
+}
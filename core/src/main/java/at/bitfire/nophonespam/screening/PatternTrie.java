@@ -0,0 +1,186 @@
+/*
+ * Copyright © Ricki Hirner (bitfire web engineering).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ */
+
+package at.bitfire.nophonespam.screening;
+
+import java.util.Arrays;
+
+/**
+ * Wildcard patterns (SQL LIKE syntax), indexed by their literal prefix (the part
+ * before the first wildcard) in a trie.
+ *
+ * To find the patterns matching a number, the trie is walked along the digits of
+ * the number, and only patterns whose literal prefix is a prefix of the number are
+ * checked with {@link Wildcards#matches(String, String)}. So lookup cost depends on
+ * the length of the number and the number of patterns sharing its prefixes, not on
+ * the total number of patterns. Lookups don't allocate memory.
+ */
+public class PatternTrie {
+
+    /** '0'–'9' and '+' */
+    private static final int SYMBOLS = 11;
+    private static final int NONE = -1;
+
+    /** child node indices, SYMBOLS per node */
+    private int[] children;
+    /** first pattern per node (linked by {@link #nextPattern}) */
+    private int[] firstPattern;
+    private int nodes;
+
+    private String[] patterns;
+    private int[] tags;
+    private long[] expires;
+    private int[] nextPattern;
+    private int size;
+
+    /** keys are pattern indices */
+    private final ExpiryQueue expiries = new ExpiryQueue();
+
+
+    public PatternTrie() {
+        this(16);
+    }
+
+    public PatternTrie(int expectedPatterns) {
+        int capacity = Math.max(expectedPatterns, 4);
+        patterns = new String[capacity];
+        tags = new int[capacity];
+        expires = new long[capacity];
+        nextPattern = new int[capacity];
+
+        int nodeCapacity = capacity * 2;
+        children = new int[nodeCapacity * SYMBOLS];
+        firstPattern = new int[nodeCapacity];
+        newNode();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Adds a pattern.
+     * @param pattern   pattern (SQL LIKE syntax, literal characters must be '0'–'9' or '+')
+     * @param tag       tag of the pattern
+     * @param expires   time after which the pattern is removed, 0 if it never expires
+     * @return index of the pattern
+     */
+    public int add(String pattern, int tag, long expires) {
+        int node = 0;
+        for (int i = 0; i < pattern.length(); i++) {
+            int symbol = symbol(pattern.charAt(i));
+            if (symbol == NONE)
+                // wildcard (or character which can't occur in a number)
+                break;
+            int child = children[node * SYMBOLS + symbol];
+            if (child == NONE) {
+                child = newNode();
+                children[node * SYMBOLS + symbol] = child;
+            }
+            node = child;
+        }
+
+        if (size == patterns.length) {
+            int capacity = size * 2;
+            patterns = Arrays.copyOf(patterns, capacity);
+            tags = Arrays.copyOf(tags, capacity);
+            this.expires = Arrays.copyOf(this.expires, capacity);
+            nextPattern = Arrays.copyOf(nextPattern, capacity);
+        }
+        int idx = size++;
+        patterns[idx] = pattern;
+        tags[idx] = tag;
+        this.expires[idx] = expires;
+        nextPattern[idx] = firstPattern[node];
+        firstPattern[node] = idx;
+
+        if (expires != 0)
+            expiries.add(expires, idx);
+        return idx;
+    }
+
+    /**
+     * Finds a pattern which matches a number.
+     * @param number    normalized number
+     * @param now       current time (patterns which have expired at this time are removed)
+     * @return index of a matching pattern, or -1 if no pattern matches
+     */
+    public int find(String number, long now) {
+        return find(number, now, null);
+    }
+
+    /**
+     * Like {@link #find(String, long)}, but records the patterns which have been checked.
+     * @param trace trace to record the checked patterns to (may be null)
+     */
+    public int find(String number, long now, DecisionTrace trace) {
+        while (expiries.hasExpired(now))
+            patterns[(int)expiries.poll()] = null;
+
+        int node = 0;
+        for (int i = 0; ; i++) {
+            for (int idx = firstPattern[node]; idx != NONE; idx = nextPattern[idx])
+                if (patterns[idx] != null) {
+                    boolean matches = Wildcards.matches(patterns[idx], number);
+                    if (trace != null)
+                        trace.candidate(patterns[idx], matches);
+                    if (matches)
+                        return idx;
+                }
+
+            if (i == number.length())
+                return -1;
+            int symbol = symbol(number.charAt(i));
+            if (symbol == NONE || (node = children[node * SYMBOLS + symbol]) == NONE)
+                return -1;
+        }
+    }
+
+    public String pattern(int index) {
+        return patterns[index];
+    }
+
+    public int tag(int index) {
+        return tags[index];
+    }
+
+    /** @return time after which the pattern is removed, 0 if it never expires */
+    public long expires(int index) {
+        return expires[index];
+    }
+
+    /**
+     * @return approximate memory usage of the trie structure (without the pattern strings) in bytes
+     */
+    public long memoryUsage() {
+        return (long)children.length * 4 + firstPattern.length * 4 +
+                (long)patterns.length * (4 + 4 + 8 + 4) + expiries.size() * 16L;
+    }
+
+
+    private int newNode() {
+        if (nodes == firstPattern.length) {
+            int capacity = nodes * 2;
+            children = Arrays.copyOf(children, capacity * SYMBOLS);
+            firstPattern = Arrays.copyOf(firstPattern, capacity);
+        }
+        int node = nodes++;
+        Arrays.fill(children, node * SYMBOLS, (node + 1) * SYMBOLS, NONE);
+        firstPattern[node] = NONE;
+        return node;
+    }
+
+    private static int symbol(char c) {
+        if (c >= '0' && c <= '9')
+            return c - '0';
+        else if (c == '+')
+            return 10;
+        return NONE;
+    }
+
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright © Ricki Hirner (bitfire web engineering).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ */
+
+package at.bitfire.nophonespam.screening;
+
+public class PhoneNumbers {
+
+    /*
+     * Layout of encoded numbers (see encode()):
+     *   bit 63      leading "+"
+     *   bits 58–62  number of digits (1–17)
+     *   bits 0–57   value of the digits
+     * The digit count is required to distinguish numbers with leading zeros ("0123" ≠ "123").
+     */
+    private static final int MAX_ENCODED_DIGITS = 17;
+    private static final int LENGTH_SHIFT = 58;
+    private static final long
+            PLUS_FLAG = 1L << 63,
+            LENGTH_MASK = 0x1FL << LENGTH_SHIFT,
+            DIGITS_MASK = (1L << LENGTH_SHIFT) - 1;
+
+    /** returned by {@link #encode(String)} for numbers which can't be encoded */
+    public static final long NOT_ENCODABLE = 0;
+
+    private PhoneNumbers() {
+    }
+
+    /**
+     * Normalizes a phone number so that different spellings of the same number
+     * ("+43 664 123-456", "+43664123456") result in the same string: only digits
+     * and a leading "+" are kept.
+     * @param number    phone number (may be null)
+     * @return normalized number; empty string if number is null or doesn't contain any digits
+     */
+    public static String normalize(String number) {
+        if (number == null)
+            return "";
+
+        int length = number.length();
+        StringBuilder sb = null;
+        for (int i = 0; i < length; i++) {
+            char ch = number.charAt(i);
+            boolean keep = (ch >= '0' && ch <= '9') || (ch == '+' && i == 0);
+            if (!keep && sb == null) {
+                // first character to be removed, copy the part before
+                sb = new StringBuilder(length);
+                sb.append(number, 0, i);
+            } else if (keep && sb != null)
+                sb.append(ch);
+        }
+        String normalized = sb != null ? sb.toString() : number;
+        return "+".equals(normalized) ? "" : normalized;
+    }
+
+
+    /**
+     * Encodes an exact number (only digits and an optional leading "+", at most
+     * 17 digits) into a single long without allocating memory. Different numbers
+     * always result in different values.
+     * @param number    normalized number
+     * @return encoded number, or {@link #NOT_ENCODABLE} if the number can't be encoded (for instance, if it contains wildcards)
+     */
+    public static long encode(String number) {
+        int length = number.length();
+        int start = length > 0 && number.charAt(0) == '+' ? 1 : 0;
+        int digits = length - start;
+        if (digits == 0 || digits > MAX_ENCODED_DIGITS)
+            return NOT_ENCODABLE;
+
+        long value = 0;
+        for (int i = start; i < length; i++) {
+            char ch = number.charAt(i);
+            if (ch < '0' || ch > '9')
+                return NOT_ENCODABLE;
+            value = value*10 + (ch - '0');
+        }
+        return (start == 1 ? PLUS_FLAG : 0) | ((long)digits << LENGTH_SHIFT) | value;
+    }
+
+    /**
+     * @return whether two encoded numbers have the same form (both with or without leading "+",
+     *         same number of digits), so that they can be compared by their values
+     */
+    public static boolean sameForm(long a, long b) {
+        return ((a ^ b) & (PLUS_FLAG | LENGTH_MASK)) == 0;
+    }
+
+    /**
+     * Reverses {@link #encode(String)}.
+     */
+    public static String decode(long encoded) {
+        int digits = (int)((encoded & LENGTH_MASK) >>> LENGTH_SHIFT);
+        String value = String.valueOf(encoded & DIGITS_MASK);
+
+        StringBuilder sb = new StringBuilder(digits + 1);
+        if ((encoded & PLUS_FLAG) != 0)
+            sb.append('+');
+        for (int i = value.length(); i < digits; i++)
+            sb.append('0');
+        sb.append(value);
+        return sb.toString();
+    }
+
+}
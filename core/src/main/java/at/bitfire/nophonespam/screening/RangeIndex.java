@@ -0,0 +1,154 @@
+/*
+ * Copyright © Ricki Hirner (bitfire web engineering).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ */
+
+package at.bitfire.nophonespam.screening;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Immutable set of numeric ranges over encoded phone numbers (see {@link PhoneNumbers#encode(String)}).
+ * Ranges are stored as sorted, non-overlapping intervals in primitive arrays, so that a lookup is one
+ * binary search.
+ *
+ * Both ends of a range must have the same form (leading "+" or not, same number of digits).
+ * All encoded numbers of one form are a contiguous interval of longs, so a range only contains
+ * numbers of its own form: "+4319000000–+4319099999" doesn't contain "04319000050".
+ */
+public class RangeIndex {
+
+    public static final RangeIndex EMPTY = new Builder().build();
+
+    private final long[] starts, ends;
+    private final String[] names;
+
+    private RangeIndex(long[] starts, long[] ends, String[] names) {
+        this.starts = starts;
+        this.ends = ends;
+        this.names = names;
+    }
+
+    public int size() {
+        return starts.length;
+    }
+
+    /**
+     * @return estimated memory usage (in bytes; names are not counted)
+     */
+    public long memoryUsage() {
+        return (long)starts.length * (8 + 8 + 4);
+    }
+
+    public long start(int index) {
+        return starts[index];
+    }
+
+    public long end(int index) {
+        return ends[index];
+    }
+
+    public String name(int index) {
+        return names[index];
+    }
+
+    /**
+     * @param value    encoded number (as returned by {@link PhoneNumbers#encode(String)})
+     * @return index of the range which contains the number, or -1 if there's none
+     */
+    public int find(long value) {
+        if (value == PhoneNumbers.NOT_ENCODABLE)
+            return -1;
+
+        // find last range which starts at or before value
+        int idx = Arrays.binarySearch(starts, value);
+        if (idx < 0)
+            idx = -idx - 2;
+        return (idx >= 0 && value <= ends[idx]) ? idx : -1;
+    }
+
+
+    /**
+     * Collects ranges and merges overlapping (and adjacent) ones. When ranges are merged,
+     * the merged range keeps the name of the range which starts first.
+     */
+    public static class Builder {
+
+        private long[] starts = new long[16], ends = new long[16];
+        private String[] names = new String[16];
+        private int size;
+
+        /**
+         * @param start first number of the range (encoded)
+         * @param end   last number of the range (encoded, same form as start)
+         * @throws IllegalArgumentException if the range is not valid
+         */
+        public Builder add(long start, long end, String name) {
+            if (!isValid(start, end))
+                throw new IllegalArgumentException("Invalid range: " + start + "–" + end);
+
+            if (size == starts.length) {
+                int capacity = size*2;
+                starts = Arrays.copyOf(starts, capacity);
+                ends = Arrays.copyOf(ends, capacity);
+                names = Arrays.copyOf(names, capacity);
+            }
+            starts[size] = start;
+            ends[size] = end;
+            names[size] = name;
+            size++;
+            return this;
+        }
+
+        /**
+         * @return whether the encoded numbers are a valid range (same form, start not after end)
+         */
+        public static boolean isValid(long start, long end) {
+            return start != PhoneNumbers.NOT_ENCODABLE && PhoneNumbers.sameForm(start, end) && start <= end;
+        }
+
+        public RangeIndex build() {
+            // sort indices by start
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++)
+                order[i] = i;
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    long sa = starts[a], sb = starts[b];
+                    return sa < sb ? -1 : (sa == sb ? 0 : 1);
+                }
+            });
+
+            long[] mergedStarts = new long[size], mergedEnds = new long[size];
+            String[] mergedNames = new String[size];
+            int merged = 0;
+            for (int idx : order) {
+                long start = starts[idx], end = ends[idx];
+                if (merged > 0 && PhoneNumbers.sameForm(start, mergedEnds[merged - 1]) && start <= mergedEnds[merged - 1] + 1) {
+                    // overlapping or adjacent (ranges of different forms never overlap)
+                    if (end > mergedEnds[merged - 1])
+                        mergedEnds[merged - 1] = end;
+                    if (mergedNames[merged - 1] == null)
+                        mergedNames[merged - 1] = names[idx];
+                } else {
+                    mergedStarts[merged] = start;
+                    mergedEnds[merged] = end;
+                    mergedNames[merged] = names[idx];
+                    merged++;
+                }
+            }
+
+            return new RangeIndex(
+                    Arrays.copyOf(mergedStarts, merged),
+                    Arrays.copyOf(mergedEnds, merged),
+                    Arrays.copyOf(mergedNames, merged));
+        }
+
+    }
+
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright © Ricki Hirner (bitfire web engineering).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ */
+
+package at.bitfire.nophonespam.screening;
+
+/**
+ * Ring buffer of recent calls (encoded number and time), so that recording a call doesn't allocate memory.
+ * Not thread-safe.
+ */
+public class RecentCalls {
+
+    private final long[] numbers, times;
+    private int next;
+
+    public RecentCalls(int size) {
+        numbers = new long[size];
+        times = new long[size];
+    }
+
+    /**
+     * Records a call and counts the calls from the same number within the given time (including this one).
+     * @param number    encoded number (see {@link PhoneNumbers#encode(String)})
+     */
+    public int record(long number, long now, long window) {
+        int count = 1;
+        for (int i = 0; i < numbers.length; i++)
+            if (numbers[i] == number && now - times[i] < window)
+                count++;
+
+        numbers[next] = number;
+        times[next] = now;
+        next = (next + 1) % numbers.length;
+        return count;
+    }
+
+}
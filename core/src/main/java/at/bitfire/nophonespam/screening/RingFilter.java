@@ -0,0 +1,78 @@
+/*
+ * Copyright © Ricki Hirner (bitfire web engineering).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ */
+
+package at.bitfire.nophonespam.screening;
+
+/**
+ * Newer Android versions send the ringing broadcast more than once per call, with and
+ * without number, in any order. This filter recognizes the broadcasts which belong to
+ * a ring that is already being handled, so that every call is only screened once.
+ *
+ * A broadcast without number which arrives first can't be screened like the call, unless
+ * hidden numbers are blocked. So a broadcast with number which follows is only ignored
+ * if the call has already been rejected; otherwise it's screened and its number is
+ * used for the rest of the ring.
+ *
+ * Not thread-safe (broadcasts are delivered on the main thread).
+ */
+public class RingFilter {
+
+    private final long window;
+
+    private boolean ringing;
+    private String number;
+    private long since;
+    private boolean rejected;
+
+    /**
+     * @param window broadcasts for the same call within this time (in ms) are recognized as duplicates
+     */
+    public RingFilter(long window) {
+        this.window = window;
+    }
+
+    /**
+     * Must be called for every ringing broadcast.
+     * @param number    normalized incoming number (empty if the broadcast doesn't contain a number)
+     * @param now       current time
+     * @return true if the broadcast belongs to the ring which is already being handled (and must be ignored);
+     *         false if it has to be screened
+     */
+    public boolean isDuplicate(String number, long now) {
+        if (ringing && now - since < window) {
+            if (number.isEmpty() || number.equals(this.number))
+                return true;
+            if (this.number.isEmpty()) {
+                // same ring, now with number
+                this.number = number;
+                return rejected;
+            }
+        }
+
+        ringing = true;
+        this.number = number;
+        since = now;
+        rejected = false;
+        return false;
+    }
+
+    /**
+     * Must be called when the current ring has been rejected.
+     */
+    public void rejected() {
+        rejected = true;
+    }
+
+    /**
+     * Must be called when the call has been answered or has ended.
+     */
+    public void ended() {
+        ringing = false;
+    }
+
+}
@@ -0,0 +1,333 @@
+/*
+ * Copyright © Ricki Hirner (bitfire web engineering).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ */
+
+package at.bitfire.nophonespam.screening;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Immutable, ordered list of screening rules; the first rule which makes a decision wins.
+ * Rules are evaluated in phases:
+ * <ol>
+ *     <li>{@link #PHASE_ALLOW}: rules which allow numbers (they're never blocked),</li>
+ *     <li>{@link #PHASE_BLOCK}: rules whose decisions only depend on the number, so they're cached
+ *     for repeated calls (but not beyond {@link Decision#expires}),</li>
+ *     <li>{@link #PHASE_HEURISTIC}: rules which depend on earlier calls.</li>
+ * </ol>
+ * Within a phase, rules are ordered by their {@link Rule#precedence}, so that the order of rules
+ * which may decide differently for the same number (for instance, with another reason) is fixed.
+ * Rules of the same precedence are ordered by cost per hit, so that cheap rules which often decide
+ * are evaluated first. The cost and hit rate are measured: every rule counts its evaluations, hits and
+ * time in the {@link Statistics}, which survive recompilation when they're passed to the next
+ * pipeline, so the order adapts to the calls. Until a rule has been evaluated {@link #MIN_SAMPLES}
+ * times, an estimated cost is used.
+ *
+ * Evaluations are synchronized on the {@link Statistics}, so rules and the decision cache
+ * don't need their own locks as long as all pipelines share the same statistics.
+ * Evaluating rules doesn't allocate memory; only a rule which decides may allocate its decision.
+ * When a {@link DecisionTrace} is passed, every evaluated rule (with its time and the candidate
+ * entries it has examined) and the use of the decision cache is recorded.
+ *
+ * @param <E> type of the entries which rules report as reason for their decisions
+ */
+public class RulePipeline<E> {
+
+    public static final int
+            PHASE_ALLOW = 0,
+            PHASE_BLOCK = 1,
+            PHASE_HEURISTIC = 2;
+
+    /** measured costs are used for ordering after this number of evaluations */
+    public static final int MIN_SAMPLES = 100;
+
+    private final Statistics statistics;
+    /** recent decisions of the block phase: normalized number → decision (null if the number is not blocked) */
+    private final DecisionCache<Decision<E>> decisions;
+
+    private final List<Rule<E>> rules;
+    private final Statistics.Counter[] counters;
+    /** index of the first rule of the block and heuristic phase */
+    private final int blockStart, heuristicStart;
+
+
+    /**
+     * @param rules         rules (in any order)
+     * @param statistics    counters of the rules (shared by all pipelines which are compiled one after another)
+     * @param decisions     cache for the decisions of the block phase (must be cleared when the rules change)
+     */
+    public RulePipeline(Collection<? extends Rule<E>> rules, Statistics statistics, DecisionCache<Decision<E>> decisions) {
+        this.statistics = statistics;
+        this.decisions = decisions;
+
+        synchronized(statistics) {
+            final Map<Rule<E>, Statistics.Counter> counters = new HashMap<>();
+            for (Rule<E> rule : rules)
+                counters.put(rule, statistics.counter(rule.name));
+
+            List<Rule<E>> sorted = new ArrayList<>(rules);
+            Collections.sort(sorted, new Comparator<Rule<E>>() {
+                @Override
+                public int compare(Rule<E> a, Rule<E> b) {
+                    if (a.phase != b.phase)
+                        return a.phase - b.phase;
+                    if (a.precedence != b.precedence)
+                        return a.precedence - b.precedence;
+                    return Double.compare(counters.get(a).costPerHit(a.estimatedCost), counters.get(b).costPerHit(b.estimatedCost));
+                }
+            });
+            this.rules = sorted;
+
+            this.counters = new Statistics.Counter[sorted.size()];
+            for (int i = 0; i < sorted.size(); i++)
+                this.counters[i] = counters.get(sorted.get(i));
+        }
+
+        int i = 0;
+        while (i < this.rules.size() && this.rules.get(i).phase < PHASE_BLOCK)
+            i++;
+        blockStart = i;
+        while (i < this.rules.size() && this.rules.get(i).phase < PHASE_HEURISTIC)
+            i++;
+        heuristicStart = i;
+    }
+
+
+    /**
+     * Evaluates the rules for an incoming call.
+     * @param number    normalized incoming number (empty for hidden numbers)
+     * @param now       current time
+     * @return decision of the first deciding rule, or null if no rule has decided (the call is not blocked then)
+     */
+    public Decision<E> evaluate(String number, long now) {
+        return evaluate(number, now, null);
+    }
+
+    /**
+     * Like {@link #evaluate(String, long)}, but records the steps which have been taken.
+     * @param trace trace to record the steps to (may be null)
+     */
+    public Decision<E> evaluate(String number, long now, DecisionTrace trace) {
+        synchronized(statistics) {
+            Decision<E> decision = evaluate(0, blockStart, number, now, trace);
+            if (decision != null)
+                return decision;
+
+            long start = System.nanoTime();
+            DecisionCache.Entry<Decision<E>> cached = decisions.get(number, now);
+            if (trace != null)
+                trace.step("cache", cached != null ? "hit, " + (cached.decision != null ? cached.decision : "not blocked") : "miss", System.nanoTime() - start);
+            if (cached != null) {
+                statistics.cacheHits++;
+                decision = cached.decision;
+            } else {
+                decision = evaluate(blockStart, heuristicStart, number, now, trace);
+                decisions.put(number, decision, now, decision != null ? decision.expires : 0);
+            }
+            if (decision != null)
+                return decision;
+
+            return evaluate(heuristicStart, rules.size(), number, now, trace);
+        }
+    }
+
+    /**
+     * Decides whether a number would be blocked, without handling it as a call: only the allow
+     * and block phase are evaluated, and neither the counters nor the cached decisions are changed.
+     * @param number    normalized number
+     * @param now       current time
+     * @return decision of the first deciding rule, or null if no rule has decided
+     */
+    public Decision<E> match(String number, long now) {
+        return match(number, now, null);
+    }
+
+    /**
+     * Like {@link #match(String, long)}, but records the steps which have been taken, so that
+     * a decision can be explained (replayed) for any number.
+     * @param trace trace to record the steps to (may be null)
+     */
+    public Decision<E> match(String number, long now, DecisionTrace trace) {
+        synchronized(statistics) {
+            for (int i = 0; i < heuristicStart; i++) {
+                Decision<E> decision = evaluate(rules.get(i), number, now, trace);
+                if (decision != null)
+                    return decision;
+            }
+            return null;
+        }
+    }
+
+    private Decision<E> evaluate(int from, int to, String number, long now, DecisionTrace trace) {
+        for (int i = from; i < to; i++) {
+            long start = System.nanoTime();
+            Decision<E> decision = evaluate(rules.get(i), number, now, trace);
+            counters[i].add(decision != null, System.nanoTime() - start);
+            if (decision != null)
+                return decision;
+        }
+        return null;
+    }
+
+    private Decision<E> evaluate(Rule<E> rule, String number, long now, DecisionTrace trace) {
+        if (trace == null)
+            return rule.evaluate(number, now);
+
+        int step = trace.begin("rule " + rule.name);
+        long start = System.nanoTime();
+        Decision<E> decision = rule.explain(number, now, trace);
+        trace.end(step, decision != null ? decision.toString() : "no decision", System.nanoTime() - start);
+        return decision;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Rule<E> rule : rules) {
+            if (sb.length() > 0)
+                sb.append(" → ");
+            sb.append(rule.name);
+        }
+        return sb.toString();
+    }
+
+
+    public static class Decision<E> {
+
+        public final Rule<E> rule;
+        public final boolean block;
+        /** matching entry (may be null if the rule has no entries, like for hidden numbers) */
+        public final E entry;
+        /** rule as shown in the call log */
+        public final String logRule;
+        /** time when the decision becomes invalid because the entry expires (0 if it never expires) */
+        public final long expires;
+
+        public Decision(Rule<E> rule, boolean block, E entry, String logRule) {
+            this(rule, block, entry, logRule, 0);
+        }
+
+        public Decision(Rule<E> rule, boolean block, E entry, String logRule, long expires) {
+            this.rule = rule;
+            this.block = block;
+            this.entry = entry;
+            this.logRule = logRule;
+            this.expires = expires;
+        }
+
+        @Override
+        public String toString() {
+            return (block ? "block" : "allow") + " (" + rule.name + (entry != null ? ", " + entry : "") + ")";
+        }
+
+    }
+
+
+    public abstract static class Rule<E> {
+
+        /** name of the rule; rules with the same name share their counters */
+        public final String name;
+        public final int phase;
+        /**
+         * rules with a lower precedence are evaluated first within the phase; rules
+         * which never decide differently for the same number may share a precedence
+         */
+        public final int precedence;
+        /** estimated cost of an evaluation (in ns), used for ordering until the rule has been timed */
+        public final long estimatedCost;
+
+        protected Rule(String name, int phase, long estimatedCost) {
+            this(name, phase, 0, estimatedCost);
+        }
+
+        protected Rule(String name, int phase, int precedence, long estimatedCost) {
+            this.name = name;
+            this.phase = phase;
+            this.precedence = precedence;
+            this.estimatedCost = estimatedCost;
+        }
+
+        /**
+         * @param number    normalized incoming number (empty for hidden numbers)
+         * @return decision, or null if the rule doesn't decide
+         */
+        public abstract Decision<E> evaluate(String number, long now);
+
+        /**
+         * Like {@link #evaluate(String, long)}, but records the candidate entries which have been
+         * examined. Rules which examine more than one entry should override it.
+         */
+        public Decision<E> explain(String number, long now, DecisionTrace trace) {
+            return evaluate(number, now);
+        }
+
+    }
+
+
+    /**
+     * Counters of all rules which have been evaluated, by rule name.
+     */
+    public static class Statistics {
+
+        private final Map<String, Counter> counters = new HashMap<>();
+        private long cacheHits;
+
+        Counter counter(String name) {
+            Counter counter = counters.get(name);
+            if (counter == null)
+                counters.put(name, counter = new Counter());
+            return counter;
+        }
+
+        @Override
+        public synchronized String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(cacheHits).append(" cached decision(s)");
+            for (Map.Entry<String, Counter> entry : counters.entrySet())
+                sb.append("; ").append(entry.getKey()).append(": ").append(entry.getValue());
+            return sb.toString();
+        }
+
+
+        static class Counter {
+
+            long evaluations, hits, nanos;
+
+            void add(boolean hit, long nanos) {
+                evaluations++;
+                if (hit)
+                    hits++;
+                this.nanos += nanos;
+            }
+
+            /**
+             * @return average time per decision (lower is better)
+             */
+            double costPerHit(long estimatedCost) {
+                double cost = evaluations >= MIN_SAMPLES ? (double)nanos / evaluations : estimatedCost;
+                double hitRate = (hits + 1.0) / (evaluations + 2.0);
+                return cost / hitRate;
+            }
+
+            @Override
+            public String toString() {
+                return String.format(Locale.ROOT, "%d evaluation(s), %d hit(s), %.1f µs on average",
+                        evaluations, hits, evaluations > 0 ? nanos / 1000.0 / evaluations : 0.0);
+            }
+
+        }
+
+    }
+
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright © Ricki Hirner (bitfire web engineering).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ */
+
+package at.bitfire.nophonespam.screening;
+
+import at.bitfire.nophonespam.screening.RulePipeline.Decision;
+import at.bitfire.nophonespam.screening.RulePipeline.Rule;
+
+import static at.bitfire.nophonespam.screening.RulePipeline.PHASE_ALLOW;
+import static at.bitfire.nophonespam.screening.RulePipeline.PHASE_BLOCK;
+import static at.bitfire.nophonespam.screening.RulePipeline.PHASE_HEURISTIC;
+
+/**
+ * Rules which screen incoming calls, for a {@link RulePipeline}:
+ * <ol>
+ *     <li>allowed numbers (they're never blocked),</li>
+ *     <li>hidden numbers and blocklist rules (ranges, exact numbers, patterns, countries; a number which
+ *     matches more than one of them is always blocked by the first one),</li>
+ *     <li>repeated calls.</li>
+ * </ol>
+ * The allowed and blocked numbers are accessed by {@link AllowedNumbers} and {@link BlockedNumbers},
+ * so that the rules don't depend on where the entries are kept.
+ */
+public class ScreeningRules {
+
+    /** rule name for calls which have been rejected because they had no caller ID */
+    public static final String RULE_HIDDEN = "hidden";
+    /** rule name for calls which have been rejected because the number called repeatedly in a short time */
+    public static final String RULE_REPEATED = "repeated";
+
+    /** precedence of the blocklist rules (fixed, so that a number is always blocked for the same reason) */
+    public static final int
+            PRECEDENCE_RANGE = 0,
+            PRECEDENCE_EXACT = 1,
+            PRECEDENCE_PATTERN = 2,
+            PRECEDENCE_COUNTRY = 3;
+
+    private ScreeningRules() {
+    }
+
+
+    public interface AllowedNumbers {
+
+        /**
+         * @param number normalized number (not empty)
+         */
+        boolean isAllowed(String number);
+
+    }
+
+    /**
+     * @param <E> type of the entries
+     */
+    public interface BlockedNumbers<E> {
+
+        /** @return matching number range, or null */
+        E lookupRange(String number);
+
+        /** @return matching exact number, or null */
+        E lookupExact(String number, long now);
+
+        /**
+         * @param trace trace to record the checked patterns to (may be null)
+         * @return matching pattern, or null
+         */
+        E lookupPattern(String number, long now, DecisionTrace trace);
+
+        /** @return matching blocked country, or null */
+        E lookupCountry(String number);
+
+        /** @return time when the entry expires (0 if it never expires) */
+        long expires(E entry);
+
+        /** @return rule which is shown in the call log for the entry */
+        String rule(E entry);
+
+    }
+
+
+    public static class AllowlistRule<E> extends Rule<E> {
+
+        final AllowedNumbers allowlist;
+        final Decision<E> allowed = new Decision<>(this, false, null, null);
+
+        public AllowlistRule(AllowedNumbers allowlist) {
+            super("allowlist", PHASE_ALLOW, 100);
+            this.allowlist = allowlist;
+        }
+
+        @Override
+        public Decision<E> evaluate(String number, long now) {
+            return !number.isEmpty() && allowlist.isAllowed(number) ? allowed : null;
+        }
+
+    }
+
+    public static class HiddenNumberRule<E> extends Rule<E> {
+
+        final Decision<E> blocked = new Decision<>(this, true, null, RULE_HIDDEN);
+
+        public HiddenNumberRule() {
+            // only decides for hidden numbers, which no blacklist rule decides for
+            super("hidden", PHASE_BLOCK, 0, 10);
+        }
+
+        @Override
+        public Decision<E> evaluate(String number, long now) {
+            return number.isEmpty() ? blocked : null;
+        }
+
+    }
+
+    public abstract static class BlacklistRule<E> extends Rule<E> {
+
+        final BlockedNumbers<E> blacklist;
+
+        BlacklistRule(String name, int precedence, long estimatedCost, BlockedNumbers<E> blacklist) {
+            super(name, PHASE_BLOCK, precedence, estimatedCost);
+            this.blacklist = blacklist;
+        }
+
+        @Override
+        public Decision<E> evaluate(String number, long now) {
+            return explain(number, now, null);
+        }
+
+        @Override
+        public Decision<E> explain(String number, long now, DecisionTrace trace) {
+            if (number.isEmpty())
+                return null;
+            E entry = lookup(number, now, trace);
+            if (entry == null)
+                return null;
+            // a cached decision must not outlive its entry
+            return new Decision<>(this, true, entry, blacklist.rule(entry), blacklist.expires(entry));
+        }
+
+        /**
+         * @param trace trace to record the examined entries to (may be null)
+         */
+        abstract E lookup(String number, long now, DecisionTrace trace);
+
+    }
+
+    public static class RangeRule<E> extends BlacklistRule<E> {
+
+        public RangeRule(BlockedNumbers<E> blacklist) {
+            super("range", PRECEDENCE_RANGE, 300, blacklist);
+        }
+
+        @Override
+        E lookup(String number, long now, DecisionTrace trace) {
+            return blacklist.lookupRange(number);
+        }
+
+    }
+
+    public static class ExactRule<E> extends BlacklistRule<E> {
+
+        public ExactRule(BlockedNumbers<E> blacklist) {
+            super("exact", PRECEDENCE_EXACT, 200, blacklist);
+        }
+
+        @Override
+        E lookup(String number, long now, DecisionTrace trace) {
+            return blacklist.lookupExact(number, now);
+        }
+
+    }
+
+    public static class PatternRule<E> extends BlacklistRule<E> {
+
+        public PatternRule(BlockedNumbers<E> blacklist) {
+            super("prefix", PRECEDENCE_PATTERN, 1000, blacklist);
+        }
+
+        @Override
+        E lookup(String number, long now, DecisionTrace trace) {
+            return blacklist.lookupPattern(number, now, trace);
+        }
+
+    }
+
+    public static class CountryRule<E> extends BlacklistRule<E> {
+
+        public CountryRule(BlockedNumbers<E> blacklist) {
+            super("country", PRECEDENCE_COUNTRY, 100, blacklist);
+        }
+
+        @Override
+        E lookup(String number, long now, DecisionTrace trace) {
+            return blacklist.lookupCountry(number);
+        }
+
+    }
+
+    /**
+     * Blocks numbers which call a given number of times within a given time (like robo-dialers
+     * which don't give up). Only calls which haven't been decided by another rule are counted.
+     */
+    public abstract static class RepeatedCallsRule<E> extends Rule<E> {
+
+        final RecentCalls recentCalls;
+        final int calls;
+        final long window;
+
+        /**
+         * @param recentCalls   recent calls (must be guarded by the statistics of the pipeline if it's shared)
+         * @param calls         a number is blocked when it calls this often …
+         * @param window        … within this time
+         */
+        public RepeatedCallsRule(RecentCalls recentCalls, int calls, long window) {
+            super("repeated", PHASE_HEURISTIC, 200);
+            this.recentCalls = recentCalls;
+            this.calls = calls;
+            this.window = window;
+        }
+
+        @Override
+        public Decision<E> evaluate(String number, long now) {
+            if (number.isEmpty())
+                return null;
+            long key = PhoneNumbers.encode(number);
+            if (key == PhoneNumbers.NOT_ENCODABLE)
+                return null;
+
+            if (recentCalls.record(key, now, window) < calls)
+                return null;
+            return new Decision<>(this, true, entry(number), RULE_REPEATED);
+        }
+
+        /**
+         * @return entry which is reported as reason for blocking a number
+         */
+        protected abstract E entry(String number);
+
+    }
+
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright © Ricki Hirner (bitfire web engineering).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ */
+
+package at.bitfire.nophonespam.screening;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Builds a {@link MatcherSegment} for many entries, reports the progress and can be
+ * cancelled from another thread by {@link #cancel()}.
+ *
+ * The entries are split into partitions which are normalized and encoded in parallel
+ * (see {@link ParallelBuild}) and concatenated in order at the end, so the result is the
+ * same as with a single {@link MatcherSegment.Builder}. The hash tables and tries are
+ * built when the segments are merged into a {@link CompiledMatcher}.
+ */
+public class SegmentBuilder {
+
+    /** partitions smaller than this aren't worth the overhead */
+    static final int MIN_PARTITION_SIZE = 4096;
+    /** more partitions than threads, so that fast threads take over the work of slow ones */
+    static final int PARTITIONS_PER_THREAD = 4;
+
+    /** cancellation is checked and progress is reported after this number of entries */
+    static final int PROGRESS_INTERVAL = 1024;
+
+    private final ParallelBuild parallel;
+
+    private volatile boolean cancelled;
+    private ProgressListener listener;
+
+
+    public SegmentBuilder() {
+        this(ParallelBuild.allCores());
+    }
+
+    public SegmentBuilder(ParallelBuild parallel) {
+        this.parallel = parallel;
+    }
+
+    /**
+     * @param listener listener which is called from the build threads (so it must be thread-safe)
+     */
+    public void setProgressListener(ProgressListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Cancels a running build (and all later builds with this instance).
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+
+    /**
+     * Builds a segment. All arrays must have the same length.
+     * @param source        source ID of the segment
+     * @param numbers       numbers or patterns (SQL LIKE syntax)
+     * @param lastCalls     times of last call (0 if there was no call)
+     * @param timesCalled   numbers of calls
+     * @param expires       expiry times (0 if the entry never expires)
+     * @return segment with all entries, in the order of the arrays
+     * @throws CancellationException if the build has been cancelled
+     */
+    public MatcherSegment build(final int source, final String[] numbers, final long[] lastCalls, final int[] timesCalled,
+                                final long[] expires) {
+        final int total = numbers.length;
+        int threads = parallel.parallelism();
+        final int partitionSize = Math.max(MIN_PARTITION_SIZE, (total + threads*PARTITIONS_PER_THREAD - 1) / (threads*PARTITIONS_PER_THREAD));
+        final int partitions = Math.max(1, (total + partitionSize - 1) / partitionSize);
+
+        final MatcherSegment[] parts = new MatcherSegment[partitions];
+        final AtomicInteger done = new AtomicInteger();
+        parallel.run(partitions, new ParallelBuild.Task() {
+            @Override
+            public void run(int p) {
+                int start = p * partitionSize, end = Math.min(start + partitionSize, total);
+                parts[p] = buildPartition(source, numbers, lastCalls, timesCalled, expires, start, end, done, total);
+            }
+        });
+        return partitions == 1 ? parts[0] : MatcherSegment.concat(source, parts);
+    }
+
+    private MatcherSegment buildPartition(int source, String[] numbers, long[] lastCalls, int[] timesCalled, long[] expires,
+                                          int start, int end, AtomicInteger done, int total) {
+        MatcherSegment.Builder builder = new MatcherSegment.Builder(source, end - start);
+        for (int i = start; i < end; i++) {
+            builder.add(numbers[i], lastCalls[i], timesCalled[i], expires[i]);
+
+            if ((i - start + 1) % PROGRESS_INTERVAL == 0 || i == end - 1) {
+                if (cancelled)
+                    throw new CancellationException();
+                int count = (i - start) % PROGRESS_INTERVAL + 1;
+                reportProgress(done.addAndGet(count), total);
+            }
+        }
+        if (cancelled)
+            throw new CancellationException();
+        return builder.build();
+    }
+
+    private void reportProgress(int done, int total) {
+        ProgressListener listener = this.listener;
+        if (listener != null)
+            listener.onProgress(done, total);
+    }
+
+
+    public interface ProgressListener {
+
+        /**
+         * @param done  number of entries which have been processed
+         * @param total number of entries
+         */
+        void onProgress(int done, int total);
+
+    }
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright © Ricki Hirner (bitfire web engineering).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ */
+
+package at.bitfire.nophonespam.screening;
+
+public class Wildcards {
+
+    /** matches zero or more characters (SQL LIKE syntax, as stored in the database) */
+    public static final char ANY = '%';
+
+    /** matches exactly one character (SQL LIKE syntax, as stored in the database) */
+    public static final char ONE = '_';
+
+    private Wildcards() {
+    }
+
+    /**
+     * Converts a number from database format to the format which is shown to the user
+     * (* matches zero or more digits, # matches one digit).
+     */
+    public static String dbToView(String number) {
+        return number
+                .replace(ANY, '*')
+                .replace(ONE, '#');
+    }
+
+    /**
+     * Converts a number as entered by the user to database format. Characters
+     * other than digits, + and wildcards are removed.
+     */
+    public static String viewToDb(String number) {
+        return number
+                .replaceAll("[^+#*0-9]", "")
+                .replace('*', ANY)
+                .replace('#', ONE);
+    }
+
+    public static boolean hasWildcards(String pattern) {
+        return pattern.indexOf(ANY) != -1 || pattern.indexOf(ONE) != -1;
+    }
+
+    /**
+     * Matches a number against a pattern in the same way as <code>number LIKE pattern</code>
+     * in SQLite does (for the characters which may occur in phone numbers), but without
+     * allocating memory.
+     */
+    public static boolean matches(String pattern, String number) {
+        int p = 0, n = 0;
+        int pLength = pattern.length(), nLength = number.length();
+        // position after the last '%' and the number position it has been tried with
+        int starP = -1, starN = 0;
+
+        while (n < nLength) {
+            if (p < pLength) {
+                char ch = pattern.charAt(p);
+                if (ch == ANY) {
+                    starP = ++p;
+                    starN = n;
+                    continue;
+                }
+                if (ch == ONE || ch == number.charAt(n)) {
+                    p++;
+                    n++;
+                    continue;
+                }
+            }
+            if (starP == -1)
+                return false;
+            // let the last '%' match one more character
+            p = starP;
+            n = ++starN;
+        }
+
+        // only '%' may remain
+        while (p < pLength && pattern.charAt(p) == ANY)
+            p++;
+        return p == pLength;
+    }
+
+}
@@ -0,0 +1,319 @@
+/*
+ * Copyright © Ricki Hirner (bitfire web engineering).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ */
+
+package at.bitfire.nophonespam.screening;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Load test of the screening engine: replays a synthetic call flood against a {@link RulePipeline}
+ * with the {@link ScreeningRules} of the app and a generated blacklist (exact numbers and patterns in a
+ * {@link CompiledMatcher}, number ranges and a blocked country) and reports throughput and decision
+ * latency, so that changes of the engine can be compared before and after.
+ *
+ * Other parameters can be passed when it's run directly:
+ * <pre>
+ * java -cp … at.bitfire.nophonespam.screening.CallFloodTest entries=1000000 patterns=0.05 calls=1000000
+ * </pre>
+ */
+public class CallFloodTest {
+
+    /** numbers a robo-dialer calls again and again */
+    static final int RECENT_NUMBERS = 16;
+
+    /** time between two calls */
+    static final long CALL_INTERVAL = 100;
+
+    static final int REPEATED_CALLS = 3;
+    static final long REPEATED_CALLS_WINDOW = 5 * 60 * 1000;
+
+    /** dial code of the blocked country */
+    static final String BLOCKED_DIAL_CODE = "7";
+
+    // blacklist
+    int entries = 100000;
+    /** share of wildcard patterns in the blacklist */
+    float patternShare = 0.01f;
+    int ranges = 100;
+
+    // calls
+    int calls = 100000;
+    /** share of calls from blocked numbers */
+    float blockedShare = 0.5f;
+    /** share of calls which repeat a recent number */
+    float repeatShare = 0.2f;
+    /** share of calls without caller ID */
+    float hiddenShare = 0.02f;
+    /** share of blocked calls from a number range */
+    float rangeShare = 0.05f;
+    /** share of blocked calls from the blocked country */
+    float countryShare = 0.05f;
+
+    long seed = 1;
+
+    private final Random random = new Random();
+
+    private String[] exactNumbers;
+    private String[] patternPrefixes;
+    private String[] rangePrefixes;
+
+
+    public static void main(String[] args) {
+        CallFloodTest test = new CallFloodTest();
+        for (String arg : args) {
+            String[] param = arg.split("=", 2);
+            switch (param[0]) {
+                case "entries":  test.entries = Integer.parseInt(param[1]); break;
+                case "patterns": test.patternShare = Float.parseFloat(param[1]); break;
+                case "ranges":   test.ranges = Integer.parseInt(param[1]); break;
+                case "calls":    test.calls = Integer.parseInt(param[1]); break;
+                case "blocked":  test.blockedShare = Float.parseFloat(param[1]); break;
+                case "repeat":   test.repeatShare = Float.parseFloat(param[1]); break;
+                case "hidden":   test.hiddenShare = Float.parseFloat(param[1]); break;
+                case "range":    test.rangeShare = Float.parseFloat(param[1]); break;
+                case "country":  test.countryShare = Float.parseFloat(param[1]); break;
+                case "seed":     test.seed = Long.parseLong(param[1]); break;
+                default:
+                    throw new IllegalArgumentException("Unknown parameter: " + param[0]);
+            }
+        }
+        // first run to warm up the JIT
+        test.run();
+        System.out.println(test.run());
+    }
+
+    @Test
+    public void testFlood() {
+        Result result = run();
+        assertEquals(calls, result.blocked + result.allowed);
+        // blocked and hidden numbers are always blocked, others only when they call repeatedly
+        assertTrue(result.blocked >= result.expectedBlocked);
+        assertEquals(result.expectedBlocked, result.blocked - result.repeated);
+        assertTrue(result.byRange > 0);
+        assertTrue(result.byCountry > 0);
+    }
+
+
+    Result run() {
+        random.setSeed(seed);
+        FloodBlacklist blacklist = createBlacklist();
+
+        RulePipeline.Statistics statistics = new RulePipeline.Statistics();
+        List<RulePipeline.Rule<String>> rules = new ArrayList<>();
+        rules.add(new ScreeningRules.HiddenNumberRule<String>());
+        rules.add(new ScreeningRules.ExactRule<>(blacklist));
+        if (blacklist.matcher.patternCount() > 0)
+            rules.add(new ScreeningRules.PatternRule<>(blacklist));
+        if (blacklist.ranges.size() > 0)
+            rules.add(new ScreeningRules.RangeRule<>(blacklist));
+        rules.add(new ScreeningRules.CountryRule<>(blacklist));
+        rules.add(new RepeatedCallsRule());
+        RulePipeline<String> pipeline = new RulePipeline<>(rules, statistics,
+                new DecisionCache<RulePipeline.Decision<String>>(64, 10 * 60 * 1000));
+
+        Result result = new Result();
+        result.calls = calls;
+        String[] recent = new String[RECENT_NUMBERS];
+        long[] latencies = new long[calls];
+
+        long start = System.nanoTime();
+        for (int i = 0; i < calls; i++) {
+            boolean[] expectBlocked = new boolean[1];
+            String number = nextNumber(recent, i, expectBlocked);
+            long now = i * CALL_INTERVAL;
+
+            long callStart = System.nanoTime();
+            RulePipeline.Decision<String> decision = pipeline.evaluate(number, now);
+            latencies[i] = System.nanoTime() - callStart;
+
+            if (decision != null && decision.block) {
+                result.blocked++;
+                if (decision.rule instanceof RepeatedCallsRule)
+                    result.repeated++;
+                else if (decision.rule instanceof ScreeningRules.RangeRule)
+                    result.byRange++;
+                else if (decision.rule instanceof ScreeningRules.CountryRule)
+                    result.byCountry++;
+            } else
+                result.allowed++;
+            if (expectBlocked[0]) {
+                result.expectedBlocked++;
+                assertNotNull(number, decision);
+            }
+        }
+        result.durationNanos = System.nanoTime() - start;
+
+        Arrays.sort(latencies);
+        result.p50Nanos = latencies[calls / 2];
+        result.p99Nanos = latencies[Math.min(calls - 1, calls * 99 / 100)];
+        result.maxNanos = latencies[calls - 1];
+        result.statistics = statistics.toString();
+        return result;
+    }
+
+    private FloodBlacklist createBlacklist() {
+        int patterns = (int)(entries * patternShare);
+        exactNumbers = new String[entries - patterns];
+        patternPrefixes = new String[patterns];
+        rangePrefixes = new String[ranges];
+
+        MatcherSegment.Builder builder = new MatcherSegment.Builder(0, entries);
+        for (int i = 0; i < exactNumbers.length; i++) {
+            exactNumbers[i] = "+4366" + digits(8);
+            builder.add(exactNumbers[i], 0, 0, 0);
+        }
+        for (int i = 0; i < patterns; i++) {
+            patternPrefixes[i] = "+431" + digits(3 + random.nextInt(4));
+            builder.add(patternPrefixes[i] + (random.nextBoolean() ? "%" : "____"), 0, 0, 0);
+        }
+        CompiledMatcher matcher = CompiledMatcher.merge(Collections.singletonList(builder.build()));
+
+        RangeIndex.Builder rangeBuilder = new RangeIndex.Builder();
+        for (int i = 0; i < ranges; i++) {
+            rangePrefixes[i] = "+4372" + digits(3);
+            rangeBuilder.add(PhoneNumbers.encode(rangePrefixes[i] + "0000"), PhoneNumbers.encode(rangePrefixes[i] + "9999"), null);
+        }
+
+        BitSet countries = new BitSet();
+        for (int i = 0; i < CountryCode.COUNTRIES.length; i++)
+            if (BLOCKED_DIAL_CODE.equals(CountryCode.COUNTRIES[i].dialCode))
+                countries.set(i);
+
+        return new FloodBlacklist(matcher, rangeBuilder.build(), countries);
+    }
+
+    private String nextNumber(String[] recent, int i, boolean[] blocked) {
+        float r = random.nextFloat();
+        String number;
+        if (r < hiddenShare) {
+            blocked[0] = true;
+            return "";
+        } else if (i >= RECENT_NUMBERS && r < hiddenShare + repeatShare) {
+            number = recent[random.nextInt(RECENT_NUMBERS)];
+            blocked[0] = number.startsWith("+43") || number.startsWith("+" + BLOCKED_DIAL_CODE);
+        } else if (random.nextFloat() < blockedShare) {
+            float kind = random.nextFloat();
+            if (patternPrefixes.length > 0 && kind < patternShare)
+                number = patternPrefixes[random.nextInt(patternPrefixes.length)] + "0000";
+            else if (rangePrefixes.length > 0 && kind < patternShare + rangeShare)
+                number = rangePrefixes[random.nextInt(rangePrefixes.length)] + digits(4);
+            else if (kind < patternShare + rangeShare + countryShare)
+                number = "+" + BLOCKED_DIAL_CODE + digits(10);
+            else
+                number = exactNumbers[random.nextInt(exactNumbers.length)];
+            blocked[0] = true;
+        } else
+            // other country code, never on the blacklist
+            number = "+49" + digits(9);
+        recent[i % RECENT_NUMBERS] = number;
+        return number;
+    }
+
+    private String digits(int count) {
+        char[] digits = new char[count];
+        for (int i = 0; i < count; i++)
+            digits[i] = (char)('0' + random.nextInt(10));
+        return new String(digits);
+    }
+
+
+    static class Result {
+
+        int calls, blocked, allowed, repeated, byRange, byCountry, expectedBlocked;
+        long durationNanos, p50Nanos, p99Nanos, maxNanos;
+        String statistics;
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT,
+                    "%d calls (%d blocked, %d of them by ranges, %d by country, %d as repeated calls) in %.0f ms: %.0f calls/s, " +
+                    "latency p50 %.2f µs, p99 %.2f µs, max %.2f µs\nRules: %s",
+                    calls, blocked, byRange, byCountry, repeated, durationNanos / 1e6, calls / (durationNanos / 1e9),
+                    p50Nanos / 1e3, p99Nanos / 1e3, maxNanos / 1e3, statistics);
+        }
+
+    }
+
+
+    /**
+     * Blacklist of the flood; entries are reported as their number, pattern or range and don't expire.
+     */
+    static class FloodBlacklist implements ScreeningRules.BlockedNumbers<String> {
+
+        final CompiledMatcher matcher;
+        final RangeIndex ranges;
+        final BitSet countries;
+
+        FloodBlacklist(CompiledMatcher matcher, RangeIndex ranges, BitSet countries) {
+            this.matcher = matcher;
+            this.ranges = ranges;
+            this.countries = countries;
+        }
+
+        @Override
+        public String lookupRange(String number) {
+            int idx = ranges.find(PhoneNumbers.encode(number));
+            return idx != -1 ? PhoneNumbers.decode(ranges.start(idx)) + "–" + PhoneNumbers.decode(ranges.end(idx)) : null;
+        }
+
+        @Override
+        public String lookupExact(String number, long now) {
+            int handle = matcher.findExact(number, now);
+            return handle != CompiledMatcher.NO_MATCH ? matcher.entry(handle) : null;
+        }
+
+        @Override
+        public String lookupPattern(String number, long now, DecisionTrace trace) {
+            int handle = matcher.findPattern(number, now, trace);
+            return handle != CompiledMatcher.NO_MATCH ? matcher.entry(handle) : null;
+        }
+
+        @Override
+        public String lookupCountry(String number) {
+            int country = CountryCode.findByDialCode(number);
+            return country != 0 && countries.get(country) ? "+" + CountryCode.COUNTRIES[country].dialCode + Wildcards.ANY : null;
+        }
+
+        @Override
+        public long expires(String entry) {
+            return 0;
+        }
+
+        @Override
+        public String rule(String entry) {
+            return entry;
+        }
+
+    }
+
+    static class RepeatedCallsRule extends ScreeningRules.RepeatedCallsRule<String> {
+
+        RepeatedCallsRule() {
+            super(new RecentCalls(16), REPEATED_CALLS, REPEATED_CALLS_WINDOW);
+        }
+
+        @Override
+        protected String entry(String number) {
+            return number;
+        }
+
+    }
+
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright © Ricki Hirner (bitfire web engineering).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ */
+
+package at.bitfire.nophonespam.screening;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CompiledMatcherTest {
+
+    static final int SOURCES = 4;
+
+    static final int PERSONAL = 0;
+    static final String NUMBER = "+431234567";
+
+    @Test
+    public void testSameResultForAllParallelisms() {
+        Random random = new Random(1);
+        int cores = Math.max(3, Runtime.getRuntime().availableProcessors());
+
+        // sources overlap, so that entries are shadowed and take over when they expire
+        List<String[]> numbers = new ArrayList<>();
+        List<long[]> expires = new ArrayList<>();
+        for (int s = 0; s < SOURCES; s++) {
+            int n = s == 0 ? 3*SegmentBuilder.MIN_PARTITION_SIZE + 17 : 1000 + random.nextInt(5000);
+            String[] sourceNumbers = new String[n];
+            long[] sourceExpires = new long[n];
+            for (int i = 0; i < n; i++) {
+                sourceNumbers[i] = random.nextInt(50) == 0 ?
+                        WildcardsTest.random(random, "+0123%_", 6) :
+                        "+43" + WildcardsTest.random(random, "0123", 6);
+                sourceExpires[i] = random.nextInt(3) == 0 ? 1 + random.nextInt(10000) : 0;
+            }
+            numbers.add(sourceNumbers);
+            expires.add(sourceExpires);
+        }
+
+        int[] parallelisms = { 1, 2, cores };
+        List<List<MatcherSegment>> segments = new ArrayList<>();
+        List<CompiledMatcher> matchers = new ArrayList<>();
+        for (int parallelism : parallelisms) {
+            ParallelBuild build = new ParallelBuild(ParallelBuild.sharedExecutor(), parallelism);
+            SegmentBuilder builder = new SegmentBuilder(build);
+            List<MatcherSegment> sourceSegments = new ArrayList<>();
+            for (int s = 0; s < SOURCES; s++) {
+                int n = numbers.get(s).length;
+                long[] lastCalls = new long[n];
+                int[] timesCalled = new int[n];
+                for (int i = 0; i < n; i++) {
+                    lastCalls[i] = i;
+                    timesCalled[i] = i % 7;
+                }
+                sourceSegments.add(builder.build(s, numbers.get(s), lastCalls, timesCalled, expires.get(s)));
+            }
+            segments.add(sourceSegments);
+            matchers.add(CompiledMatcher.merge(sourceSegments, build));
+        }
+
+        // segments are the same as with a single builder
+        for (int p = 1; p < parallelisms.length; p++)
+            for (int s = 0; s < SOURCES; s++) {
+                MatcherSegment expected = segments.get(0).get(s), actual = segments.get(p).get(s);
+                assertArrayEquals(expected.exactKeys, actual.exactKeys);
+                assertArrayEquals(expected.exactExpires, actual.exactExpires);
+                assertArrayEquals(expected.patterns, actual.patterns);
+                assertArrayEquals(expected.patternExpires, actual.patternExpires);
+            }
+
+        // times must not go backwards (expired entries are removed)
+        long now = 0;
+        for (int i = 0; i < 20000; i++) {
+            now += random.nextInt(3);
+            String number = random.nextInt(10) == 0 ?
+                    WildcardsTest.random(random, "+0123", 7) :
+                    "+43" + WildcardsTest.random(random, "0123", 6);
+
+            String expected = null;
+            for (int p = 0; p < parallelisms.length; p++) {
+                CompiledMatcher matcher = matchers.get(p);
+                String result = describe(matcher, matcher.find(number, now));
+                if (p == 0)
+                    expected = result;
+                else
+                    assertEquals("parallelism " + parallelisms[p] + ": " + number + " at " + now, expected, result);
+
+                int handle = matcher.findExact(number, now);
+                if (handle != CompiledMatcher.NO_MATCH)
+                    matcher.recordCall(handle, now);
+            }
+        }
+
+        for (CompiledMatcher matcher : matchers.subList(1, matchers.size())) {
+            assertEquals(matchers.get(0).exactCount(), matcher.exactCount());
+            assertEquals(matchers.get(0).patternCount(), matcher.patternCount());
+        }
+    }
+
+    @Test
+    public void testFirstSegmentTakesPrecedence() {
+        MatcherSegment personal = new MatcherSegment.Builder(PERSONAL, 1).add(NUMBER, 1000, 3, 0).build();
+        MatcherSegment source = new MatcherSegment.Builder(5, 1).add(NUMBER, 0, 0, 0).build();
+
+        CompiledMatcher matcher = CompiledMatcher.merge(Arrays.asList(personal, source));
+        int handle = matcher.find(NUMBER, 0);
+        assertTrue(matcher.isExact(handle));
+        assertEquals(PERSONAL, matcher.source(handle));
+        assertEquals(NUMBER, matcher.entry(handle));
+        assertEquals(1000, matcher.lastCall(handle));
+        assertEquals(3, matcher.timesCalled(handle));
+        assertEquals(1, matcher.exactCount());
+
+        matcher = CompiledMatcher.merge(Arrays.asList(source, personal));
+        handle = matcher.find(NUMBER, 0);
+        assertEquals(5, matcher.source(handle));
+        assertEquals(0, matcher.timesCalled(handle));
+    }
+
+    @Test
+    public void testExpiredEntryIsTakenOver() {
+        MatcherSegment personal = new MatcherSegment.Builder(PERSONAL, 1).add(NUMBER, 1000, 3, 100).build();
+        MatcherSegment source = new MatcherSegment.Builder(5, 1).add(NUMBER, 0, 0, 0).build();
+        CompiledMatcher matcher = CompiledMatcher.merge(Arrays.asList(personal, source));
+
+        int handle = matcher.findExact(NUMBER, 99);
+        assertEquals(PERSONAL, matcher.source(handle));
+        assertEquals(100, matcher.expires(handle));
+
+        // expired at its expiry time
+        handle = matcher.findExact(NUMBER, 100);
+        assertEquals(5, matcher.source(handle));
+        assertEquals(0, matcher.expires(handle));
+        assertEquals(0, matcher.timesCalled(handle));
+        handle = matcher.find(NUMBER, 1000000);
+        assertEquals(5, matcher.source(handle));
+    }
+
+    @Test
+    public void testEntryWhichExpiresFirstDoesntTakeOver() {
+        MatcherSegment personal = new MatcherSegment.Builder(PERSONAL, 1).add(NUMBER, 0, 0, 100).build();
+        MatcherSegment source = new MatcherSegment.Builder(5, 1).add(NUMBER, 0, 0, 50).build();
+        CompiledMatcher matcher = CompiledMatcher.merge(Arrays.asList(personal, source));
+
+        assertEquals(PERSONAL, matcher.source(matcher.find(NUMBER, 0)));
+        assertEquals(CompiledMatcher.NO_MATCH, matcher.find(NUMBER, 100));
+    }
+
+    @Test
+    public void testTakeoverChain() {
+        MatcherSegment first = new MatcherSegment.Builder(1, 1).add(NUMBER, 0, 0, 100).build();
+        MatcherSegment second = new MatcherSegment.Builder(2, 1).add(NUMBER, 0, 0, 200).build();
+        MatcherSegment third = new MatcherSegment.Builder(3, 1).add(NUMBER, 0, 0, 0).build();
+
+        CompiledMatcher matcher = CompiledMatcher.merge(Arrays.asList(first, second, third));
+        assertEquals(1, matcher.source(matcher.find(NUMBER, 99)));
+        assertEquals(2, matcher.source(matcher.find(NUMBER, 100)));
+        assertEquals(2, matcher.source(matcher.find(NUMBER, 199)));
+        assertEquals(3, matcher.source(matcher.find(NUMBER, 200)));
+        assertEquals(3, matcher.source(matcher.find(NUMBER, 1000000)));
+
+        // all entries which have expired in the meantime are skipped
+        matcher = CompiledMatcher.merge(Arrays.asList(first, second, third));
+        assertEquals(1, matcher.source(matcher.find(NUMBER, 0)));
+        assertEquals(3, matcher.source(matcher.find(NUMBER, 250)));
+
+        // the second entry expires before the first one, so the third one takes over directly
+        MatcherSegment shortSecond = new MatcherSegment.Builder(2, 1).add(NUMBER, 0, 0, 80).build();
+        matcher = CompiledMatcher.merge(Arrays.asList(first, shortSecond, third));
+        assertEquals(1, matcher.source(matcher.find(NUMBER, 50)));
+        assertEquals(3, matcher.source(matcher.find(NUMBER, 100)));
+    }
+
+    private static String describe(CompiledMatcher matcher, int handle) {
+        if (handle == CompiledMatcher.NO_MATCH)
+            return null;
+        return Arrays.asList(matcher.isExact(handle), matcher.source(handle), matcher.entry(handle),
+                matcher.expires(handle), matcher.lastCall(handle), matcher.timesCalled(handle)).toString();
+    }
+
+}
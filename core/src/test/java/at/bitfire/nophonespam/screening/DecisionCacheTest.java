@@ -0,0 +1,71 @@
+/*
+ * Copyright © Ricki Hirner (bitfire web engineering).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ */
+
+package at.bitfire.nophonespam.screening;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class DecisionCacheTest {
+
+    @Test
+    public void testTimeToLive() {
+        DecisionCache<String> cache = new DecisionCache<>(4, 1000);
+        cache.put("+4366", "blocked", 0);
+        assertEquals("blocked", cache.get("+4366", 999).decision);
+        assertNull(cache.get("+4366", 1000));
+        // expired decisions are removed
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testNotBlockedIsCached() {
+        DecisionCache<String> cache = new DecisionCache<>(4, 1000);
+        cache.put("+4366", null, 0);
+        DecisionCache.Entry<String> entry = cache.get("+4366", 500);
+        assertNotNull(entry);
+        assertNull(entry.decision);
+        assertNull(cache.get("+4367", 500));
+    }
+
+    @Test
+    public void testExpiresBeforeTimeToLive() {
+        DecisionCache<String> cache = new DecisionCache<>(4, 1000);
+        cache.put("+4366", "blocked", 0, 300);
+        assertNotNull(cache.get("+4366", 299));
+        assertNull(cache.get("+4366", 300));
+
+        // an expiry after the time-to-live doesn't extend it
+        cache.put("+4366", "blocked", 0, 5000);
+        assertNull(cache.get("+4366", 1000));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        DecisionCache<String> cache = new DecisionCache<>(2, 1000);
+        cache.put("1", "a", 0);
+        cache.put("2", "b", 0);
+        // "1" is used, so "2" is the least recently used one
+        cache.get("1", 0);
+        cache.put("3", "c", 0);
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get("1", 0));
+        assertNull(cache.get("2", 0));
+        assertNotNull(cache.get("3", 0));
+
+        cache.trimTo(1);
+        assertEquals(1, cache.size());
+        // "1" has been used before "3"
+        assertNotNull(cache.get("3", 0));
+        assertEquals(DecisionCache.ENTRY_SIZE, cache.memoryUsage());
+    }
+
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright © Ricki Hirner (bitfire web engineering).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ */
+
+package at.bitfire.nophonespam.screening;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class DecisionTraceTest {
+
+    static final String
+            PATTERN = "+4312%",
+            PATTERN_NUMBER = "+43123456",
+            EXACT_NUMBER = "+436641234567";
+
+    /** patterns which are examined for, but don't match {@link #CANDIDATES_NUMBER} */
+    static final int FAILING_CANDIDATES = DecisionTrace.MAX_CANDIDATES + 8;
+    static final String CANDIDATES_NUMBER = "+4399000999";
+
+    private RulePipeline<String> pipeline() {
+        MatcherSegment.Builder builder = new MatcherSegment.Builder(0, 16);
+        builder.add(EXACT_NUMBER, 0, 0, 0);
+        builder.add(PATTERN, 0, 0, 0);
+        for (int i = 0; i < FAILING_CANDIDATES; i++)
+            builder.add("+4399%" + (100 + i), 0, 0, 0);
+        CompiledMatcher matcher = CompiledMatcher.merge(Collections.singletonList(builder.build()));
+
+        CallFloodTest.FloodBlacklist blacklist = new CallFloodTest.FloodBlacklist(matcher,
+                new RangeIndex.Builder().add(PhoneNumbers.encode("+4372000000"), PhoneNumbers.encode("+4372999999"), null).build(),
+                new BitSet());
+
+        List<RulePipeline.Rule<String>> rules = new ArrayList<>();
+        rules.add(new ScreeningRules.AllowlistRule<String>(new ScreeningRules.AllowedNumbers() {
+            @Override
+            public boolean isAllowed(String number) {
+                return false;
+            }
+        }));
+        rules.add(new ScreeningRules.HiddenNumberRule<String>());
+        rules.add(new ScreeningRules.RangeRule<>(blacklist));
+        rules.add(new ScreeningRules.ExactRule<>(blacklist));
+        rules.add(new ScreeningRules.PatternRule<>(blacklist));
+        rules.add(new ScreeningRules.CountryRule<>(blacklist));
+        return new RulePipeline<>(rules, new RulePipeline.Statistics(),
+                new DecisionCache<RulePipeline.Decision<String>>(16, 60000));
+    }
+
+    private static List<String> stepNames(DecisionTrace trace) {
+        List<String> names = new ArrayList<>();
+        for (DecisionTrace.Step step : trace.steps())
+            names.add(step.name);
+        return names;
+    }
+
+    private static DecisionTrace.Step step(DecisionTrace trace, String name) {
+        for (DecisionTrace.Step step : trace.steps())
+            if (step.name.equals(name))
+                return step;
+        return null;
+    }
+
+
+    @Test
+    public void testReplayTriesRulesInOrder() {
+        RulePipeline<String> pipeline = pipeline();
+
+        DecisionTrace trace = new DecisionTrace(PATTERN_NUMBER);
+        RulePipeline.Decision<String> decision = pipeline.match(PATTERN_NUMBER, 0, trace);
+        assertNotNull(decision);
+        assertEquals(PATTERN, decision.entry);
+
+        // every rule until the deciding one, with the examined pattern after its rule; no cache
+        assertEquals(Arrays.asList("rule allowlist", "rule hidden", "rule range", "rule exact", "rule prefix", "candidate"),
+                stepNames(trace));
+        assertEquals("no decision", step(trace, "rule exact").detail);
+        assertEquals(decision.toString(), step(trace, "rule prefix").detail);
+        assertEquals(PATTERN + " (matches)", step(trace, "candidate").detail);
+        assertEquals(1, trace.candidates());
+
+        // replaying again gives the same trace
+        DecisionTrace again = new DecisionTrace(PATTERN_NUMBER);
+        pipeline.match(PATTERN_NUMBER, 0, again);
+        assertEquals(stepNames(trace), stepNames(again));
+    }
+
+    @Test
+    public void testCacheMissThenHit() {
+        RulePipeline<String> pipeline = pipeline();
+
+        DecisionTrace first = new DecisionTrace(EXACT_NUMBER);
+        RulePipeline.Decision<String> decision = pipeline.evaluate(EXACT_NUMBER, 0, first);
+        assertNotNull(decision);
+        assertEquals(Arrays.asList("rule allowlist", "cache", "rule hidden", "rule range", "rule exact"), stepNames(first));
+        assertEquals("miss", step(first, "cache").detail);
+
+        // block phase is decided by the cache
+        DecisionTrace second = new DecisionTrace(EXACT_NUMBER);
+        assertEquals(decision, pipeline.evaluate(EXACT_NUMBER, 1, second));
+        assertEquals(Arrays.asList("rule allowlist", "cache"), stepNames(second));
+        assertEquals("hit, " + decision, step(second, "cache").detail);
+        assertEquals(0, second.candidates());
+
+        // matching doesn't use the cache
+        DecisionTrace replay = new DecisionTrace(EXACT_NUMBER);
+        pipeline.match(EXACT_NUMBER, 2, replay);
+        assertEquals(Arrays.asList("rule allowlist", "rule hidden", "rule range", "rule exact"), stepNames(replay));
+    }
+
+    @Test
+    public void testCandidatesAreLimited() {
+        RulePipeline<String> pipeline = pipeline();
+
+        DecisionTrace trace = new DecisionTrace(CANDIDATES_NUMBER);
+        assertEquals(null, pipeline.match(CANDIDATES_NUMBER, 0, trace));
+
+        // all examined patterns are counted, but only the first ones are recorded
+        assertEquals(FAILING_CANDIDATES, trace.candidates());
+        int recorded = 0;
+        for (DecisionTrace.Step step : trace.steps())
+            if (step.name.equals("candidate")) {
+                assertTrue(step.detail.startsWith("+4399%"));
+                recorded++;
+            }
+        assertEquals(DecisionTrace.MAX_CANDIDATES, recorded);
+        assertEquals("rule country", stepNames(trace).get(stepNames(trace).size() - 1));
+        assertTrue(trace.toString().contains("(" + DecisionTrace.MAX_CANDIDATES + " shown)"));
+    }
+
+}
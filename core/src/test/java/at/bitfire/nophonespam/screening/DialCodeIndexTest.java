@@ -0,0 +1,95 @@
+/*
+ * Copyright © Ricki Hirner (bitfire web engineering).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ */
+
+package at.bitfire.nophonespam.screening;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class DialCodeIndexTest {
+
+    @Test
+    public void testLongestMatch() {
+        DialCodeIndex index = new DialCodeIndex(new String[] { "", "1", "1684", "43" });
+        assertEquals(2, index.find("+16841234567"));
+        assertEquals(1, index.find("+12125551234"));
+        assertEquals(2, index.find("+1684"));
+        assertEquals(1, index.find("+168"));
+        assertEquals(3, index.find("+43664123"));
+        assertEquals(-1, index.find("+49301234"));
+
+        assertEquals("American Samoa", CountryCode.COUNTRIES[CountryCode.findByDialCode("+16841234567")].name);
+    }
+
+    @Test
+    public void testFirstCountryWins() {
+        DialCodeIndex index = new DialCodeIndex(new String[] { "7", "43", "7" });
+        assertEquals(0, index.find("+79123456789"));
+
+        // the first country with dial code 1 is used for all numbers of the NANP
+        int first = -1;
+        for (int i = 0; i < CountryCode.COUNTRIES.length && first == -1; i++)
+            if ("1".equals(CountryCode.COUNTRIES[i].dialCode))
+                first = i;
+        assertEquals(first, CountryCode.findByDialCode("+12125551234"));
+    }
+
+    @Test
+    public void testMaxLength() {
+        DialCodeIndex index = new DialCodeIndex(new String[] { "1", "1234" });
+        assertEquals(1, index.find("+123456789"));
+        assertEquals(0, index.find("+1235"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTooLong() {
+        new DialCodeIndex(new String[] { "12345" });
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNotDigits() {
+        new DialCodeIndex(new String[] { "1-684" });
+    }
+
+    @Test
+    public void testNoInternationalNumber() {
+        DialCodeIndex index = new DialCodeIndex(new String[] { "1", "43" });
+        assertEquals(-1, index.find(null));
+        assertEquals(-1, index.find(""));
+        assertEquals(-1, index.find("+"));
+        assertEquals(-1, index.find("0043664123"));
+        assertEquals(-1, index.find("+%43"));
+    }
+
+    @Test
+    public void testLikeLinearScan() {
+        String[] dialCodes = new String[CountryCode.COUNTRIES.length];
+        for (int i = 0; i < dialCodes.length; i++)
+            dialCodes[i] = CountryCode.COUNTRIES[i].dialCode;
+        DialCodeIndex index = new DialCodeIndex(dialCodes);
+
+        Random random = new Random(1);
+        for (int i = 0; i < 10000; i++) {
+            String number = "+" + WildcardsTest.random(random, "0123456789", 8);
+
+            // longest dial code, first country of that dial code
+            int expected = -1;
+            for (int c = 0; c < dialCodes.length; c++) {
+                String code = dialCodes[c];
+                if (!code.isEmpty() && number.startsWith(code, 1) &&
+                        (expected == -1 || code.length() > dialCodes[expected].length()))
+                    expected = c;
+            }
+            assertEquals(number, expected, index.find(number));
+        }
+    }
+
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright © Ricki Hirner (bitfire web engineering).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ */
+
+package at.bitfire.nophonespam.screening;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ExactNumberStoreTest {
+
+    static final int RUNS = 200000;
+
+    @Test
+    public void testLikeHashMap() {
+        Random random = new Random(1);
+        // small key space, so that keys are replaced and removed often and probe sequences collide
+        long[] keys = new long[300];
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = PhoneNumbers.encode(PhoneNumbersTest.randomNumber(random, 17));
+
+        ExactNumberStore store = new ExactNumberStore(4);
+        // key → { tag, lastCall, timesCalled, expires }
+        Map<Long, long[]> model = new HashMap<>();
+        long now = 0;
+
+        for (int run = 0; run < RUNS; run++) {
+            long key = keys[random.nextInt(keys.length)];
+            int op = random.nextInt(10);
+            if (op < 6) {
+                int tag = random.nextInt(), timesCalled = random.nextInt(100);
+                long lastCall = random.nextInt(1000),
+                     expires = random.nextBoolean() ? now + 1 + random.nextInt(500) : 0;
+                store.put(key, tag, lastCall, timesCalled, expires);
+                model.put(key, new long[] { tag, lastCall, timesCalled, expires });
+            } else if (op < 9)
+                assertEquals(model.remove(key) != null, store.remove(key));
+            else {
+                now += random.nextInt(50);
+                int expired = 0;
+                for (Iterator<long[]> iterator = model.values().iterator(); iterator.hasNext(); ) {
+                    long expires = iterator.next()[3];
+                    if (expires != 0 && expires <= now) {
+                        iterator.remove();
+                        expired++;
+                    }
+                }
+                assertEquals(expired, store.removeExpired(now));
+            }
+
+            assertEquals(model.size(), store.size());
+            long[] expected = model.get(key);
+            int idx = store.indexOf(key);
+            if (expected == null)
+                assertEquals(-1, idx);
+            else {
+                assertEquals(key, store.key(idx));
+                assertEquals(expected[0], store.tag(idx));
+                assertEquals(expected[1], store.lastCall(idx));
+                assertEquals(expected[2], store.timesCalled(idx));
+                assertEquals(expected[3], store.expires(idx));
+            }
+        }
+
+        for (long key : keys)
+            assertEquals(model.containsKey(key), store.contains(key));
+    }
+
+    @Test
+    public void testReplacedEntryKeepsNewExpiry() {
+        ExactNumberStore store = new ExactNumberStore(4);
+        long key = PhoneNumbers.encode("+43664123456");
+        store.put(key, 1, 0, 0, 100);
+        store.put(key, 1, 0, 0, 0);
+        assertEquals(0, store.removeExpired(200));
+        assertTrue(store.contains(key));
+
+        store.put(key, 1, 0, 0, 300);
+        assertEquals(0, store.removeExpired(299));
+        assertEquals(1, store.removeExpired(300));
+        assertFalse(store.contains(key));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPutNotEncodable() {
+        new ExactNumberStore(4).put(PhoneNumbers.NOT_ENCODABLE, 0, 0, 0, 0);
+    }
+
+}
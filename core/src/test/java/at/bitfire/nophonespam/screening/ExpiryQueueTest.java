@@ -0,0 +1,77 @@
+/*
+ * Copyright © Ricki Hirner (bitfire web engineering).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ */
+
+package at.bitfire.nophonespam.screening;
+
+import org.junit.Test;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ExpiryQueueTest {
+
+    @Test
+    public void testLikePriorityQueue() {
+        Random random = new Random(1);
+        ExpiryQueue queue = new ExpiryQueue();
+        // { time, key }, ordered by time
+        PriorityQueue<long[]> model = new PriorityQueue<>(11, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] a, long[] b) {
+                return Long.compare(a[0], b[0]);
+            }
+        });
+
+        long now = 0;
+        for (int run = 0; run < 100000; run++) {
+            if (random.nextInt(3) > 0) {
+                long time = now + random.nextInt(1000), key = random.nextLong();
+                queue.add(time, key);
+                model.add(new long[] { time, key });
+            } else
+                now += random.nextInt(100);
+
+            while (queue.hasExpired(now)) {
+                long time = queue.nextTime();
+                long[] expected = model.poll();
+                // keys with the same time may come in any order, so only compare the times
+                assertEquals(expected[0], time);
+                assertTrue(time <= now);
+                queue.poll();
+            }
+            assertEquals(model.size(), queue.size());
+            assertTrue(model.isEmpty() || model.peek()[0] > now);
+        }
+    }
+
+    @Test
+    public void testPollReturnsKey() {
+        ExpiryQueue queue = new ExpiryQueue();
+        queue.add(300, 3);
+        queue.add(100, 1);
+        queue.add(200, 2);
+        assertFalse(queue.hasExpired(99));
+        assertTrue(queue.hasExpired(100));
+        assertEquals(100, queue.nextTime());
+        assertEquals(1, queue.poll());
+        assertEquals(2, queue.poll());
+        assertEquals(3, queue.poll());
+        assertFalse(queue.hasExpired(Long.MAX_VALUE));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testPollEmpty() {
+        new ExpiryQueue().poll();
+    }
+
+}
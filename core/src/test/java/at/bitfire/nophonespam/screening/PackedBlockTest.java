@@ -0,0 +1,122 @@
+/*
+ * Copyright © Ricki Hirner (bitfire web engineering).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ */
+
+package at.bitfire.nophonespam.screening;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PackedBlockTest {
+
+    static final int RUNS = 100;
+
+    static String randomName(Random random) {
+        switch (random.nextInt(4)) {
+            case 0:
+                return null;
+            case 1:
+                return "Spam " + random.nextInt(1000);
+            case 2:
+                // multi-byte characters
+                return "Tëlemärketing €" + random.nextInt(10);
+            default:
+                // longer than 127 bytes, so that the length takes more than one byte
+                StringBuilder sb = new StringBuilder();
+                for (int i = 0, length = 128 + random.nextInt(300); i < length; i++)
+                    sb.append((char)('a' + random.nextInt(26)));
+                return sb.toString();
+        }
+    }
+
+
+    @Test
+    public void testRoundTrip() {
+        Random random = new Random(1);
+        for (int run = 0; run < RUNS; run++) {
+            // sorted like the writer expects them
+            TreeMap<String, String> entries = new TreeMap<>();
+            for (int i = 0, count = 1 + random.nextInt(300); i < count; i++)
+                entries.put(WildcardsTest.random(random, PackedBlock.SYMBOLS, 1 + random.nextInt(20)) + random.nextInt(10), randomName(random));
+
+            List<byte[]> blocks = new ArrayList<>();
+            List<String> firsts = new ArrayList<>();
+            PackedBlock.Writer writer = new PackedBlock.Writer();
+            for (String number : entries.keySet()) {
+                assertTrue(writer.add(number, entries.get(number)));
+                assertFalse(writer.add(number, entries.get(number)));
+                if (writer.isFull()) {
+                    firsts.add(writer.first());
+                    blocks.add(writer.finish());
+                }
+            }
+            if (writer.count() > 0) {
+                firsts.add(writer.first());
+                blocks.add(writer.finish());
+            }
+
+            // read everything back
+            List<String> numbers = new ArrayList<>(entries.keySet());
+            int i = 0;
+            for (int block = 0; block < blocks.size(); block++) {
+                assertEquals(numbers.get(i), firsts.get(block));
+                PackedBlock.Reader reader = new PackedBlock.Reader(blocks.get(block));
+                int inBlock = 0;
+                while (reader.next()) {
+                    String number = numbers.get(i++);
+                    assertEquals(number, reader.number());
+                    assertEquals(0, reader.compareTo(number));
+                    String name = entries.get(number);
+                    assertEquals(name != null && !name.isEmpty() ? name : null, reader.name());
+                    inBlock++;
+                }
+                assertTrue(inBlock <= PackedBlock.BLOCK_ENTRIES);
+            }
+            assertEquals(numbers.size(), i);
+
+            // seek present and absent numbers in the block which would contain them
+            for (int probe = 0; probe < 100; probe++) {
+                String number = random.nextBoolean() ?
+                        numbers.get(random.nextInt(numbers.size())) :
+                        WildcardsTest.random(random, PackedBlock.SYMBOLS, 10) + random.nextInt(10);
+                int block = 0;
+                while (block + 1 < firsts.size() && firsts.get(block + 1).compareTo(number) <= 0)
+                    block++;
+
+                PackedBlock.Reader reader = new PackedBlock.Reader(blocks.get(block));
+                boolean found = reader.seek(number);
+                assertEquals(number, entries.containsKey(number), found);
+                if (found)
+                    assertEquals(number, reader.number());
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsorted() {
+        PackedBlock.Writer writer = new PackedBlock.Writer();
+        writer.add("+4366", null);
+        writer.add("+4365", null);
+    }
+
+    @Test
+    public void testIsPackable() {
+        assertTrue(PackedBlock.isPackable("+43%"));
+        assertTrue(PackedBlock.isPackable("0664_23"));
+        assertFalse(PackedBlock.isPackable(""));
+        assertFalse(PackedBlock.isPackable("0664*"));
+    }
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright © Ricki Hirner (bitfire web engineering).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ */
+
+package at.bitfire.nophonespam.screening;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PatternOptimizerTest {
+
+    static final int RUNS = 20000;
+
+    /** all numbers of the given symbols up to the given length */
+    static List<String> allNumbers(String symbols, int maxLength) {
+        List<String> numbers = new ArrayList<>();
+        numbers.add("");
+        for (int from = 0, length = 1; length <= maxLength; length++) {
+            int to = numbers.size();
+            for (int i = from; i < to; i++)
+                for (char ch : symbols.toCharArray())
+                    numbers.add(numbers.get(i) + ch);
+            from = to;
+        }
+        return numbers;
+    }
+
+
+    @Test
+    public void testSubsumes() {
+        assertTrue(PatternOptimizer.subsumes("+43%", "+4366%"));
+        assertTrue(PatternOptimizer.subsumes("+43%", "+43664123"));
+        assertTrue(PatternOptimizer.subsumes("%", "%"));
+        assertTrue(PatternOptimizer.subsumes("_1", "01"));
+        assertFalse(PatternOptimizer.subsumes("+4366%", "+43%"));
+        assertFalse(PatternOptimizer.subsumes("01", "_1"));
+        assertFalse(PatternOptimizer.subsumes("_%", "%"));
+    }
+
+    /**
+     * If a pattern subsumes another one, every number which matches the specific pattern
+     * must match the general one (otherwise merging would unblock numbers).
+     */
+    @Test
+    public void testSubsumesIsSound() {
+        List<String> numbers = allNumbers("012", 7);
+        Random random = new Random(1);
+        int subsumed = 0;
+        for (int run = 0; run < RUNS; run++) {
+            String general = WildcardsTest.random(random, "01%_", 4),
+                   specific = WildcardsTest.random(random, "01%_", 5);
+            if (!PatternOptimizer.subsumes(general, specific))
+                continue;
+            subsumed++;
+            for (String number : numbers)
+                if (Wildcards.matches(specific, number))
+                    assertTrue(general + " doesn't match " + number + " (matched by " + specific + ")",
+                            Wildcards.matches(general, number));
+        }
+        // make sure that the property has actually been checked
+        assertTrue(subsumed > RUNS / 20);
+    }
+
+    /**
+     * Patterns without '%' only match numbers up to their own length, so for them the
+     * numbers which are checked are complete and subsumption must also be detected.
+     */
+    @Test
+    public void testSubsumesIsCompleteForFixedLength() {
+        List<String> numbers = allNumbers("012", 5);
+        Random random = new Random(2);
+        for (int run = 0; run < RUNS; run++) {
+            String general = WildcardsTest.random(random, "01_", 4),
+                   specific = WildcardsTest.random(random, "01_", 4);
+            boolean covered = true;
+            for (String number : numbers)
+                if (Wildcards.matches(specific, number) && !Wildcards.matches(general, number)) {
+                    covered = false;
+                    break;
+                }
+            if (covered)
+                assertTrue(general + " should subsume " + specific, PatternOptimizer.subsumes(general, specific));
+        }
+    }
+
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright © Ricki Hirner (bitfire web engineering).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ */
+
+package at.bitfire.nophonespam.screening;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PatternTrieTest {
+
+    static final int RUNS = 200;
+
+    @Test
+    public void testFindLikeLinearScan() {
+        Random random = new Random(1);
+        for (int run = 0; run < RUNS; run++) {
+            PatternTrie trie = new PatternTrie(4);
+            List<String> patterns = new ArrayList<>();
+            List<Long> expiries = new ArrayList<>();
+            int count = 1 + random.nextInt(40);
+            for (int i = 0; i < count; i++) {
+                String pattern = WildcardsTest.random(random, "+012%_", 6);
+                long expires = random.nextInt(3) == 0 ? 1 + random.nextInt(1000) : 0;
+                assertEquals(i, trie.add(pattern, i, expires));
+                patterns.add(pattern);
+                expiries.add(expires);
+            }
+
+            // times must not go backwards (expired patterns are removed)
+            long now = 0;
+            for (int i = 0; i < 200; i++) {
+                now += random.nextInt(10);
+                String number = WildcardsTest.random(random, "+012", 7);
+
+                boolean expected = false;
+                for (int p = 0; p < count && !expected; p++) {
+                    long expires = expiries.get(p);
+                    expected = (expires == 0 || expires > now) && Wildcards.matches(patterns.get(p), number);
+                }
+
+                int idx = trie.find(number, now);
+                assertEquals(number + " in " + patterns + " at " + now, expected, idx != -1);
+                if (idx != -1) {
+                    assertTrue(Wildcards.matches(trie.pattern(idx), number));
+                    assertEquals(patterns.get(idx), trie.pattern(idx));
+                    assertEquals(idx, trie.tag(idx));
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright © Ricki Hirner (bitfire web engineering).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ */
+
+package at.bitfire.nophonespam.screening;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PhoneNumbersTest {
+
+    static final int RUNS = 20000;
+
+    /**
+     * @return random normalized number with up to maxDigits digits (at least one), often with leading zeros
+     */
+    static String randomNumber(Random random, int maxDigits) {
+        StringBuilder sb = new StringBuilder();
+        if (random.nextBoolean())
+            sb.append('+');
+        int digits = 1 + random.nextInt(maxDigits);
+        for (int i = 0; i < digits; i++)
+            sb.append(random.nextInt(4) == 0 ? '0' : (char)('0' + random.nextInt(10)));
+        return sb.toString();
+    }
+
+
+    @Test
+    public void testNormalize() {
+        assertEquals("+43664123456", PhoneNumbers.normalize("+43 664 123-456"));
+        assertEquals("0664123456", PhoneNumbers.normalize("(0664) 123 456"));
+        assertEquals("43", PhoneNumbers.normalize("4+3"));
+        assertEquals("", PhoneNumbers.normalize("+"));
+        assertEquals("", PhoneNumbers.normalize("abc"));
+        assertEquals("", PhoneNumbers.normalize(null));
+    }
+
+    @Test
+    public void testEncodeDecodeRoundTrip() {
+        Random random = new Random(1);
+        for (int run = 0; run < RUNS; run++) {
+            String number = randomNumber(random, 17);
+            long encoded = PhoneNumbers.encode(number);
+            assertNotEquals(number, PhoneNumbers.NOT_ENCODABLE, encoded);
+            assertEquals(number, PhoneNumbers.decode(encoded));
+        }
+    }
+
+    @Test
+    public void testEncodeIsInjective() {
+        Random random = new Random(2);
+        Map<Long, String> seen = new HashMap<>();
+        for (int run = 0; run < RUNS; run++) {
+            String number = randomNumber(random, 6);
+            String previous = seen.put(PhoneNumbers.encode(number), number);
+            if (previous != null)
+                assertEquals(previous, number);
+        }
+    }
+
+    @Test
+    public void testNotEncodable() {
+        assertEquals(PhoneNumbers.NOT_ENCODABLE, PhoneNumbers.encode(""));
+        assertEquals(PhoneNumbers.NOT_ENCODABLE, PhoneNumbers.encode("+"));
+        assertEquals(PhoneNumbers.NOT_ENCODABLE, PhoneNumbers.encode("123456789012345678"));
+        assertEquals(PhoneNumbers.NOT_ENCODABLE, PhoneNumbers.encode("+43%"));
+        assertEquals(PhoneNumbers.NOT_ENCODABLE, PhoneNumbers.encode("43_1"));
+        assertNotEquals(PhoneNumbers.NOT_ENCODABLE, PhoneNumbers.encode("+12345678901234567"));
+    }
+
+    @Test
+    public void testSameForm() {
+        Random random = new Random(3);
+        for (int run = 0; run < RUNS; run++) {
+            String a = randomNumber(random, 17), b = randomNumber(random, 17);
+            boolean sameForm = a.startsWith("+") == b.startsWith("+") && a.length() == b.length();
+            long ea = PhoneNumbers.encode(a), eb = PhoneNumbers.encode(b);
+            assertEquals(a + " " + b, sameForm, PhoneNumbers.sameForm(ea, eb));
+            if (sameForm)
+                // numbers of the same form are ordered like their strings
+                assertEquals(a + " " + b, Integer.signum(a.compareTo(b)), Long.signum(Long.compare(ea, eb)));
+        }
+        assertFalse(PhoneNumbers.sameForm(PhoneNumbers.encode("+4319"), PhoneNumbers.encode("04319")));
+        assertTrue(PhoneNumbers.sameForm(PhoneNumbers.encode("0000"), PhoneNumbers.encode("9999")));
+    }
+
+    @Test
+    public void testDecodeOfLeadingZeros() {
+        assertEquals("007", PhoneNumbers.decode(PhoneNumbers.encode("007")));
+        assertEquals("+0", PhoneNumbers.decode(PhoneNumbers.encode("+0")));
+    }
+
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright © Ricki Hirner (bitfire web engineering).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ */
+
+package at.bitfire.nophonespam.screening;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RangeIndexTest {
+
+    static final int RUNS = 500;
+
+    /** forms of the numbers: with or without '+', and a few lengths */
+    static final String[] FORMS = { "+4366", "0664", "+431", "01" };
+
+    static String randomNumber(Random random, String prefix) {
+        StringBuilder sb = new StringBuilder(prefix);
+        for (int i = 0; i < 3; i++)
+            sb.append((char)('0' + random.nextInt(10)));
+        return sb.toString();
+    }
+
+
+    @Test
+    public void testFindLikeLinearScan() {
+        Random random = new Random(1);
+        for (int run = 0; run < RUNS; run++) {
+            RangeIndex.Builder builder = new RangeIndex.Builder();
+            List<long[]> ranges = new ArrayList<>();
+            for (int i = 0, count = random.nextInt(30); i < count; i++) {
+                String form = FORMS[random.nextInt(FORMS.length)];
+                long a = PhoneNumbers.encode(randomNumber(random, form)),
+                     b = PhoneNumbers.encode(randomNumber(random, form));
+                long start = Math.min(a, b), end = Math.max(a, b);
+                builder.add(start, end, "range " + i);
+                ranges.add(new long[] { start, end });
+            }
+            RangeIndex index = builder.build();
+            assertTrue(index.size() <= ranges.size());
+
+            for (int probe = 0; probe < 500; probe++) {
+                long value = PhoneNumbers.encode(randomNumber(random, FORMS[random.nextInt(FORMS.length)]));
+                boolean expected = false;
+                for (long[] range : ranges)
+                    if (range[0] <= value && value <= range[1]) {
+                        expected = true;
+                        break;
+                    }
+
+                int idx = index.find(value);
+                assertEquals(PhoneNumbers.decode(value), expected, idx != -1);
+                if (idx != -1) {
+                    assertTrue(PhoneNumbers.sameForm(value, index.start(idx)));
+                    assertTrue(index.start(idx) <= value && value <= index.end(idx));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testMergeKeepsFirstName() {
+        RangeIndex index = new RangeIndex.Builder()
+                .add(PhoneNumbers.encode("0664200"), PhoneNumbers.encode("0664299"), "second")
+                .add(PhoneNumbers.encode("0664100"), PhoneNumbers.encode("0664199"), "first")
+                .add(PhoneNumbers.encode("+4366100"), PhoneNumbers.encode("+4366199"), "international")
+                .build();
+        assertEquals(2, index.size());
+
+        int idx = index.find(PhoneNumbers.encode("0664250"));
+        assertEquals("first", index.name(idx));
+        assertEquals(PhoneNumbers.encode("0664100"), index.start(idx));
+        assertEquals(PhoneNumbers.encode("0664299"), index.end(idx));
+
+        assertEquals("international", index.name(index.find(PhoneNumbers.encode("+4366150"))));
+        assertEquals(-1, index.find(PhoneNumbers.encode("066415")));
+        assertEquals(-1, index.find(PhoneNumbers.NOT_ENCODABLE));
+    }
+
+    @Test
+    public void testIsValid() {
+        assertTrue(RangeIndex.Builder.isValid(PhoneNumbers.encode("0664100"), PhoneNumbers.encode("0664100")));
+        assertFalse(RangeIndex.Builder.isValid(PhoneNumbers.encode("0664200"), PhoneNumbers.encode("0664100")));
+        assertFalse(RangeIndex.Builder.isValid(PhoneNumbers.encode("0664100"), PhoneNumbers.encode("06641000")));
+        assertFalse(RangeIndex.Builder.isValid(PhoneNumbers.encode("+664100"), PhoneNumbers.encode("0664100")));
+        assertFalse(RangeIndex.Builder.isValid(PhoneNumbers.NOT_ENCODABLE, PhoneNumbers.encode("0664100")));
+    }
+
+}
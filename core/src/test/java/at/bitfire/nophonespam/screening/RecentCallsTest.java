@@ -0,0 +1,43 @@
+/*
+ * Copyright © Ricki Hirner (bitfire web engineering).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ */
+
+package at.bitfire.nophonespam.screening;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class RecentCallsTest {
+
+    static final long WINDOW = 1000;
+
+    @Test
+    public void testCountsCallsWithinWindow() {
+        RecentCalls calls = new RecentCalls(8);
+        long a = PhoneNumbers.encode("+4366123"), b = PhoneNumbers.encode("+4366124");
+        assertEquals(1, calls.record(a, 0, WINDOW));
+        assertEquals(1, calls.record(b, 100, WINDOW));
+        assertEquals(2, calls.record(a, 200, WINDOW));
+        assertEquals(3, calls.record(a, 999, WINDOW));
+        // the first call is out of the window now
+        assertEquals(3, calls.record(a, 1000, WINDOW));
+        assertEquals(2, calls.record(b, 1050, WINDOW));
+    }
+
+    @Test
+    public void testOldestCallsAreOverwritten() {
+        RecentCalls calls = new RecentCalls(2);
+        long a = PhoneNumbers.encode("+4366123"), b = PhoneNumbers.encode("+4366124");
+        calls.record(a, 0, WINDOW);
+        calls.record(b, 1, WINDOW);
+        calls.record(b, 2, WINDOW);
+        // the call from a has been overwritten
+        assertEquals(1, calls.record(a, 3, WINDOW));
+    }
+
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright © Ricki Hirner (bitfire web engineering).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ */
+
+package at.bitfire.nophonespam.screening;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RingFilterTest {
+
+    static final long WINDOW = 30000;
+
+    @Test
+    public void testNumberFirst() {
+        RingFilter filter = new RingFilter(WINDOW);
+        assertFalse(filter.isDuplicate("+431234", 0));
+        filter.rejected();
+        assertTrue(filter.isDuplicate("", 100));
+        assertTrue(filter.isDuplicate("+431234", 200));
+    }
+
+    @Test
+    public void testNumberFirstNotRejected() {
+        RingFilter filter = new RingFilter(WINDOW);
+        assertFalse(filter.isDuplicate("+431234", 0));
+        assertTrue(filter.isDuplicate("", 100));
+    }
+
+    @Test
+    public void testHiddenFirstRejected() {
+        // hidden numbers are blocked: the call has been rejected by the broadcast without number
+        RingFilter filter = new RingFilter(WINDOW);
+        assertFalse(filter.isDuplicate("", 0));
+        filter.rejected();
+        assertTrue(filter.isDuplicate("+431234", 100));
+        assertTrue(filter.isDuplicate("", 200));
+        assertTrue(filter.isDuplicate("+431234", 300));
+    }
+
+    @Test
+    public void testHiddenFirstNotRejected() {
+        // hidden numbers are not blocked: the call must be screened with its number
+        RingFilter filter = new RingFilter(WINDOW);
+        assertFalse(filter.isDuplicate("", 0));
+        assertFalse(filter.isDuplicate("+431234", 100));
+        assertTrue(filter.isDuplicate("+431234", 200));
+        assertTrue(filter.isDuplicate("", 300));
+    }
+
+    @Test
+    public void testOtherNumber() {
+        RingFilter filter = new RingFilter(WINDOW);
+        assertFalse(filter.isDuplicate("+431234", 0));
+        filter.rejected();
+        assertFalse(filter.isDuplicate("+435678", 100));
+        assertTrue(filter.isDuplicate("+435678", 200));
+    }
+
+    @Test
+    public void testNewRing() {
+        RingFilter filter = new RingFilter(WINDOW);
+        assertFalse(filter.isDuplicate("", 0));
+        filter.rejected();
+        // after the window
+        assertFalse(filter.isDuplicate("+431234", WINDOW));
+        // after the call has ended
+        filter.ended();
+        assertFalse(filter.isDuplicate("+431234", WINDOW + 100));
+        filter.ended();
+        assertFalse(filter.isDuplicate("", WINDOW + 200));
+    }
+
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright © Ricki Hirner (bitfire web engineering).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ */
+
+package at.bitfire.nophonespam.screening;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class RulePipelineTest {
+
+    static class FixedRule extends RulePipeline.Rule<String> {
+
+        final String prefix;
+        long delayNanos;
+
+        FixedRule(String name, int phase, int precedence, long estimatedCost, String prefix) {
+            super(name, phase, precedence, estimatedCost);
+            this.prefix = prefix;
+        }
+
+        @Override
+        public RulePipeline.Decision<String> evaluate(String number, long now) {
+            long until = System.nanoTime() + delayNanos;
+            while (System.nanoTime() < until)
+                ;
+            return number.startsWith(prefix) ? new RulePipeline.Decision<>(this, true, prefix, name) : null;
+        }
+
+    }
+
+
+    @Test
+    public void testPrecedenceBeforeCost() {
+        FixedRule expensive = new FixedRule("expensive", RulePipeline.PHASE_BLOCK, 0, 10000, "+43"),
+                  cheap = new FixedRule("cheap", RulePipeline.PHASE_BLOCK, 1, 1, "+4366"),
+                  allow = new FixedRule("allow", RulePipeline.PHASE_ALLOW, 0, 100000, "+4311");
+        RulePipeline<String> pipeline = new RulePipeline<>(Arrays.asList(cheap, expensive, allow),
+                new RulePipeline.Statistics(), new DecisionCache<RulePipeline.Decision<String>>(16, 1000));
+        assertEquals("allow → expensive → cheap", pipeline.toString());
+
+        assertEquals("expensive", pipeline.match("+4366123", 0).rule.name);
+        assertEquals("allow", pipeline.match("+4311123", 0).rule.name);
+        assertNull(pipeline.match("+49", 0));
+    }
+
+    @Test
+    public void testCostWithinPrecedence() {
+        RulePipeline.Statistics statistics = new RulePipeline.Statistics();
+        FixedRule slow = new FixedRule("slow", RulePipeline.PHASE_BLOCK, 0, 1, "+43"),
+                  fast = new FixedRule("fast", RulePipeline.PHASE_BLOCK, 0, 1000, "+49");
+        slow.delayNanos = 100000;
+        RulePipeline<String> pipeline = new RulePipeline<>(Arrays.asList(slow, fast),
+                statistics, new DecisionCache<RulePipeline.Decision<String>>(16, 1000));
+        assertEquals("slow → fast", pipeline.toString());
+
+        // different numbers, so that the decisions aren't cached
+        for (int i = 0; i < RulePipeline.MIN_SAMPLES; i++)
+            pipeline.evaluate("+1" + i, i);
+
+        // measured costs are used when the pipeline is compiled again
+        pipeline = new RulePipeline<>(Arrays.asList(slow, fast),
+                statistics, new DecisionCache<RulePipeline.Decision<String>>(16, 1000));
+        assertEquals("fast → slow", pipeline.toString());
+    }
+
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright © Ricki Hirner (bitfire web engineering).
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ */
+
+package at.bitfire.nophonespam.screening;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WildcardsTest {
+
+    static final int RUNS = 50000;
+
+    /**
+     * @return random string of the given symbols (small alphabets, so that matches are frequent)
+     */
+    static String random(Random random, String symbols, int maxLength) {
+        int length = random.nextInt(maxLength + 1);
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++)
+            sb.append(symbols.charAt(random.nextInt(symbols.length())));
+        return sb.toString();
+    }
+
+    /**
+     * Reference implementation of <code>number LIKE pattern</code> for phone numbers.
+     */
+    static boolean like(String pattern, String number) {
+        StringBuilder regex = new StringBuilder();
+        for (char ch : pattern.toCharArray())
+            if (ch == Wildcards.ANY)
+                regex.append(".*");
+            else if (ch == Wildcards.ONE)
+                regex.append('.');
+            else
+                regex.append(Pattern.quote(String.valueOf(ch)));
+        return Pattern.compile(regex.toString(), Pattern.DOTALL).matcher(number).matches();
+    }
+
+
+    @Test
+    public void testMatches() {
+        assertTrue(Wildcards.matches("+43%", "+43664123456"));
+        assertTrue(Wildcards.matches("%123", "0664123"));
+        assertTrue(Wildcards.matches("066_123", "0664123"));
+        assertTrue(Wildcards.matches("%", ""));
+        assertTrue(Wildcards.matches("", ""));
+        assertFalse(Wildcards.matches("_", ""));
+        assertFalse(Wildcards.matches("+43%", "43664"));
+        assertFalse(Wildcards.matches("0664", "06641"));
+    }
+
+    @Test
+    public void testMatchesLikeSql() {
+        Random random = new Random(1);
+        for (int run = 0; run < RUNS; run++) {
+            String pattern = random(random, "+01%_", 8),
+                   number = random(random, "+01", 8);
+            assertEquals(pattern + " LIKE " + number, like(pattern, number), Wildcards.matches(pattern, number));
+        }
+    }
+
+    @Test
+    public void testViewToDbRoundTrip() {
+        Random random = new Random(2);
+        for (int run = 0; run < RUNS; run++) {
+            String pattern = random(random, "+0123456789%_", 12);
+            assertEquals(pattern, Wildcards.viewToDb(Wildcards.dbToView(pattern)));
+        }
+    }
+
+}